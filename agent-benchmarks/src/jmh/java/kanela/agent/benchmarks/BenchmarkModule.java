@@ -0,0 +1,67 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.benchmarks;
+
+import kanela.agent.util.conf.KanelaConfiguration;
+import kanela.agent.util.conf.KanelaConfiguration.ModuleConfiguration;
+import kanela.agent.util.log.Logger;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+/**
+ * Access to the module defined on the benchmarks' application.conf, plus an {@link Instrumentation} that keeps the
+ * transformers registered on it instead of installing them on the JVM.
+ */
+public final class BenchmarkModule {
+
+    private BenchmarkModule() {}
+
+    public static KanelaConfiguration configuration() {
+        final KanelaConfiguration configuration = KanelaConfiguration.from(BenchmarkModule.class.getClassLoader());
+        Logger.configureLogger(configuration);
+        return configuration;
+    }
+
+    public static ModuleConfiguration moduleConfiguration(KanelaConfiguration configuration) {
+        return configuration.getAgentModules().head();
+    }
+
+    /**
+     * Returns an {@link Instrumentation} that adds all registered transformers to the provided list. Every other method
+     * behaves as if the JVM did not support redefinition nor had any loaded classes.
+     */
+    public static Instrumentation capturingInstrumentation(List<ClassFileTransformer> transformers) {
+        return (Instrumentation) Proxy.newProxyInstance(BenchmarkModule.class.getClassLoader(), new Class<?>[] { Instrumentation.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "addTransformer": transformers.add((ClassFileTransformer) args[0]); return null;
+                case "removeTransformer": return transformers.remove(args[0]);
+                case "getAllLoadedClasses":
+                case "getInitiatedClasses": return new Class<?>[0];
+                case "hashCode": return System.identityHashCode(proxy);
+                case "equals": return proxy == args[0];
+                case "toString": return "CapturingInstrumentation";
+                default:
+                    if (method.getReturnType() == boolean.class) return false;
+                    if (method.getReturnType() == long.class) return 0L;
+                    return null;
+            }
+        });
+    }
+}
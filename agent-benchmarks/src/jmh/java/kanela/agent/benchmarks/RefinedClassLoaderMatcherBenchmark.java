@@ -0,0 +1,67 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.benchmarks;
+
+import io.vavr.control.Option;
+import kanela.agent.api.instrumentation.classloader.ClassLoaderRefiner;
+import kanela.agent.api.instrumentation.classloader.ClassRefiner;
+import kanela.agent.util.classloader.ClassLoaderNameMatcher.RefinedClassLoaderMatcher;
+import net.bytebuddy.matcher.ElementMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of refining a ClassLoader, both when the result is already cached for the ClassLoader and when the refiner has
+ * to analyze the classes available on it (which happens the first time a module sees a ClassLoader).
+ */
+@State(Scope.Benchmark)
+public class RefinedClassLoaderMatcherBenchmark {
+
+    private ClassLoader classLoader;
+    private Option<ClassLoaderRefiner> matchingRefiner;
+    private Option<ClassLoaderRefiner> missingClassRefiner;
+    private ElementMatcher<? super ClassLoader> cachedMatcher;
+
+    @Setup
+    public void setup() {
+        classLoader = SyntheticClasses.newClassLoader();
+        matchingRefiner = Option.of(ClassLoaderRefiner.from(ClassRefiner.builder()
+            .mustContain(SyntheticClasses.instrumentedTypeNames()[0])
+            .withFields("value")
+            .withMethod("compute", "int")
+            .build()));
+        missingClassRefiner = Option.of(ClassLoaderRefiner.mustContains("app.benchmark.service.Missing"));
+        cachedMatcher = RefinedClassLoaderMatcher.from(matchingRefiner);
+    }
+
+    @Benchmark
+    public boolean cached() {
+        return cachedMatcher.matches(classLoader);
+    }
+
+    @Benchmark
+    public boolean uncached() {
+        return RefinedClassLoaderMatcher.from(matchingRefiner).matches(classLoader);
+    }
+
+    @Benchmark
+    public boolean uncachedMissingClass() {
+        return RefinedClassLoaderMatcher.from(missingClassRefiner).matches(classLoader);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.benchmarks;
+
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.description.modifier.Visibility;
+import net.bytebuddy.implementation.FixedValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Corpus of generated classes used by the benchmarks. A quarter of them are instrumented by the benchmark module, a
+ * quarter are within the module's packages but excluded, and the rest belong to packages the module never looks at,
+ * which is roughly what an application loading a lot of library classes looks like.
+ */
+public final class SyntheticClasses {
+
+    public static final int Count = 1000;
+
+    private static final String[] typeNames = new String[Count];
+    private static final byte[][] classFiles = new byte[Count][];
+
+    static {
+        for (int i = 0; i < Count; i++) {
+            typeNames[i] = typeNameFor(i);
+            classFiles[i] = new ByteBuddy()
+                .subclass(Object.class)
+                .name(typeNames[i])
+                .defineField("value", int.class, Visibility.PRIVATE)
+                .defineMethod("compute", int.class, Visibility.PUBLIC)
+                .withParameters(int.class)
+                .intercept(FixedValue.value(i))
+                .make()
+                .getBytes();
+        }
+    }
+
+    private SyntheticClasses() {}
+
+    public static String[] typeNames() {
+        return typeNames.clone();
+    }
+
+    public static String[] internalNames() {
+        return Arrays.stream(typeNames).map(typeName -> typeName.replace('.', '/')).toArray(String[]::new);
+    }
+
+    public static byte[][] classFiles() {
+        return classFiles.clone();
+    }
+
+    /**
+     * Names of the types that are transformed by {@link SyntheticInstrumentation}.
+     */
+    public static String[] instrumentedTypeNames() {
+        return Arrays.stream(typeNames).filter(typeName -> typeName.startsWith("app.benchmark.service.")).toArray(String[]::new);
+    }
+
+    /**
+     * A new ClassLoader that is able to provide the class files of the corpus, like an application ClassLoader would.
+     */
+    public static ClassLoader newClassLoader() {
+        return new SyntheticClassLoader(SyntheticClasses.class.getClassLoader());
+    }
+
+    private static String typeNameFor(int index) {
+        switch (index % 4) {
+            case 0: return "app.benchmark.service.Service" + index;
+            case 1: return "app.benchmark.model.Model" + index;
+            case 2: return "org.library.internal.Helper" + index;
+            default: return "com.vendor.util.Utility" + index;
+        }
+    }
+
+    private static final class SyntheticClassLoader extends ClassLoader {
+        private final Map<String, byte[]> resources = new HashMap<>();
+
+        SyntheticClassLoader(ClassLoader parent) {
+            super(parent);
+            for (int i = 0; i < Count; i++) resources.put(typeNames[i].replace('.', '/') + ".class", classFiles[i]);
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            final byte[] classFile = resources.get(name.replace('.', '/') + ".class");
+            if (classFile == null) throw new ClassNotFoundException(name);
+            return defineClass(name, classFile, 0, classFile.length);
+        }
+
+        @Override
+        public InputStream getResourceAsStream(String name) {
+            final byte[] classFile = resources.get(name);
+            return (classFile != null) ? new ByteArrayInputStream(classFile) : super.getResourceAsStream(name);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.benchmarks;
+
+import kanela.agent.InstrumentationLoader;
+import kanela.agent.util.conf.KanelaConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.IllegalClassFormatException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Cost per class load of all the transformers installed by Kanela, measured over the {@link SyntheticClasses} corpus
+ * the same way the JVM calls them: one after the other, each one getting the result of the previous.
+ *
+ * Once a ClassLoader has been seen, its TypePool cache and the refiner results are kept, so the "warm" benchmark
+ * represents classes loaded by a long lived ClassLoader while the "cold" one pays for a new ClassLoader every time.
+ */
+@State(Scope.Benchmark)
+public class TransformBenchmark {
+
+    private final List<ClassFileTransformer> transformers = new CopyOnWriteArrayList<>();
+    private String[] internalNames;
+    private byte[][] classFiles;
+    private ClassLoader classLoader;
+
+    @State(Scope.Thread)
+    public static class FreshClassLoader {
+        ClassLoader classLoader;
+
+        @Setup(Level.Invocation)
+        public void setup() {
+            classLoader = SyntheticClasses.newClassLoader();
+        }
+    }
+
+    @Setup
+    public void setup() {
+        final KanelaConfiguration configuration = BenchmarkModule.configuration();
+        InstrumentationLoader.load(BenchmarkModule.capturingInstrumentation(transformers), getClass().getClassLoader(), configuration);
+
+        internalNames = SyntheticClasses.internalNames();
+        classFiles = SyntheticClasses.classFiles();
+        classLoader = SyntheticClasses.newClassLoader();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SyntheticClasses.Count)
+    public long warm() throws IllegalClassFormatException {
+        return transformAll(classLoader);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SyntheticClasses.Count)
+    public long cold(FreshClassLoader freshClassLoader) throws IllegalClassFormatException {
+        return transformAll(freshClassLoader.classLoader);
+    }
+
+    private long transformAll(ClassLoader classLoader) throws IllegalClassFormatException {
+        long transformedBytes = 0;
+        for (int i = 0; i < classFiles.length; i++) {
+            byte[] current = classFiles[i];
+            for (ClassFileTransformer transformer : transformers) {
+                final byte[] transformed = transformer.transform(classLoader, internalNames[i], null, null, current);
+                if (transformed != null) current = transformed;
+            }
+            transformedBytes += current.length;
+        }
+        return transformedBytes;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.benchmarks;
+
+import kanela.agent.api.instrumentation.bridge.BridgeClassVisitor;
+import kanela.agent.api.instrumentation.bridge.BridgeDescription;
+import kanela.agent.api.instrumentation.mixin.MixinClassVisitor;
+import kanela.agent.api.instrumentation.mixin.MixinDescription;
+import net.bytebuddy.jar.asm.ClassReader;
+import net.bytebuddy.jar.asm.ClassWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of weaving a mixin or a bridge into a class, including reading and writing the class file.
+ */
+@State(Scope.Benchmark)
+public class WeavingBenchmark {
+
+    private final MixinDescription mixin = MixinDescription.of(SyntheticMixin.class);
+    private final BridgeDescription bridge = BridgeDescription.of(SyntheticBridge.class);
+    private byte[] classFile;
+    private String internalName;
+
+    @Setup
+    public void setup() {
+        classFile = SyntheticClasses.classFiles()[0];
+        internalName = SyntheticClasses.internalNames()[0];
+    }
+
+    @Benchmark
+    public byte[] readAndWrite() {
+        final ClassReader classReader = new ClassReader(classFile);
+        final ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        classReader.accept(classWriter, ClassReader.EXPAND_FRAMES);
+        return classWriter.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] mixin() {
+        final ClassReader classReader = new ClassReader(classFile);
+        final ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        classReader.accept(MixinClassVisitor.from(mixin, internalName, classWriter), ClassReader.EXPAND_FRAMES);
+        return classWriter.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] bridge() {
+        final ClassReader classReader = new ClassReader(classFile);
+        final ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        classReader.accept(BridgeClassVisitor.from(bridge, internalName, classWriter), ClassReader.EXPAND_FRAMES);
+        return classWriter.toByteArray();
+    }
+}
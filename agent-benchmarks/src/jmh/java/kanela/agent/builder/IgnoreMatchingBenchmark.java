@@ -0,0 +1,88 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.builder;
+
+import io.vavr.collection.List;
+import kanela.agent.benchmarks.BenchmarkModule;
+import kanela.agent.benchmarks.SyntheticClasses;
+import kanela.agent.benchmarks.SyntheticInstrumentation;
+import kanela.agent.util.conf.KanelaConfiguration;
+import kanela.agent.util.conf.KanelaConfiguration.ModuleConfiguration;
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.jar.asm.Opcodes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of deciding whether a module ignores a type, either through the module's ignore chain (as evaluated by
+ * ByteBuddy for every class load) or through the class name prefilter that runs before it.
+ */
+@State(Scope.Benchmark)
+public class IgnoreMatchingBenchmark {
+
+    private AgentBuilder.RawMatcher[] ignoredTypes;
+    private ClassNamePrefilter classNamePrefilter;
+    private TypeDescription[] types;
+    private String[] internalNames;
+    private ClassLoader classLoader;
+
+    @Setup
+    public void setup() {
+        final KanelaConfiguration configuration = BenchmarkModule.configuration();
+        final ModuleConfiguration moduleConfiguration = BenchmarkModule.moduleConfiguration(configuration);
+
+        ignoredTypes = KanelaAgentBuilder.from(configuration, moduleConfiguration, null).ignoredTypes().toJavaList().toArray(new AgentBuilder.RawMatcher[0]);
+        final AgentInstaller installer = List.ofAll(new SyntheticInstrumentation().collectTransformations(moduleConfiguration))
+            .foldLeft(AgentInstaller.from(configuration, moduleConfiguration, null), AgentInstaller::addTypeTransformation);
+        classNamePrefilter = ClassNamePrefilter.from(List.of(installer));
+        classLoader = SyntheticClasses.newClassLoader();
+        internalNames = SyntheticClasses.internalNames();
+        types = List.of(SyntheticClasses.typeNames())
+            .map(typeName -> (TypeDescription) new TypeDescription.Latent(typeName, Opcodes.ACC_PUBLIC, TypeDescription.Generic.OBJECT))
+            .toJavaList()
+            .toArray(new TypeDescription[0]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SyntheticClasses.Count)
+    public int ignoreChain() {
+        int ignored = 0;
+        for (TypeDescription type : types) {
+            for (AgentBuilder.RawMatcher ignoredType : ignoredTypes) {
+                if (ignoredType.matches(type, classLoader, null, null, null)) {
+                    ignored++;
+                    break;
+                }
+            }
+        }
+        return ignored;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SyntheticClasses.Count)
+    public int classNamePrefilter() {
+        int ignored = 0;
+        for (String internalName : internalNames) {
+            if (!classNamePrefilter.mayTransform(0, internalName)) ignored++;
+        }
+        return ignored;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.cache;
+
+import kanela.agent.benchmarks.SyntheticClasses;
+import kanela.agent.util.conf.KanelaConfiguration;
+import net.bytebuddy.dynamic.ClassFileLocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of finding the TypePool cache of a ClassLoader and of describing types through the cached TypePool, which
+ * ByteBuddy does at least once for every class load.
+ */
+@State(Scope.Benchmark)
+public class PoolStrategyCacheBenchmark {
+
+    private final PoolStrategyCache poolStrategyCache = PoolStrategyCache.instance(KanelaConfiguration.instance().getTypePoolCache());
+    private ClassLoader classLoader;
+    private ClassFileLocator classFileLocator;
+    private String[] typeNames;
+
+    @Setup
+    public void setup() {
+        classLoader = SyntheticClasses.newClassLoader();
+        classFileLocator = ClassFileLocator.ForClassLoader.of(classLoader);
+        typeNames = SyntheticClasses.typeNames();
+    }
+
+    @Benchmark
+    public Object locate() {
+        return poolStrategyCache.locate(classLoader);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SyntheticClasses.Count)
+    public int describe() {
+        int methods = 0;
+        for (String typeName : typeNames) {
+            methods += poolStrategyCache.typePool(classFileLocator, classLoader).describe(typeName).resolve().getDeclaredMethods().size();
+        }
+        return methods;
+    }
+}
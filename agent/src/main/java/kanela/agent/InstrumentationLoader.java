@@ -21,11 +21,18 @@ import io.vavr.control.Option;
 import io.vavr.control.Try;
 import kanela.agent.api.instrumentation.InstrumentationBuilder;
 import kanela.agent.builder.AgentInstaller;
+import kanela.agent.builder.ClassNamePrefilter;
 import kanela.agent.builder.KanelaFileTransformer;
+import kanela.agent.cache.PoolStrategyCache;
 import kanela.agent.util.conf.KanelaConfiguration;
+import kanela.agent.util.conf.KanelaConfiguration.ModuleConfiguration;
 import kanela.agent.util.log.Logger;
+import lombok.val;
 
 import java.lang.instrument.Instrumentation;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
 
 import static java.text.MessageFormat.format;
 
@@ -40,16 +47,69 @@ public class InstrumentationLoader {
      * @return a list of {@link KanelaFileTransformer}
      */
     public static List<KanelaFileTransformer> load(Instrumentation instrumentation, ClassLoader ctxClassloader, KanelaConfiguration configuration) {
-        return configuration.getAgentModules().map((moduleConfiguration) -> {
-            Logger.info(() -> format("Loading {0} ",  moduleConfiguration.getName()));
-            return moduleConfiguration.getInstrumentations()
-                    .flatMap(instrumentationClassName -> loadInstrumentation(instrumentationClassName, ctxClassloader))
-                    .filter(kanelaInstrumentation -> kanelaInstrumentation.isEnabled(moduleConfiguration))
-                    .sortBy(InstrumentationBuilder::order)
-                    .flatMap(kanelaInstrumentation -> kanelaInstrumentation.collectTransformations(moduleConfiguration, instrumentation))
-                    .foldLeft(AgentInstaller.from(configuration, moduleConfiguration, instrumentation), AgentInstaller::addTypeTransformation)
-                    .install();
-        });
+        // Replaces the TypePool cache of the previous configuration (if any) before the modules start using it.
+        PoolStrategyCache.instance(configuration.getTypePoolCache());
+        val installers = prepareModules(instrumentation, ctxClassloader, configuration);
+
+        // The prefilter needs the transformations of all modules, so nothing is installed until all of them are loaded.
+        val classNamePrefilter = ClassNamePrefilter.from(installers);
+        if (!configuration.shouldMergeTransformers()) return installers.map(installer -> installer.install(classNamePrefilter));
+
+        if (installers.isEmpty()) return List.empty();
+        return AgentInstaller.installMerged(installers, classNamePrefilter, instrumentation);
+    }
+
+    /**
+     * Loads the instrumentations and builds the transformers of all modules, either on the current thread or on a
+     * bounded pool when the parallel startup is enabled. The modules are always returned in their configured order.
+     */
+    static List<AgentInstaller> prepareModules(Instrumentation instrumentation, ClassLoader ctxClassloader, KanelaConfiguration configuration) {
+        val modules = configuration.getAgentModules();
+        val parallelStartup = configuration.getParallelStartup();
+
+        if (!parallelStartup.isEnabled() || modules.size() < 2)
+            return modules.map(moduleConfiguration -> prepareModule(moduleConfiguration, instrumentation, ctxClassloader, configuration));
+
+        val pool = newStartupPool(parallelStartup.parallelismFor(modules.size()), ctxClassloader);
+        try {
+            return modules
+                .map(moduleConfiguration -> CompletableFuture.supplyAsync(() -> prepareModule(moduleConfiguration, instrumentation, ctxClassloader, configuration), pool))
+                .map(InstrumentationLoader::await);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static AgentInstaller prepareModule(ModuleConfiguration moduleConfiguration, Instrumentation instrumentation, ClassLoader ctxClassloader, KanelaConfiguration configuration) {
+        Logger.info(() -> format("Loading {0} ",  moduleConfiguration.getName()));
+        return moduleConfiguration.getInstrumentations()
+                .flatMap(instrumentationClassName -> loadInstrumentation(instrumentationClassName, ctxClassloader))
+                .filter(kanelaInstrumentation -> kanelaInstrumentation.isEnabled(moduleConfiguration))
+                .sortBy(InstrumentationBuilder::order)
+                .flatMap(kanelaInstrumentation -> kanelaInstrumentation.collectTransformations(moduleConfiguration))
+                .foldLeft(AgentInstaller.from(configuration, moduleConfiguration, instrumentation), AgentInstaller::addTypeTransformation)
+                .prepare();
+    }
+
+    private static ForkJoinPool newStartupPool(int parallelism, ClassLoader ctxClassloader) {
+        Logger.info(() -> format("Parallel startup activated with {0} threads.", parallelism));
+        return new ForkJoinPool(parallelism, pool -> {
+            val thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("kanela-agent-startup-" + thread.getPoolIndex());
+            // Some modules rely on the context class loader being the one that loads the instrumentations.
+            thread.setContextClassLoader(ctxClassloader);
+            return thread;
+        }, null, false);
+    }
+
+    private static AgentInstaller await(CompletableFuture<AgentInstaller> preparedModule) {
+        try {
+            return preparedModule.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw e;
+        }
     }
 
     private static Option<InstrumentationBuilder> loadInstrumentation(String instrumentationClassName, ClassLoader classLoader) {
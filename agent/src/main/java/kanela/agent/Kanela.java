@@ -17,9 +17,12 @@
 package kanela.agent;
 
 import io.vavr.collection.List;
+import kanela.agent.api.instrumentation.listener.InstrumentationRegistryJmx;
 import kanela.agent.api.instrumentation.listener.InstrumentationRegistryListener;
 import kanela.agent.builder.KanelaFileTransformer;
+import kanela.agent.circuitbreaker.OverloadCircuitBreaker;
 import kanela.agent.circuitbreaker.SystemThroughputCircuitBreaker;
+import kanela.agent.governor.AdviceOverheadGovernor;
 import kanela.agent.reinstrument.Reinstrumenter;
 import kanela.agent.util.BootstrapInjector;
 import kanela.agent.util.banner.KanelaBanner;
@@ -76,10 +79,14 @@ final public class Kanela {
                   if (isRuntimeAttach) configuration.runtimeAttach();
                   KanelaBanner.show(configuration);
 
+                  // The governor must be in place before the advisors are turned into transformers.
+                  AdviceOverheadGovernor.attach(instrumentation, configuration.getAdviceGovernor(), configuration.getReinstrumentation());
                   installedTransformers = InstrumentationLoader.load(instrumentation, instrumentationClassLoader, configuration);
+                  if (configuration.getInstrumentationRegistryConfig().isJmx()) InstrumentationRegistryJmx.register();
                   Reinstrumenter.attach(instrumentation, configuration, installedTransformers);
                   OldGarbageCollectorListener.attach(configuration.getOldGarbageCollectorConfig());
                   SystemThroughputCircuitBreaker.attach(configuration.getCircuitBreakerConfig());
+                  OverloadCircuitBreaker.attach(configuration.getCircuitBreakerConfig());
                   updateLoadedSystemProperty();
               });
           });
@@ -106,8 +113,9 @@ final public class Kanela {
           InstrumentationRegistryListener.instance().clear();
 
         InstrumentationClassPath.build().use(instrumentationClassLoader -> {
-            installedTransformers.forEach(transformer -> instrumentation.removeTransformer(transformer.getClassFileTransformer()));
+            installedTransformers.forEach(transformer -> transformer.getInstrumentation().removeTransformer(transformer.getClassFileTransformer()));
             installedTransformers = List.empty();
+            AdviceOverheadGovernor.current().forEach(AdviceOverheadGovernor::clear);
 
             val configuration = KanelaConfiguration.from(instrumentationClassLoader);
             Logger.configureLogger(configuration);
@@ -17,6 +17,7 @@
 package kanela.agent.api.advisor;
 
 import io.vavr.control.Option;
+import kanela.agent.governor.AdviceOverheadGovernor;
 import kanela.agent.util.conf.KanelaConfiguration.ModuleConfiguration;
 import lombok.Value;
 import lombok.val;
@@ -44,11 +45,14 @@ public class AdvisorDescription {
     public AgentBuilder.Transformer makeTransformer(ModuleConfiguration configuration) {
         val name = Option.of(advisorClassName).getOrElse(() -> advisorClass.getName());
         val exceptionHandler = getExceptionHandler(configuration.getExceptionHandlerStrategy());
+        val classLoader = Thread.currentThread().getContextClassLoader();
 
-        return new AgentBuilder.Transformer.ForAdvice()
-                .advice(this.methodMatcher, name)
-                .include(Thread.currentThread().getContextClassLoader())
-                .withExceptionHandler(exceptionHandler);
+        return AdviceOverheadGovernor.current()
+                .map(governor -> governor.govern(name, this.methodMatcher, classLoader, exceptionHandler))
+                .getOrElse(() -> new AgentBuilder.Transformer.ForAdvice()
+                        .advice(this.methodMatcher, name)
+                        .include(classLoader)
+                        .withExceptionHandler(exceptionHandler));
     }
 
     private ExceptionHandler getExceptionHandler(String strategy){
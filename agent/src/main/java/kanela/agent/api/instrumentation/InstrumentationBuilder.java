@@ -22,7 +22,6 @@ import kanela.agent.api.instrumentation.classloader.ClassLoaderRefiner;
 import kanela.agent.api.instrumentation.classloader.ClassRefiner;
 import kanela.agent.api.instrumentation.legacy.ClassFileVersionValidatorTransformer;
 import kanela.agent.api.instrumentation.mixin.MixinDescription;
-import kanela.agent.util.BootstrapInjector;
 import kanela.agent.util.ListBuilder;
 import kanela.agent.util.conf.KanelaConfiguration.ModuleConfiguration;
 import lombok.val;
@@ -51,14 +50,22 @@ public abstract class InstrumentationBuilder {
     private static Function0<ElementMatcher.Junction<TypeDescription>> defaultTypeMatcher =
             Function0.of(() -> not(isInterface()).and(not(isSynthetic()))).memoized();
 
-    public List<TypeTransformation> collectTransformations(ModuleConfiguration moduleConfiguration, Instrumentation instrumentation) {
+    public List<TypeTransformation> collectTransformations(ModuleConfiguration moduleConfiguration) {
         return targets
                 .build()
-                .map(t -> buildTransformations(t.instrumentationDescription(), moduleConfiguration, instrumentation))
+                .map(t -> buildTransformations(t.instrumentationDescription(), moduleConfiguration))
                 .toJavaList();
     }
 
-    private TypeTransformation buildTransformations(InstrumentationDescription instrumentationDescription, ModuleConfiguration moduleConfiguration, Instrumentation instrumentation) {
+    /**
+     * @deprecated the instrumentation is not used, use {@link #collectTransformations(ModuleConfiguration)} instead.
+     */
+    @Deprecated
+    public List<TypeTransformation> collectTransformations(ModuleConfiguration moduleConfiguration, Instrumentation instrumentation) {
+        return collectTransformations(moduleConfiguration);
+    }
+
+    private TypeTransformation buildTransformations(InstrumentationDescription instrumentationDescription, ModuleConfiguration moduleConfiguration) {
 
         val bridges = instrumentationDescription.getBridges();
         val mixins = instrumentationDescription.getMixins();
@@ -69,14 +76,10 @@ public abstract class InstrumentationBuilder {
             transformers.add(ClassFileVersionValidatorTransformer.Instance);
         }
 
-        if (moduleConfiguration.shouldInjectInBootstrap()) {
-            val helperClassNames = moduleConfiguration.getBootstrapInjectionConfig().getHelperClassNames();
-            BootstrapInjector.inject(moduleConfiguration.getTempDir(), instrumentation, helperClassNames.toJavaList());
-        }
-
         return TypeTransformation.of(
                 this.getClass().getName(),
                 instrumentationDescription.getElementMatcher(),
+                instrumentationDescription.getTypeNames(),
                 instrumentationDescription.getClassLoaderRefiner(),
                 collect(bridges, BridgeDescription::makeTransformer),
                 collect(mixins, MixinDescription::makeTransformer),
@@ -93,7 +96,7 @@ public abstract class InstrumentationBuilder {
     public Target onType(String typeName) {
         val builder = new InstrumentationDescription.Builder();
         val target = new Target(builder);
-        builder.addElementMatcher(() -> failSafe(named(typeName)));
+        builder.addElementMatcher(() -> failSafe(named(typeName))).addTypeNames(typeName);
         targets.add(target);
         return target;
     }
@@ -101,7 +104,7 @@ public abstract class InstrumentationBuilder {
     public Target onTypes(String... typeName) {
         val builder = new InstrumentationDescription.Builder();
         val target = new Target(builder);
-        builder.addElementMatcher(() -> failSafe(anyTypes(typeName)));
+        builder.addElementMatcher(() -> failSafe(anyTypes(typeName))).addTypeNames(typeName);
         targets.add(target);
         return target;
     }
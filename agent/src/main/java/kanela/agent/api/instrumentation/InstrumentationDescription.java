@@ -32,6 +32,7 @@ import net.bytebuddy.matcher.ElementMatcher;
 import net.bytebuddy.utility.JavaModule;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.function.Supplier;
 
@@ -40,6 +41,7 @@ import static net.bytebuddy.matcher.ElementMatchers.*;
 @Value
 public class InstrumentationDescription {
     Option<ElementMatcher<? super TypeDescription>> elementMatcher;
+    Option<List<String>> typeNames;
     Option<ClassLoaderRefiner> classLoaderRefiner;
     List<MixinDescription> mixins;
     List<BridgeDescription> bridges;
@@ -48,6 +50,7 @@ public class InstrumentationDescription {
 
     private InstrumentationDescription(Builder builder) {
         this.elementMatcher  = builder.elementMatcher;
+        this.typeNames = builder.typeNames;
         this.classLoaderRefiner = builder.classLoaderRefiner;
         this.mixins = builder.mixins;
         this.bridges = builder.bridges;
@@ -57,6 +60,7 @@ public class InstrumentationDescription {
 
     public static class Builder {
         private Option<ElementMatcher<? super TypeDescription>> elementMatcher;
+        private Option<List<String>> typeNames = Option.none();
         private Option<ClassLoaderRefiner> classLoaderRefiner = Option.none();
         private final List<MixinDescription> mixins =  new ArrayList<>();
         private final List<BridgeDescription> bridges =  new ArrayList<>();
@@ -69,6 +73,14 @@ public class InstrumentationDescription {
             return this;
         }
 
+        /**
+         * Exact names of the types matched by the element matcher, when it only matches types by name.
+         */
+        Builder addTypeNames(String... names) {
+            typeNames = Option.of(Arrays.asList(names));
+            return this;
+        }
+
         public Builder withMixin(Supplier<Class<?>> clazz) {
             mixins.add(MixinDescription.of(clazz.get()));
             return this;
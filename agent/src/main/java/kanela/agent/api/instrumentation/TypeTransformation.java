@@ -33,6 +33,7 @@ import java.util.stream.Collectors;
 public class TypeTransformation {
     String instrumentationName;
     Option<ElementMatcher<? super TypeDescription>> elementMatcher;
+    Option<List<String>> typeNames;
     Option<ClassLoaderRefiner> classLoaderRefiner;
     List<AgentBuilder.Transformer> bridges;
     List<AgentBuilder.Transformer> mixins;
@@ -41,6 +42,7 @@ public class TypeTransformation {
     @SafeVarargs
     static TypeTransformation of(String instrumentationName,
                                  Option<ElementMatcher<? super TypeDescription>> elementMatcher,
+                                 Option<List<String>> typeNames,
                                  Option<ClassLoaderRefiner> classLoaderRefiner,
                                  List<AgentBuilder.Transformer> bridges,
                                  List<AgentBuilder.Transformer> mixins,
@@ -50,6 +52,6 @@ public class TypeTransformation {
                 .flatMap(Collection::stream)
                 .collect(Collectors.toList());
 
-        return new TypeTransformation(instrumentationName ,elementMatcher, classLoaderRefiner, bridges, mixins, transformations);
+        return new TypeTransformation(instrumentationName ,elementMatcher, typeNames, classLoaderRefiner, bridges, mixins, transformations);
     }
 }
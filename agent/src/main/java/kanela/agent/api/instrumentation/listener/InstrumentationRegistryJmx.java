@@ -0,0 +1,77 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+
+package kanela.agent.api.instrumentation.listener;
+
+import io.vavr.control.Try;
+import kanela.agent.reinstrument.Reinstrumenter;
+import kanela.agent.util.log.Logger;
+import lombok.val;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registers the {@link InstrumentationRegistryMXBean} on the platform MBean server.
+ */
+public final class InstrumentationRegistryJmx implements InstrumentationRegistryMXBean {
+
+    public static final String Name = "kanela:type=InstrumentationRegistry";
+
+    private InstrumentationRegistryJmx() {}
+
+    public static void register() {
+        Try.run(() -> {
+            val server = ManagementFactory.getPlatformMBeanServer();
+            val name = new ObjectName(Name);
+            if (!server.isRegistered(name)) server.registerMBean(new InstrumentationRegistryJmx(), name);
+        }).onFailure(cause -> Logger.warn(() -> "Unable to register the instrumentation registry on JMX", cause));
+    }
+
+    @Override
+    public List<Map<String, String>> getModules() {
+        return InstrumentationRegistryListener.shareModules();
+    }
+
+    @Override
+    public List<Map<String, String>> getTransformations() {
+        return InstrumentationRegistryListener.shareTransformations();
+    }
+
+    @Override
+    public List<Map<String, String>> getErrorAggregates() {
+        return InstrumentationRegistryListener.shareErrorAggregates();
+    }
+
+    @Override
+    public long getDroppedErrors() {
+        return InstrumentationRegistryListener.shareDroppedErrors();
+    }
+
+    @Override
+    public Map<String, String> getLatestRetransformation() {
+        return Reinstrumenter.latestJob().<Map<String, String>>map(job -> {
+            val jobInfo = new HashMap<String, String>();
+            job.shareInto(jobInfo);
+            return jobInfo;
+        }).getOrElse(Collections.emptyMap());
+    }
+}
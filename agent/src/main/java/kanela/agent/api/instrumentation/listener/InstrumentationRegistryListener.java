@@ -18,8 +18,9 @@ package kanela.agent.api.instrumentation.listener;
 
 import static kanela.agent.util.classloader.ScalaCompilerClassLoaderMatcher.isScalaCompilerClassLoader;
 import kanela.agent.api.instrumentation.TypeTransformation;
-import kanela.agent.util.classloader.ClassLoaderNameMatcher;
 import kanela.agent.util.conf.KanelaConfiguration;
+import kanela.agent.util.stats.ModuleTimings;
+import kanela.agent.util.stats.TimeHistogram;
 import lombok.val;
 import net.bytebuddy.agent.builder.AgentBuilder;
 import net.bytebuddy.description.type.TypeDescription;
@@ -27,78 +28,228 @@ import net.bytebuddy.dynamic.DynamicType;
 import net.bytebuddy.utility.JavaModule;
 
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
 
 /**
  * Captures and exposes the instrumentation modules known by Kanela. Since users of this class might be trying to access
  * the exposed data from a ClassLoader that is not connected to Kanela's (e.g. when running an application from SBT), we
  * will only expose data using plain Java types which are guaranteed to be loaded by the Bootstrap ClassLoader.
  *
+ * Every registered transformation gets an id and its transformers are wrapped (see {@link #recording}) so that they
+ * report their id when ByteBuddy applies them. The registry then only has to count the reported ids once the type was
+ * transformed, keeping the first few transformed type names as a sample.
+ *
+ * When timings are enabled the registry also measures, for every transformation, the time spent matching types and
+ * running its transformers and, for every module, the time its transformer takes on each class load (see
+ * {@link ModuleTimings}).
+ *
+ * Errors are aggregated by module, exception class and message signature (the message with its numbers, hex runs and
+ * the suffixes of generated class names masked, so that failures on families of generated types like proxies or
+ * lambdas end up on the same aggregate), keeping a count, when the error was first and last seen and a single sample.
+ * The amount of aggregates is bounded, errors that do not fit are only counted. Errors are attributed to the module
+ * whose transformer was running when they happened when reported through {@link #forModule}, or to the module whose
+ * transformers were applied to the type otherwise.
  */
 final public class InstrumentationRegistryListener extends AgentBuilder.Listener.Adapter {
 
+    private static final int SampleSize = 16;
+    private static final int MaxErrorAggregates = 256;
+    private static final int MaxMessageSignatureLength = 256;
+    private static final Pattern HexAddresses = Pattern.compile("0x[0-9a-fA-F]+");
+    private static final Pattern GeneratedNameSuffixes = Pattern.compile(
+        "(\\$\\$Lambda\\$|\\$\\$(?:EnhancerBy|FastClassBy)[A-Za-z]*\\$\\$|\\$HibernateProxy\\$|\\$ByteBuddy\\$|\\$auxiliary\\$|_\\$\\$_jvst)[A-Za-z0-9_]*");
+    private static final Pattern HexRuns = Pattern.compile("(?<![A-Za-z0-9])[0-9a-fA-F]*[0-9][0-9a-fA-F]*(?![A-Za-z0-9])");
+    private static final Pattern Numbers = Pattern.compile("[0-9]+");
+
     private static InstrumentationRegistryListener instance = new InstrumentationRegistryListener();
     public static InstrumentationRegistryListener instance() {
         return instance;
     }
 
-    private Map<String, Map<TypeTransformation, List<TypeDescription>>> moduleTransformers = new ConcurrentHashMap<>();
+    private int nextTransformationId = 0;
+    private volatile TransformationStats[] transformations = new TransformationStats[0];
     private Map<String, KanelaConfiguration.ModuleConfiguration> moduleConfigurations = new ConcurrentHashMap<>();
-    private Map<String, List<Throwable>> errors = new ConcurrentHashMap<>();
+    private Map<String, ErrorAggregate> errors = new ConcurrentHashMap<>();
+    private Map<String, ModuleTimings> moduleTimings = new ConcurrentHashMap<>();
+    private final AtomicLong droppedErrors = new AtomicLong();
+    private final ThreadLocal<Map<String, BitSet>> appliedTransformations = ThreadLocal.withInitial(HashMap::new);
 
     /**
-     * Removes all collected information on this listener.
+     * Removes all collected information on this listener. Ids are never reused, so transformers that are still
+     * installed just stop being counted.
      */
-    public void clear() {
-        moduleTransformers = new ConcurrentHashMap<>();
+    public synchronized void clear() {
+        transformations = new TransformationStats[transformations.length];
         moduleConfigurations = new ConcurrentHashMap<>();
         errors = new ConcurrentHashMap<>();
+        moduleTimings = new ConcurrentHashMap<>();
+        droppedErrors.set(0);
     }
 
     /**
      * Registers a module. Registering a module makes the registry aware of its existence, but it does not mean that
      * any of the module's transformations have been applied. See onTransformation for more details.
+     *
+     * @return the id of the transformation, to be used with {@link #recording}.
      */
-    public void register(KanelaConfiguration.ModuleConfiguration moduleConfig, TypeTransformation typeTransformation) {
-        val moduleTransformations = moduleTransformers.computeIfAbsent(moduleConfig.getConfigPath(), k -> new ConcurrentHashMap<>());
-        moduleTransformations.putIfAbsent(typeTransformation, Collections.synchronizedList(new LinkedList<>()));
+    public synchronized int register(KanelaConfiguration.ModuleConfiguration moduleConfig, TypeTransformation typeTransformation) {
+        val id = nextTransformationId++;
+        val updated = Arrays.copyOf(transformations, Math.max(id + 1, transformations.length));
+        updated[id] = new TransformationStats(moduleConfig.getConfigPath());
+        transformations = updated;
         moduleConfigurations.put(moduleConfig.getConfigPath(), moduleConfig);
+        return id;
+    }
+
+    /**
+     * Wraps a transformer of the transformation with the provided id so that the registry knows when it was applied.
+     */
+    public AgentBuilder.Transformer recording(int transformationId, AgentBuilder.Transformer transformer) {
+        return recording(transformationId, transformer, false);
+    }
+
+    /**
+     * Same as {@link #recording(int, AgentBuilder.Transformer)}, also measuring the time spent on the transformer when
+     * timed is true.
+     */
+    public AgentBuilder.Transformer recording(int transformationId, AgentBuilder.Transformer transformer, boolean timed) {
+        return (builder, typeDescription, classLoader, module) -> {
+            val applied = appliedTransformations.get().computeIfAbsent(typeDescription.getName(), k -> new BitSet());
+            val stats = statsOf(transformationId);
+            if (!applied.get(transformationId)) {
+                applied.set(transformationId);
+                if (stats != null) stats.matchedTypes.increment();
+            }
+
+            if (!timed || stats == null) return transformer.transform(builder, typeDescription, classLoader, module);
+            val start = System.nanoTime();
+            try {
+                return transformer.transform(builder, typeDescription, classLoader, module);
+            } finally {
+                stats.transformation.record(System.nanoTime() - start);
+            }
+        };
+    }
+
+    /**
+     * Wraps the matcher of the transformation with the provided id, measuring the time spent on it.
+     */
+    public AgentBuilder.RawMatcher timing(int transformationId, AgentBuilder.RawMatcher matcher) {
+        return (typeDescription, classLoader, module, classBeingRedefined, protectionDomain) -> {
+            val start = System.nanoTime();
+            try {
+                return matcher.matches(typeDescription, classLoader, module, classBeingRedefined, protectionDomain);
+            } finally {
+                val stats = statsOf(transformationId);
+                if (stats != null) stats.matching.record(System.nanoTime() - start);
+            }
+        };
+    }
+
+    /**
+     * The timings of the module on the provided configuration path, created on first use.
+     */
+    public ModuleTimings moduleTimings(String modulePath) {
+        return moduleTimings.computeIfAbsent(modulePath, k -> new ModuleTimings());
+    }
+
+    private TransformationStats statsOf(int transformationId) {
+        val currentTransformations = transformations;
+        return transformationId < currentTransformations.length ? currentTransformations[transformationId] : null;
     }
 
     /**
-     * We try to figure out if any applied transformation belongs to any of the known modules and if so, register what
-     * type was transformed. This helps us figure out which modules are active since we will only consider a module to
-     * be active once it has transformed a class.
+     * Counts the transformations that were applied to the type, as reported by their transformers. This helps us
+     * figure out which modules are active since we will only consider a module to be active once it has transformed a
+     * class.
      */
     @Override
     public void onTransformation(TypeDescription typeDescription, ClassLoader classLoader, JavaModule module, boolean loaded, DynamicType dynamicType) {
-        moduleTransformers.values().forEach(moduleTypeTransformers -> {
-            moduleTypeTransformers.forEach((typeTransformation, targetedTypeDescriptions) -> {
+        val applied = appliedTransformations.get().remove(typeDescription.getName());
+        if (applied == null) return;
 
-                if(isTargetedByTransformation(typeTransformation, typeDescription, classLoader)) {
-                    targetedTypeDescriptions.add(typeDescription);
-                }
-            });
-        });
+        val currentTransformations = transformations;
+        for (int id = applied.nextSetBit(0); id >= 0; id = applied.nextSetBit(id + 1)) {
+            if (id < currentTransformations.length && currentTransformations[id] != null) {
+                currentTransformations[id].record(typeDescription.getName());
+            }
+        }
+    }
+
+    @Override
+    public void onComplete(String typeName, ClassLoader classLoader, JavaModule module, boolean loaded) {
+        // Transformations that failed after their transformers were applied are never counted.
+        val pending = appliedTransformations.get();
+        if (!pending.isEmpty()) pending.remove(typeName);
+    }
+
+    /**
+     * Listener for the transformer of a single module, which attributes to the module all the errors on the types it
+     * was transforming, including the ones that happen before any of its transformers are applied (e.g. while resolving
+     * or matching the type).
+     */
+    public AgentBuilder.Listener forModule(KanelaConfiguration.ModuleConfiguration moduleConfig) {
+        return new ModuleListener(moduleConfig.getConfigPath());
     }
 
     @Override
     public void onError(String typeName, ClassLoader classLoader, JavaModule module, boolean loaded, Throwable throwable) {
+        recordError(failingModuleOf(typeName), typeName, classLoader, throwable);
+    }
+
+    private void recordError(String modulePath, String typeName, ClassLoader classLoader, Throwable throwable) {
         if(!isScalaCompilerClassLoader(classLoader)) {
-            val typeErrors = errors.computeIfAbsent(typeName, (tn) -> Collections.synchronizedList(new LinkedList<>()));
-            typeErrors.add(throwable);
+            val messageSignature = messageSignatureOf(throwable.getMessage());
+            val key = modulePath + "|" + throwable.getClass().getName() + "|" + messageSignature;
+            val currentErrors = errors;
+
+            ErrorAggregate aggregate = currentErrors.get(key);
+            if (aggregate == null) {
+                if (currentErrors.size() >= MaxErrorAggregates) {
+                    droppedErrors.incrementAndGet();
+                    return;
+                }
+                aggregate = currentErrors.computeIfAbsent(key, k -> new ErrorAggregate(modulePath, throwable.getClass().getName(), messageSignature, typeName, throwable));
+            }
+            aggregate.record();
         }
     }
 
-    private boolean isTargetedByTransformation(TypeTransformation tt, TypeDescription td, ClassLoader classLoader) {
-        return tt.getElementMatcher().map(em -> em.matches(td)).getOrElse(false) &&
-            ClassLoaderNameMatcher.RefinedClassLoaderMatcher.from(tt.getClassLoaderRefiner()).matches(classLoader);
+    /**
+     * The module of the transformers that were applied to the type before it failed, for the errors that were not
+     * reported through a module's listener. Errors that happen before any transformer is applied (e.g. when resolving
+     * the type) can not be attributed to a module this way.
+     */
+    private String failingModuleOf(String typeName) {
+        val applied = appliedTransformations.get().get(typeName);
+        val currentTransformations = transformations;
+        if (applied != null) {
+            for (int id = applied.nextSetBit(0); id >= 0; id = applied.nextSetBit(id + 1)) {
+                if (id < currentTransformations.length && currentTransformations[id] != null) return currentTransformations[id].modulePath;
+            }
+        }
+        return "unknown";
+    }
+
+    private static String messageSignatureOf(String message) {
+        if (message == null) return "";
+        String signature = HexAddresses.matcher(message).replaceAll("#");
+        signature = GeneratedNameSuffixes.matcher(signature).replaceAll("$1#");
+        signature = HexRuns.matcher(signature).replaceAll("#");
+        signature = Numbers.matcher(signature).replaceAll("#");
+        return signature.length() > MaxMessageSignatureLength ? signature.substring(0, MaxMessageSignatureLength) : signature;
     }
 
     public boolean isModuleActive(String moduleKey) {
-        val moduleTransformations = moduleTransformers.getOrDefault(moduleKey, Collections.emptyMap());
-        return moduleTransformations.values().stream().anyMatch(tds -> !tds.isEmpty());
+        return Arrays.stream(transformations)
+            .anyMatch(stats -> stats != null && stats.modulePath.equals(moduleKey) && stats.transformedTypes.get() > 0);
     }
 
     /**
@@ -112,6 +263,11 @@ final public class InstrumentationRegistryListener extends AgentBuilder.Listener
      *     any of its target types are loaded.
      *   - active: Contains "true" or "false" to indicate whether the module has already applied transforamtion to any
      *     of its target types.
+     *   - matchedTypes: How many types were matched by the module's transformations, adding up all of them.
+     *   - matchingNanos and transformationNanos: Time spent matching types and running the transformers of the module's
+     *     transformations, only measured when timings are enabled.
+     *   - The class load timings of the module, see {@link ModuleTimings#shareInto}, only measured when timings are
+     *     enabled.
      */
     public static List<Map<String, String>> shareModules() {
         val modules = new LinkedList<Map<String, String>>();
@@ -125,6 +281,18 @@ final public class InstrumentationRegistryListener extends AgentBuilder.Listener
             moduleInfo.put("description", moduleConfig.getDescription());
             moduleInfo.put("enabled", String.valueOf(moduleConfig.isEnabled()));
             moduleInfo.put("active", String.valueOf(isActive));
+
+            long matchedTypes = 0, matchingNanos = 0, transformationNanos = 0;
+            for (TransformationStats stats : instance().transformations) {
+                if (stats == null || !stats.modulePath.equals(moduleConfig.getConfigPath())) continue;
+                matchedTypes += stats.matchedTypes.sum();
+                matchingNanos += stats.matching.totalNanos();
+                transformationNanos += stats.transformation.totalNanos();
+            }
+            moduleInfo.put("matchedTypes", String.valueOf(matchedTypes));
+            moduleInfo.put("matchingNanos", String.valueOf(matchingNanos));
+            moduleInfo.put("transformationNanos", String.valueOf(transformationNanos));
+            instance().moduleTimings(moduleConfig.getConfigPath()).shareInto(moduleInfo);
             modules.add(moduleInfo);
         });
 
@@ -132,11 +300,161 @@ final public class InstrumentationRegistryListener extends AgentBuilder.Listener
     }
 
     /**
-     * Returns a map of target type to any exceptions that occurred while instrumenting that type.
+     * Returns a list of all transformations known to this registry, encoded with JDK-only types. Each entry contains:
+     *
+     *   - path: The configuration path of the module that owns the transformation.
+     *   - id: The id of the transformation.
+     *   - transformedTypes: How many types were transformed by the transformation.
+     *   - sampleTypes: Comma separated names of the first types that were transformed by it.
+     *   - matchedTypes: How many types were matched by the transformation.
+     *   - The time spent matching types ("matching") and running the transformers ("transformation"), see
+     *     {@link TimeHistogram#shareInto} for the keys. Only measured when timings are enabled.
+     */
+    public static List<Map<String, String>> shareTransformations() {
+        val transformations = new LinkedList<Map<String, String>>();
+        val currentTransformations = instance().transformations;
+
+        for (int id = 0; id < currentTransformations.length; id++) {
+            val stats = currentTransformations[id];
+            if (stats == null) continue;
+
+            val transformationInfo = new HashMap<String, String>();
+            transformationInfo.put("path", stats.modulePath);
+            transformationInfo.put("id", String.valueOf(id));
+            transformationInfo.put("transformedTypes", String.valueOf(stats.transformedTypes.get()));
+            transformationInfo.put("sampleTypes", String.join(",", stats.sampleTypes()));
+            transformationInfo.put("matchedTypes", String.valueOf(stats.matchedTypes.sum()));
+            stats.matching.shareInto("matching", transformationInfo);
+            stats.transformation.shareInto("transformation", transformationInfo);
+            transformations.add(transformationInfo);
+        }
+
+        return transformations;
+    }
+
+    /**
+     * Returns a map of target type to any exceptions that occurred while instrumenting that type. Only the sample of
+     * each error aggregate is included, see {@link #shareErrorAggregates()} for the full picture.
      */
     public static Map<String, List<Throwable>> shareErrors() {
-        return instance().errors;
+        val errors = new HashMap<String, List<Throwable>>();
+        instance().errors.values().forEach(aggregate ->
+            errors.computeIfAbsent(aggregate.sampleTypeName, k -> new LinkedList<>()).add(aggregate.sample));
+        return errors;
     }
 
-}
+    /**
+     * Returns a list of the aggregated errors, encoded with JDK-only types. Each entry contains:
+     *
+     *   - path: The configuration path of the module whose transformers failed, or "unknown".
+     *   - exceptionClass: The class of the exception.
+     *   - messageSignature: The message of the exception, with its numbers masked.
+     *   - count: How many times the error happened.
+     *   - firstSeen: Epoch millis of the first time the error happened.
+     *   - lastSeen: Epoch millis of the last time the error happened.
+     *   - sampleType: The type that was being transformed the first time the error happened.
+     *   - sampleStackTrace: The stack trace of the first exception.
+     */
+    public static List<Map<String, String>> shareErrorAggregates() {
+        val aggregates = new LinkedList<Map<String, String>>();
 
+        instance().errors.values().forEach(aggregate -> {
+            val aggregateInfo = new HashMap<String, String>();
+            aggregateInfo.put("path", aggregate.modulePath);
+            aggregateInfo.put("exceptionClass", aggregate.exceptionClass);
+            aggregateInfo.put("messageSignature", aggregate.messageSignature);
+            aggregateInfo.put("count", String.valueOf(aggregate.count.get()));
+            aggregateInfo.put("firstSeen", String.valueOf(aggregate.firstSeen));
+            aggregateInfo.put("lastSeen", String.valueOf(aggregate.lastSeen));
+            aggregateInfo.put("sampleType", aggregate.sampleTypeName);
+            aggregateInfo.put("sampleStackTrace", aggregate.sampleStackTrace());
+            aggregates.add(aggregateInfo);
+        });
+
+        return aggregates;
+    }
+
+    /**
+     * Returns how many errors were not aggregated because the maximum amount of aggregates was reached.
+     */
+    public static long shareDroppedErrors() {
+        return instance().droppedErrors.get();
+    }
+
+    private final class ModuleListener extends AgentBuilder.Listener.Adapter {
+        private final String modulePath;
+
+        ModuleListener(String modulePath) {
+            this.modulePath = modulePath;
+        }
+
+        @Override
+        public void onTransformation(TypeDescription typeDescription, ClassLoader classLoader, JavaModule module, boolean loaded, DynamicType dynamicType) {
+            InstrumentationRegistryListener.this.onTransformation(typeDescription, classLoader, module, loaded, dynamicType);
+        }
+
+        @Override
+        public void onComplete(String typeName, ClassLoader classLoader, JavaModule module, boolean loaded) {
+            InstrumentationRegistryListener.this.onComplete(typeName, classLoader, module, loaded);
+        }
+
+        @Override
+        public void onError(String typeName, ClassLoader classLoader, JavaModule module, boolean loaded, Throwable throwable) {
+            recordError(modulePath, typeName, classLoader, throwable);
+        }
+    }
+
+    private static final class TransformationStats {
+        final String modulePath;
+        final AtomicLong transformedTypes = new AtomicLong();
+        final AtomicReferenceArray<String> samples = new AtomicReferenceArray<>(SampleSize);
+        final LongAdder matchedTypes = new LongAdder();
+        final TimeHistogram matching = new TimeHistogram();
+        final TimeHistogram transformation = new TimeHistogram();
+
+        TransformationStats(String modulePath) {
+            this.modulePath = modulePath;
+        }
+
+        void record(String typeName) {
+            val count = transformedTypes.getAndIncrement();
+            if (count < SampleSize) samples.set((int) count, typeName);
+        }
+
+        List<String> sampleTypes() {
+            val sampleTypes = new ArrayList<String>();
+            for (int i = 0; i < SampleSize && samples.get(i) != null; i++) sampleTypes.add(samples.get(i));
+            return sampleTypes;
+        }
+    }
+
+    private static final class ErrorAggregate {
+        final String modulePath;
+        final String exceptionClass;
+        final String messageSignature;
+        final String sampleTypeName;
+        final Throwable sample;
+        final long firstSeen = System.currentTimeMillis();
+        final AtomicLong count = new AtomicLong();
+        volatile long lastSeen = firstSeen;
+
+        ErrorAggregate(String modulePath, String exceptionClass, String messageSignature, String sampleTypeName, Throwable sample) {
+            this.modulePath = modulePath;
+            this.exceptionClass = exceptionClass;
+            this.messageSignature = messageSignature;
+            this.sampleTypeName = sampleTypeName;
+            this.sample = sample;
+        }
+
+        void record() {
+            count.incrementAndGet();
+            lastSeen = System.currentTimeMillis();
+        }
+
+        String sampleStackTrace() {
+            val stackTrace = new StringWriter();
+            sample.printStackTrace(new PrintWriter(stackTrace));
+            return stackTrace.toString();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+
+package kanela.agent.api.instrumentation.listener;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exposes the contents of the {@link InstrumentationRegistryListener} through JMX, see the share* methods of the
+ * registry for the keys of every entry.
+ */
+public interface InstrumentationRegistryMXBean {
+
+    List<Map<String, String>> getModules();
+
+    List<Map<String, String>> getTransformations();
+
+    List<Map<String, String>> getErrorAggregates();
+
+    long getDroppedErrors();
+
+    /**
+     * The state of the job that is stopping or restarting the modules, or of the last one that did, see
+     * {@link kanela.agent.reinstrument.RetransformationJob#shareInto} for the keys. Empty when no job ran yet.
+     */
+    Map<String, String> getLatestRetransformation();
+}
@@ -0,0 +1,169 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.api.instrumentation.listener.dumper;
+
+import io.vavr.control.Try;
+import kanela.agent.util.NamedThreadFactory;
+import kanela.agent.util.log.Logger;
+import lombok.Value;
+import lombok.val;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Writes the dumped classes on a background thread, so the threads loading classes only have to enqueue them. Classes
+ * are written in batches, either appended to a single jar that is kept open until the writer is closed, or saved into
+ * a directory. Classes that do not fit on the queue are dropped and counted.
+ */
+class ClassDumpWriter {
+
+    private static final int BatchSize = 256;
+    private static final long PollTimeoutMillis = 1000;
+
+    private final File dumpDir;
+    private final File jarFile;
+    private final BlockingQueue<DumpedClass> queue;
+    private final ExecutorService executor;
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean closed = false;
+
+    // Only used from the writer thread.
+    private final Set<String> writtenEntries = new HashSet<>();
+    private JarOutputStream jar;
+    private volatile long duplicated = 0;
+
+    /**
+     * Creates a writer that saves the classes into the provided directory, or appends them to the provided jar when it
+     * is not null.
+     */
+    ClassDumpWriter(File dumpDir, File jarFile, int queueSize) {
+        this(dumpDir, jarFile, queueSize, Executors.newSingleThreadExecutor(NamedThreadFactory.instance("class-dumper")));
+    }
+
+    ClassDumpWriter(File dumpDir, File jarFile, int queueSize, ExecutorService executor) {
+        this.dumpDir = dumpDir;
+        this.jarFile = jarFile;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.executor = executor;
+        executor.execute(this::writeBatches);
+    }
+
+    /**
+     * Enqueues the class for writing, returns false when the class was dropped because the queue is full or the writer
+     * is closed.
+     */
+    boolean enqueue(String entryName, byte[] bytes) {
+        if (!closed && queue.offer(new DumpedClass(entryName, bytes))) return true;
+        if (dropped.incrementAndGet() == 1) Logger.warn(() -> "The class dumper can not keep up, transformed classes are being dropped.");
+        return false;
+    }
+
+    long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * The amount of classes that were not added to the jar because it already had an entry for them.
+     */
+    long getDuplicated() {
+        return duplicated;
+    }
+
+    /**
+     * Writes the classes remaining on the queue and closes the jar, waiting up to the provided timeout.
+     */
+    void close(long timeoutMillis) {
+        closed = true;
+        executor.shutdown();
+        Try.run(() -> executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS))
+            .onFailure((cause) -> Logger.warn(() -> "Interrupted while waiting for the class dumper to finish.", cause));
+    }
+
+    private void writeBatches() {
+        val batch = new ArrayList<DumpedClass>(BatchSize);
+        while (!closed || !queue.isEmpty()) {
+            val first = Try.of(() -> queue.poll(PollTimeoutMillis, TimeUnit.MILLISECONDS)).getOrNull();
+            if (first == null) continue;
+
+            batch.add(first);
+            queue.drainTo(batch, BatchSize - 1);
+            Try.run(() -> write(batch)).onFailure((cause) -> Logger.error(() -> "Error trying to dump " + batch.size() + " transformed classes...", cause));
+            batch.clear();
+        }
+
+        if (jar != null) Try.run(jar::close).onFailure((cause) -> Logger.error(() -> "Error trying to close the jar of transformed classes...", cause));
+        if (dropped.get() > 0 || duplicated > 0) {
+            Logger.warn(() -> "The class dumper dropped " + dropped.get() + " transformed classes and skipped " + duplicated + " classes already on the jar.");
+        }
+    }
+
+    private void write(List<DumpedClass> batch) throws Exception {
+        if (jarFile == null) {
+            for (DumpedClass dumpedClass : batch) {
+                val file = new File(dumpDir, dumpedClass.getEntryName());
+                file.getParentFile().mkdirs();
+                try (OutputStream out = new FileOutputStream(file)) {
+                    out.write(dumpedClass.getBytes());
+                }
+            }
+            return;
+        }
+
+        if (jar == null) jar = openJar();
+        for (DumpedClass dumpedClass : batch) {
+            // A jar can not be rewritten while streaming, so only the first version of a retransformed class is kept.
+            if (!writtenEntries.add(dumpedClass.getEntryName())) {
+                duplicated++;
+                continue;
+            }
+            jar.putNextEntry(new JarEntry(dumpedClass.getEntryName()));
+            jar.write(dumpedClass.getBytes());
+            jar.closeEntry();
+        }
+        jar.flush();
+    }
+
+    private JarOutputStream openJar() throws Exception {
+        dumpDir.mkdirs();
+        val manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        return new JarOutputStream(new BufferedOutputStream(new FileOutputStream(jarFile)), manifest);
+    }
+
+    @Value
+    private static class DumpedClass {
+        String entryName;
+        byte[] bytes;
+    }
+}
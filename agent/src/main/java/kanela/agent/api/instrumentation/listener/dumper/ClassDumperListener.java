@@ -16,10 +16,8 @@
 
 package kanela.agent.api.instrumentation.listener.dumper;
 
-import io.vavr.CheckedFunction0;
-import io.vavr.control.Try;
+import kanela.agent.util.NamedThreadFactory;
 import kanela.agent.util.conf.KanelaConfiguration;
-import kanela.agent.util.log.Logger;
 import net.bytebuddy.agent.builder.AgentBuilder.Listener;
 import net.bytebuddy.description.type.TypeDescription;
 import net.bytebuddy.dynamic.DynamicType;
@@ -27,9 +25,15 @@ import net.bytebuddy.utility.JavaModule;
 
 import java.io.File;
 
+import lombok.AccessLevel;
 import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.Value;
 
+/**
+ * Dumps the transformed classes into a jar or a directory. The classes are handed over to a {@link ClassDumpWriter},
+ * which writes them on a background thread and finishes the jar when the JVM shuts down.
+ */
 @Value
 @EqualsAndHashCode(callSuper = false)
 public class ClassDumperListener extends Listener.Adapter {
@@ -39,11 +43,17 @@ public class ClassDumperListener extends Listener.Adapter {
     File dumpDir;
     File jarFile;
     KanelaConfiguration.DumpConfig config;
+    @Getter(AccessLevel.NONE)
+    ClassDumpWriter writer;
+
+    private static final long ShutdownTimeoutMillis = 10000;
 
     private ClassDumperListener(){
         this.config = KanelaConfiguration.instance().getDump();
         this.dumpDir = new File(config.getDumpDir());
         this.jarFile = new File(config.getDumpDir() + File.separator + config.getJarName() + ".jar");
+        this.writer = new ClassDumpWriter(dumpDir, config.getCreateJar() ? jarFile : null, config.getQueueSize());
+        Runtime.getRuntime().addShutdownHook(NamedThreadFactory.instance("class-dumper-shutdown").newThread(() -> writer.close(ShutdownTimeoutMillis)));
     }
 
     public static ClassDumperListener instance() {
@@ -56,23 +66,6 @@ public class ClassDumperListener extends Listener.Adapter {
     }
 
     private void addClassToDump(DynamicType dynamicType) {
-        if(!dumpDir.exists()){
-            runSafe(dumpDir::mkdirs, "Error creating directory...");
-        }
-
-        if(config.getCreateJar()) {
-            if(!jarFile.exists()) {
-                runSafe(jarFile::createNewFile, "Error creating a new file...");
-                runSafe(() -> dynamicType.toJar(jarFile), "Error trying to add transformed class to a new jar...");
-            } else {
-                runSafe( () -> dynamicType.inject(jarFile), "Error trying to add transformed class to existing jar...");
-            }
-        } else {
-            runSafe(() -> dynamicType.saveIn(dumpDir), "Error trying to save transformed class into directory...");
-        }
-    }
-
-    private <R> void runSafe(CheckedFunction0<R> thunk, String msg) {
-        Try.of(thunk).onFailure((cause) -> Logger.error(() -> msg, cause));
+        dynamicType.getAllTypes().forEach((type, bytes) -> writer.enqueue(type.getInternalName() + ".class", bytes));
     }
 }
@@ -0,0 +1,99 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.bootstrap.governor;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulates the time spent on the advices of each advisor, measured by the timing advices that wrap them when the
+ * advice governor is enabled.
+ *
+ * <p>The timing advices surround the advisor's own advice: the outer one measures the whole call and the inner one the
+ * advised method alone, so the cost of the advisor is the difference between both. The time of the advised method is
+ * handed from the inner to the outer advice through a per-thread long[], which nested advised calls overwrite before
+ * the enclosing inner advice completes.</p>
+ */
+public final class AdviceCost {
+    private static final ThreadLocal<long[]> BodyNanos = ThreadLocal.withInitial(() -> new long[1]);
+    private static volatile Costs[] costs = new Costs[0];
+
+    private AdviceCost() {}
+
+    /**
+     * Returns a new id under which the cost of an advisor is accumulated.
+     */
+    public static synchronized int register() {
+        final Costs[] current = costs;
+        final Costs[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = new Costs();
+        costs = updated;
+        return current.length;
+    }
+
+    /**
+     * Called when entering the outer timing advice, returns the start of the call.
+     */
+    public static long start() {
+        BodyNanos.get()[0] = 0L;
+        return System.nanoTime();
+    }
+
+    /**
+     * Called when exiting the inner timing advice with the time it was entered.
+     */
+    public static void bodyCompleted(final long bodyStart) {
+        BodyNanos.get()[0] = System.nanoTime() - bodyStart;
+    }
+
+    /**
+     * Called when exiting the outer timing advice, accumulates the time of the call that was not spent on the advised
+     * method itself.
+     */
+    public static void record(final int id, final long start) {
+        final long elapsed = System.nanoTime() - start;
+        final long[] body = BodyNanos.get();
+        final long adviceNanos = elapsed - body[0];
+        body[0] = 0L;
+
+        final Costs[] current = costs;
+        if (id < 0 || id >= current.length) return;
+        current[id].nanos.add(Math.max(adviceNanos, 0L));
+        current[id].calls.increment();
+    }
+
+    /**
+     * Total time spent on the advices of the advisor, in nanoseconds.
+     */
+    public static long nanos(final int id) {
+        final Costs[] current = costs;
+        return id < current.length ? current[id].nanos.sum() : 0L;
+    }
+
+    /**
+     * Total amount of advised calls measured for the advisor.
+     */
+    public static long calls(final int id) {
+        final Costs[] current = costs;
+        return id < current.length ? current[id].calls.sum() : 0L;
+    }
+
+    private static final class Costs {
+        final LongAdder nanos = new LongAdder();
+        final LongAdder calls = new LongAdder();
+    }
+}
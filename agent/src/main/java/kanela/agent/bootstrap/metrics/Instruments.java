@@ -0,0 +1,168 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.bootstrap.metrics;
+
+import kanela.agent.bootstrap.metrics.MetricsProvider.Counter;
+import kanela.agent.bootstrap.metrics.MetricsProvider.Gauge;
+import kanela.agent.bootstrap.metrics.MetricsProvider.Histogram;
+import kanela.agent.bootstrap.metrics.MetricsProvider.RangeSampler;
+
+import java.util.Map;
+
+/**
+ * Implementations of the metric handles that live in the bootstrap classloader: the named instruments, which adapt
+ * the handles to the name based methods of providers that do not create their own instruments, and the bound
+ * instruments that are handed out by {@link MetricsHandler} and follow the provider that is currently set.
+ */
+final class Instruments {
+
+    private Instruments() {}
+
+    interface Bound {
+        void bindTo(MetricsProvider metricsProvider);
+    }
+
+    static final class NamedCounter implements Counter {
+        private final MetricsProvider provider;
+        private final String name;
+        private final Map<String, String> tags;
+
+        NamedCounter(MetricsProvider provider, String name, Map<String, String> tags) {
+            this.provider = provider;
+            this.name = name;
+            this.tags = tags;
+        }
+
+        public void increment() { provider.incrementCounter(name, tags); }
+        public void increment(long times) { provider.incrementCounter(name, times, tags); }
+    }
+
+    static final class NamedGauge implements Gauge {
+        private final MetricsProvider provider;
+        private final String name;
+        private final Map<String, String> tags;
+
+        NamedGauge(MetricsProvider provider, String name, Map<String, String> tags) {
+            this.provider = provider;
+            this.name = name;
+            this.tags = tags;
+        }
+
+        public void increment() { provider.incrementGauge(name, tags); }
+        public void increment(long times) { provider.incrementGauge(name, times, tags); }
+        public void decrement() { provider.decrementGauge(name, tags); }
+        public void decrement(long times) { provider.decrementGauge(name, times, tags); }
+        public void set(long value) { provider.setGauge(name, value); }
+    }
+
+    static final class NamedHistogram implements Histogram {
+        private final MetricsProvider provider;
+        private final String name;
+        private final Map<String, String> tags;
+
+        NamedHistogram(MetricsProvider provider, String name, Map<String, String> tags) {
+            this.provider = provider;
+            this.name = name;
+            this.tags = tags;
+        }
+
+        public void record() { provider.recordHistogram(name, tags); }
+        public void record(long value) { provider.recordHistogram(name, value, tags); }
+    }
+
+    static final class NamedRangeSampler implements RangeSampler {
+        private final MetricsProvider provider;
+        private final String name;
+        private final Map<String, String> tags;
+
+        NamedRangeSampler(MetricsProvider provider, String name, Map<String, String> tags) {
+            this.provider = provider;
+            this.name = name;
+            this.tags = tags;
+        }
+
+        public void increment() { provider.incrementRangeSampler(name, tags); }
+        public void increment(long times) { provider.incrementRangeSampler(name, times, tags); }
+        public void decrement() { provider.decrementRangeSampler(name, tags); }
+        public void decrement(long times) { provider.decrementRangeSampler(name, times, tags); }
+    }
+
+    static final class BoundCounter implements Counter, Bound {
+        private final String name;
+        private final Map<String, String> tags;
+        private volatile Counter delegate = MetricsProvider.NoOpInstrument.INSTANCE;
+
+        BoundCounter(String name, Map<String, String> tags) {
+            this.name = name;
+            this.tags = tags;
+        }
+
+        public void bindTo(MetricsProvider metricsProvider) { delegate = metricsProvider.counter(name, tags); }
+        public void increment() { delegate.increment(); }
+        public void increment(long times) { delegate.increment(times); }
+    }
+
+    static final class BoundGauge implements Gauge, Bound {
+        private final String name;
+        private final Map<String, String> tags;
+        private volatile Gauge delegate = MetricsProvider.NoOpInstrument.INSTANCE;
+
+        BoundGauge(String name, Map<String, String> tags) {
+            this.name = name;
+            this.tags = tags;
+        }
+
+        public void bindTo(MetricsProvider metricsProvider) { delegate = metricsProvider.gauge(name, tags); }
+        public void increment() { delegate.increment(); }
+        public void increment(long times) { delegate.increment(times); }
+        public void decrement() { delegate.decrement(); }
+        public void decrement(long times) { delegate.decrement(times); }
+        public void set(long value) { delegate.set(value); }
+    }
+
+    static final class BoundHistogram implements Histogram, Bound {
+        private final String name;
+        private final Map<String, String> tags;
+        private volatile Histogram delegate = MetricsProvider.NoOpInstrument.INSTANCE;
+
+        BoundHistogram(String name, Map<String, String> tags) {
+            this.name = name;
+            this.tags = tags;
+        }
+
+        public void bindTo(MetricsProvider metricsProvider) { delegate = metricsProvider.histogram(name, tags); }
+        public void record() { delegate.record(); }
+        public void record(long value) { delegate.record(value); }
+    }
+
+    static final class BoundRangeSampler implements RangeSampler, Bound {
+        private final String name;
+        private final Map<String, String> tags;
+        private volatile RangeSampler delegate = MetricsProvider.NoOpInstrument.INSTANCE;
+
+        BoundRangeSampler(String name, Map<String, String> tags) {
+            this.name = name;
+            this.tags = tags;
+        }
+
+        public void bindTo(MetricsProvider metricsProvider) { delegate = metricsProvider.rangeSampler(name, tags); }
+        public void increment() { delegate.increment(); }
+        public void increment(long times) { delegate.increment(times); }
+        public void decrement() { delegate.decrement(); }
+        public void decrement(long times) { delegate.decrement(times); }
+    }
+}
@@ -16,7 +16,16 @@
 
 package kanela.agent.bootstrap.metrics;
 
+import kanela.agent.bootstrap.metrics.MetricsProvider.Counter;
+import kanela.agent.bootstrap.metrics.MetricsProvider.Gauge;
+import kanela.agent.bootstrap.metrics.MetricsProvider.Histogram;
+import kanela.agent.bootstrap.metrics.MetricsProvider.RangeSampler;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.function.BiFunction;
 
 
 /**
@@ -38,16 +47,31 @@ import java.util.Map;
  */
 public final class MetricsHandler {
 
-    private static MetricsProvider metricsProvider = MetricsProvider.NoOp.INSTANCE;
+    private static volatile MetricsProvider metricsProvider = MetricsProvider.NoOp.INSTANCE;
+    private static final Map<Object, Instruments.Bound> registeredInstruments = new HashMap<>();
 
     private MetricsHandler() {}
 
     public static void setMetricsProvider(MetricsProvider metricsProvider) {
         if(metricsProvider != MetricsProvider.NoOp.INSTANCE) {
-            MetricsHandler.metricsProvider = metricsProvider;
+            synchronized (registeredInstruments) {
+                MetricsHandler.metricsProvider = metricsProvider;
+                registeredInstruments.values().forEach(instrument -> instrument.bindTo(metricsProvider));
+            }
         }
     }
 
+    /**
+     * Handles are meant to be registered once (e.g. when the advice class is initialized) and then used on every event
+     * without looking up the instrument again. Registering the same name and tags twice returns the same handle, and
+     * handles registered before the provider is set start reporting to it as soon as it is set. The tags are copied, so
+     * changing the provided map afterwards affects neither the handle nor the ones registered later.
+     */
+    public static Counter counter(String name, Map<String, String> tags) { return register("counter", name, tags, Instruments.BoundCounter::new); }
+    public static Gauge gauge(String name, Map<String, String> tags) { return register("gauge", name, tags, Instruments.BoundGauge::new); }
+    public static Histogram histogram(String name, Map<String, String> tags) { return register("histogram", name, tags, Instruments.BoundHistogram::new); }
+    public static RangeSampler rangeSampler(String name, Map<String, String> tags) { return register("range-sampler", name, tags, Instruments.BoundRangeSampler::new); }
+
     public static void incrementCounter(String name, Map<String, String> tags) { metricsProvider.incrementCounter(name, tags);}
     public static void incrementCounter(String name, Long times, Map<String, String> tags) { metricsProvider.incrementCounter(name, times, tags); }
 
@@ -65,4 +89,16 @@ public final class MetricsHandler {
     public static void decrementRangeSampler(String name, Map<String, String> tags) { metricsProvider.decrementRangeSampler(name, tags); }
     public static void decrementRangeSampler(String name, Long times, Map<String, String> tags) { metricsProvider.decrementRangeSampler(name, times, tags); }
     public static void sampleRangeSampler() { metricsProvider.sampleRangeSampler(); }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T register(String kind, String name, Map<String, String> tags, BiFunction<String, Map<String, String>, Instruments.Bound> newInstrument) {
+        final Map<String, String> tagsCopy = tags == null ? null : Collections.unmodifiableMap(new HashMap<>(tags));
+        synchronized (registeredInstruments) {
+            return (T) registeredInstruments.computeIfAbsent(Arrays.asList(kind, name, tagsCopy), key -> {
+                final Instruments.Bound instrument = newInstrument.apply(name, tagsCopy);
+                instrument.bindTo(metricsProvider);
+                return instrument;
+            });
+        }
+    }
 }
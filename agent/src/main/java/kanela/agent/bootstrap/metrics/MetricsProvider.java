@@ -47,6 +47,51 @@ public interface MetricsProvider {
     void decrementRangeSampler(String name, Long times, Map<String, String> tags);
     void sampleRangeSampler();
 
+    // Handles, registered once with their tags. Providers should override these to return their own instruments, the
+    // defaults just go through the name based methods above.
+    default Counter counter(String name, Map<String, String> tags) { return new Instruments.NamedCounter(this, name, tags); }
+    default Gauge gauge(String name, Map<String, String> tags) { return new Instruments.NamedGauge(this, name, tags); }
+    default Histogram histogram(String name, Map<String, String> tags) { return new Instruments.NamedHistogram(this, name, tags); }
+    default RangeSampler rangeSampler(String name, Map<String, String> tags) { return new Instruments.NamedRangeSampler(this, name, tags); }
+
+    interface Counter {
+        void increment();
+        void increment(long times);
+    }
+
+    interface Gauge {
+        void increment();
+        void increment(long times);
+        void decrement();
+        void decrement(long times);
+        void set(long value);
+    }
+
+    interface Histogram {
+        void record();
+        void record(long value);
+    }
+
+    interface RangeSampler {
+        void increment();
+        void increment(long times);
+        void decrement();
+        void decrement(long times);
+    }
+
+    enum NoOpInstrument implements Counter, Gauge, Histogram, RangeSampler {
+
+        INSTANCE;
+
+        public void increment() {}
+        public void increment(long times) {}
+        public void decrement() {}
+        public void decrement(long times) {}
+        public void set(long value) {}
+        public void record() {}
+        public void record(long value) {}
+    }
+
     enum NoOp implements MetricsProvider {
 
         INSTANCE;
@@ -65,5 +110,9 @@ public interface MetricsProvider {
         public void decrementRangeSampler(String name, Map<String, String> tags) {}
         public void decrementRangeSampler(String name, Long times, Map<String, String> tags) {}
         public void sampleRangeSampler() {}
+        public Counter counter(String name, Map<String, String> tags) { return NoOpInstrument.INSTANCE; }
+        public Gauge gauge(String name, Map<String, String> tags) { return NoOpInstrument.INSTANCE; }
+        public Histogram histogram(String name, Map<String, String> tags) { return NoOpInstrument.INSTANCE; }
+        public RangeSampler rangeSampler(String name, Map<String, String> tags) { return NoOpInstrument.INSTANCE; }
     }
 }
@@ -19,15 +19,29 @@ package kanela.agent.bootstrap.stack;
 import lombok.Value;
 import lombok.val;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Utility for measure the call stack depth
+ *
+ * <p> The preferred way is to get a slot for a name once, at instrumentation time, through {@link #slotFor(String)}
+ * and then use {@link #incrementForSlot(int)} and {@link #resetForSlot(int)} on the advised methods. The depths of
+ * the slots are kept on a per-thread int[] so they need neither hashing nor boxing. Slots are never released and the
+ * per-thread arrays grow up to the highest slot used on each thread, so slots must be taken for a fixed set of names
+ * (e.g. one per advice) and never per call or per instance. The key based methods are kept as a fallback for keys that
+ * are only known at runtime.</p>
  */
 @Value
 public class CallStackDepth {
     private static final ThreadLocal<Map<Object, Integer>> StackDepthThreadLocal = ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<int[]> SlotDepthThreadLocal = ThreadLocal.withInitial(() -> new int[16]);
+    private static final ConcurrentMap<String, Integer> Slots = new ConcurrentHashMap<>();
+    private static final AtomicInteger NextSlot = new AtomicInteger();
 
     public static int incrementFor(final Object key) {
         val stackDepthMap = StackDepthThreadLocal.get();
@@ -38,6 +52,40 @@ public class CallStackDepth {
     public static void resetFor(final Object obj) {
         StackDepthThreadLocal.get().remove(obj);
     }
-}
 
+    /**
+     * Returns the slot assigned to the provided name, assigning a new one the first time the name is seen. Names are
+     * kept for the lifetime of the JVM, so they must be constants like the name of the advice class.
+     */
+    public static int slotFor(final String name) {
+        return Slots.computeIfAbsent(name, k -> NextSlot.getAndIncrement());
+    }
+
+    /**
+     * Returns a new slot that is not bound to any name, which is never released either.
+     */
+    public static int newSlot() {
+        return NextSlot.getAndIncrement();
+    }
 
+    /**
+     * Same as {@link #incrementFor(Object)}, but for a slot: returns 0 on the first call and the amount of previous
+     * calls since the last {@link #resetForSlot(int)} afterwards.
+     */
+    public static int incrementForSlot(final int slot) {
+        int[] depths = SlotDepthThreadLocal.get();
+        if(slot >= depths.length) depths = grow(depths, slot);
+        return depths[slot]++;
+    }
+
+    public static void resetForSlot(final int slot) {
+        val depths = SlotDepthThreadLocal.get();
+        if(slot < depths.length) depths[slot] = 0;
+    }
+
+    private static int[] grow(final int[] depths, final int slot) {
+        val grown = Arrays.copyOf(depths, Math.max(depths.length * 2, slot + 1));
+        SlotDepthThreadLocal.set(grown);
+        return grown;
+    }
+}
@@ -19,67 +19,136 @@
 
 package kanela.agent.broker;
 
+import kanela.agent.util.NamedThreadFactory;
+import kanela.agent.util.log.Logger;
 import lombok.Value;
 import lombok.val;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 
-@Value
+import static java.text.MessageFormat.format;
+
+/**
+ * Publishes events to the methods annotated with {@link Subscribe} of the registered subscribers. A subscriber method
+ * receives all events that are instances of its parameter type, including its subtypes.
+ *
+ * The subscribers are kept on an immutable snapshot that is replaced on every add/remove, so events can be published
+ * from any thread (e.g. the JMX notification threads) without locking. Subscriber methods are turned into
+ * {@link MethodHandle}s once, when they are added, and the subscribers of every event type are resolved once per
+ * snapshot. Subscriber methods marked as async run on a single broker thread instead of the publishing one.
+ */
 public class EventBroker {
-    Map<Class, List<SubscriberInfo>> map = new LinkedHashMap<>();
+    private final AtomicReference<Subscribers> subscribers = new AtomicReference<>(Subscribers.Empty);
 
     private static class Holder {
         private static final EventBroker Instance = new EventBroker();
     }
 
+    EventBroker() {}
+
     public static EventBroker instance() {
         return Holder.Instance;
     }
 
-    public int publish(Object o) {
-        val subscriberInfos = map.get(o.getClass());
-        if (subscriberInfos == null) return 0;
-        int count = 0;
-        for (SubscriberInfo subscriberInfo : subscriberInfos) {
-            subscriberInfo.invoke(o);
-            count++;
+    /**
+     * Publishes the event to all subscribers of its type or any of its supertypes, returning the amount of subscribers
+     * it was published to.
+     */
+    public int publish(Object event) {
+        val subscribersOfEvent = subscribers.get().of(event.getClass());
+        for (SubscriberInfo subscriberInfo : subscribersOfEvent) {
+            if (subscriberInfo.isAsync()) AsyncDispatcher.Executor.execute(() -> subscriberInfo.invoke(event));
+            else subscriberInfo.invoke(event);
         }
-        return count;
+        return subscribersOfEvent.length;
     }
 
     public void add(Object o) {
+        val added = new ArrayList<SubscriberInfo>();
         for (Method method : o.getClass().getMethods()) {
-            val parameterTypes = method.getParameterTypes();
-            if (method.getAnnotation(Subscribe.class) == null || parameterTypes.length != 1) continue;
-            val subscribeTo = parameterTypes[0];
-            val subscribers = map.computeIfAbsent(subscribeTo, k -> new ArrayList<>());
-            subscribers.add(new SubscriberInfo(method, o));
+            val subscribe = method.getAnnotation(Subscribe.class);
+            if (subscribe == null || method.getParameterTypes().length != 1) continue;
+            added.add(SubscriberInfo.from(method, o, subscribe.async()));
         }
+        if (!added.isEmpty()) subscribers.updateAndGet(current -> current.adding(added));
     }
 
     public void remove(Object o) {
-        for (List<SubscriberInfo> subscriberInfos : map.values()) {
-            for (int i = subscriberInfos.size() - 1; i >= 0; i--)
-                if (subscriberInfos.get(i).object == o)
-                    subscriberInfos.remove(i);
+        subscribers.updateAndGet(current -> current.removing(o));
+    }
+
+    private static final class Subscribers {
+        static final Subscribers Empty = new Subscribers(new SubscriberInfo[0]);
+
+        private final SubscriberInfo[] all;
+        private final ConcurrentMap<Class<?>, SubscriberInfo[]> byEventType = new ConcurrentHashMap<>();
+
+        private Subscribers(SubscriberInfo[] all) {
+            this.all = all;
         }
+
+        SubscriberInfo[] of(Class<?> eventType) {
+            val resolved = byEventType.get(eventType);
+            if (resolved != null) return resolved;
+            return byEventType.computeIfAbsent(eventType, type -> Arrays.stream(all)
+                .filter(subscriberInfo -> subscriberInfo.getEventType().isAssignableFrom(type))
+                .toArray(SubscriberInfo[]::new));
+        }
+
+        Subscribers adding(List<SubscriberInfo> added) {
+            val updated = Arrays.copyOf(all, all.length + added.size());
+            for (int i = 0; i < added.size(); i++) updated[all.length + i] = added.get(i);
+            return new Subscribers(updated);
+        }
+
+        Subscribers removing(Object subscriber) {
+            return new Subscribers(Arrays.stream(all)
+                .filter(subscriberInfo -> subscriberInfo.getObject() != subscriber)
+                .toArray(SubscriberInfo[]::new));
+        }
+    }
+
+    private static final class AsyncDispatcher {
+        static final ExecutorService Executor = Executors.newSingleThreadExecutor(NamedThreadFactory.instance("event-broker"));
     }
 
     @Value
     static class SubscriberInfo {
-        Method method;
+        private static final MethodType HandleType = MethodType.methodType(void.class, Object.class);
+
+        Class<?> eventType;
         Object object;
+        MethodHandle handle;
+        boolean async;
+
+        static SubscriberInfo from(Method method, Object object, boolean async) {
+            try {
+                // The subscriber's class is not necessarily public, even if the method is.
+                method.setAccessible(true);
+                val handle = MethodHandles.lookup().unreflect(method).bindTo(object).asType(HandleType);
+                return new SubscriberInfo(method.getParameterTypes()[0], object, handle, async);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(format("Unable to subscribe {0} to events", method), e);
+            }
+        }
 
-        void invoke(Object o) {
+        void invoke(Object event) {
             try {
-                method.invoke(object, o);
-            } catch (Exception e) {
-                throw new AssertionError(e);
+                handle.invokeExact(event);
+            } catch (Throwable cause) {
+                Logger.error(() -> format("Error while publishing {0} to {1}", event, object), cause);
             }
         }
     }
-}
\ No newline at end of file
+}
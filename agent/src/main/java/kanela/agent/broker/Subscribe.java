@@ -23,4 +23,9 @@ import java.lang.annotation.Target;
 
 @Target(ElementType.METHOD)
 @Retention(RetentionPolicy.RUNTIME)
-public @interface Subscribe {}
+public @interface Subscribe {
+    /**
+     * Whether the events should be delivered on the broker's own thread instead of the publishing one.
+     */
+    boolean async() default false;
+}
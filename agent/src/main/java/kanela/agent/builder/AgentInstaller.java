@@ -16,34 +16,72 @@
 
 package kanela.agent.builder;
 
+import io.vavr.Lazy;
+import io.vavr.collection.List;
 import kanela.agent.api.instrumentation.TypeTransformation;
 import kanela.agent.util.conf.KanelaConfiguration;
+import kanela.agent.util.log.Logger;
 
+import lombok.AccessLevel;
+import lombok.Getter;
 import lombok.Value;
 import lombok.val;
+import net.bytebuddy.agent.builder.AgentBuilder;
 
 import java.lang.instrument.Instrumentation;
 
+import static java.text.MessageFormat.format;
+
 @Value
 public class AgentInstaller {
     KanelaAgentBuilder agentBuilder;
     KanelaConfiguration.ModuleConfiguration moduleDescription;
     Instrumentation instrumentation;
+    @Getter(AccessLevel.NONE)
+    Lazy<AgentBuilder> builtAgentBuilder;
 
     private AgentInstaller(KanelaConfiguration config, KanelaConfiguration.ModuleConfiguration moduleDescription, Instrumentation instrumentation) {
         this.moduleDescription = moduleDescription;
         this.agentBuilder = KanelaAgentBuilder.from(config, moduleDescription, instrumentation);
         this.instrumentation = instrumentation;
+        this.builtAgentBuilder = Lazy.of(this.agentBuilder::build);
     }
 
     public static AgentInstaller from(KanelaConfiguration config, KanelaConfiguration.ModuleConfiguration moduleDescription, Instrumentation instrumentation) {
         return new AgentInstaller(config, moduleDescription, instrumentation);
     }
 
-    public KanelaFileTransformer install() {
-        val agentBuilder = this.agentBuilder.build();
+    /**
+     * Builds the module's AgentBuilder ahead of the installation, which allows preparing several modules in parallel.
+     * All type transformations must be added before calling this method.
+     */
+    public AgentInstaller prepare() {
+        // Merged modules are built together once all of them are loaded.
+        if (!agentBuilder.getConfig().shouldMergeTransformers()) builtAgentBuilder.get();
+        return this;
+    }
+
+    public KanelaFileTransformer install(ClassNamePrefilter classNamePrefilter) {
+        val agentBuilder = this.builtAgentBuilder.get().with(classNamePrefilter.decoratorFor(moduleDescription));
         val classFileTransformer = agentBuilder.installOn(instrumentation);
-        return KanelaFileTransformer.from(agentBuilder, classFileTransformer, moduleDescription.isStoppable());
+        return KanelaFileTransformer.from(agentBuilder, classFileTransformer, moduleDescription.isStoppable(), instrumentation);
+    }
+
+    /**
+     * Installs the transformations of all modules as one transformer for each {@link KanelaAgentBuilder.MergeStrategy}
+     * the modules have, so that stopping the stoppable modules only resets the transformer they share.
+     */
+    public static List<KanelaFileTransformer> installMerged(List<AgentInstaller> installers, ClassNamePrefilter classNamePrefilter, Instrumentation instrumentation) {
+        Logger.info(() -> "Merged Transformer install mode activated.");
+        val modules = installers.map(AgentInstaller::getAgentBuilder);
+        val strategies = modules.map(KanelaAgentBuilder::mergeStrategy).distinct();
+        if (strategies.size() > 1)
+            Logger.info(() -> format("The modules are merged into {0} transformers, one for each of their stop and retransformation strategies.", strategies.size()));
+
+        return strategies.map(strategy -> {
+            val agentBuilder = KanelaAgentBuilder.merged(modules.filter(module -> module.mergeStrategy().equals(strategy)), classNamePrefilter);
+            return KanelaFileTransformer.from(agentBuilder, agentBuilder.installOn(instrumentation), strategy.isStoppable(), instrumentation);
+        });
     }
 
     public AgentInstaller addTypeTransformation(TypeTransformation typeTransformation) {
@@ -0,0 +1,177 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.builder;
+
+import io.vavr.collection.List;
+import kanela.agent.api.instrumentation.TypeTransformation;
+import kanela.agent.util.conf.KanelaConfiguration.ModuleConfiguration;
+import kanela.agent.util.log.Logger;
+import kanela.agent.util.matcher.TypeNameAutomaton;
+import lombok.val;
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.agent.builder.ResettableClassFileTransformer;
+
+import java.lang.instrument.IllegalClassFormatException;
+import java.security.ProtectionDomain;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import static java.text.MessageFormat.format;
+
+/**
+ * Fast-reject stage that runs before ByteBuddy resolves any TypeDescription. The within/exclude patterns of all modules
+ * and the type names used on onType/onTypes are compiled into a single {@link TypeNameAutomaton}, which is run once per
+ * class load (the result is shared by all modules) to find out which modules could possibly transform the type. Every
+ * other module skips the type right away.
+ *
+ * The prefilter is conservative: patterns that can not be compiled, or modules that match types by anything other than
+ * their names, simply never reject a type and leave the decision to ByteBuddy.
+ */
+public class ClassNamePrefilter {
+
+    private static final int MaxStates = 20_000;
+    private static final int LabelsPerModule = 3;
+    private static final int WithinLabel = 0;
+    private static final int ExcludeLabel = 1;
+    private static final int TypeNameLabel = 2;
+
+    private final Map<ModuleConfiguration, Integer> moduleIndexes;
+    private final TypeNameAutomaton automaton;
+    private final BitSet[] candidateModules;
+    private final ThreadLocal<LastLookup> lastLookup = ThreadLocal.withInitial(LastLookup::new);
+
+    private ClassNamePrefilter(Map<ModuleConfiguration, Integer> moduleIndexes, TypeNameAutomaton automaton, BitSet[] candidateModules) {
+        this.moduleIndexes = moduleIndexes;
+        this.automaton = automaton;
+        this.candidateModules = candidateModules;
+    }
+
+    public static ClassNamePrefilter from(List<AgentInstaller> installers) {
+        val moduleIndexes = new IdentityHashMap<ModuleConfiguration, Integer>();
+        val builder = TypeNameAutomaton.builder();
+        val knownWithin = new BitSet();
+        val knownTypeNames = new BitSet();
+
+        installers.zipWithIndex().forEach(installerAndIndex -> {
+            val moduleConfig = installerAndIndex._1.getModuleDescription();
+            val index = installerAndIndex._2;
+            val typeTransformations = installerAndIndex._1.getAgentBuilder().getTypeTransformations().build();
+            moduleIndexes.put(moduleConfig, index);
+
+            if (builder.addPattern(moduleConfig.getWithinPackage(), label(index, WithinLabel))) knownWithin.set(index);
+            if (moduleConfig.getExcludePackage() != null) builder.addSupportedAlternatives(moduleConfig.getExcludePackage(), label(index, ExcludeLabel));
+
+            if (typeTransformations.forAll(typeTransformation -> typeTransformation.getTypeNames().isDefined())) {
+                knownTypeNames.set(index);
+                typeTransformations
+                    .flatMap(TypeTransformation::getTypeNames)
+                    .flatMap(typeNames -> typeNames)
+                    .forEach(typeName -> builder.addTypeName(typeName, label(index, TypeNameLabel)));
+            }
+        });
+
+        val automaton = builder.build(MaxStates);
+        if (automaton == null) {
+            Logger.warn(() -> format("The class name prefilter would need more than {0} states, all class names will be matched by ByteBuddy", MaxStates));
+            return new ClassNamePrefilter(moduleIndexes, null, null);
+        }
+
+        val candidateModules = new BitSet[automaton.stateCount()];
+        for (int state = 0; state < candidateModules.length; state++) {
+            val labels = automaton.labelsOf(state);
+            val candidates = new BitSet();
+            for (int module = 0; module < installers.size(); module++) {
+                val withinMatches = !knownWithin.get(module) || labels.get(label(module, WithinLabel));
+                val excludeMatches = labels.get(label(module, ExcludeLabel));
+                val typeNameMatches = !knownTypeNames.get(module) || labels.get(label(module, TypeNameLabel));
+                if (withinMatches && !excludeMatches && typeNameMatches) candidates.set(module);
+            }
+            candidateModules[state] = candidates;
+        }
+
+        Logger.debug(() -> format("Class name prefilter compiled into {0} states", automaton.stateCount()));
+        return new ClassNamePrefilter(moduleIndexes, automaton, candidateModules);
+    }
+
+    /**
+     * Decorator that skips, for the provided module, all types that were rejected by the prefilter.
+     */
+    public AgentBuilder.TransformerDecorator decoratorFor(ModuleConfiguration moduleConfig) {
+        val moduleIndex = moduleIndexes.get(moduleConfig);
+        if (automaton == null || moduleIndex == null) return AgentBuilder.TransformerDecorator.NoOp.INSTANCE;
+        return classFileTransformer -> new PrefilteredClassFileTransformer(classFileTransformer, moduleIndex);
+    }
+
+    /**
+     * Decorator for the transformer of the merged modules, which skips the types rejected by the prefilter for all of
+     * them. The modules' matchers are expected to check their own module (see {@link #matcherFor}).
+     */
+    public AgentBuilder.TransformerDecorator mergedDecorator() {
+        if (automaton == null) return AgentBuilder.TransformerDecorator.NoOp.INSTANCE;
+        return classFileTransformer -> new PrefilteredClassFileTransformer(classFileTransformer, -1);
+    }
+
+    /**
+     * Matches the types that were not rejected by the prefilter for the provided module.
+     */
+    public AgentBuilder.RawMatcher matcherFor(ModuleConfiguration moduleConfig) {
+        val moduleIndex = moduleIndexes.get(moduleConfig);
+        if (automaton == null || moduleIndex == null) return AgentBuilder.RawMatcher.Trivial.MATCHING;
+        return (typeDescription, classLoader, module, classBeingRedefined, protectionDomain) -> mayTransform(moduleIndex, typeDescription.getInternalName());
+    }
+
+    boolean mayTransform(int moduleIndex, String internalTypeName) {
+        val candidates = candidatesOf(internalTypeName);
+        return moduleIndex < 0 ? !candidates.isEmpty() : candidates.get(moduleIndex);
+    }
+
+    private BitSet candidatesOf(String internalTypeName) {
+        // All modules are asked about the same type one after another, so the automaton only runs for the first one.
+        val lookup = lastLookup.get();
+        if (lookup.typeName != internalTypeName && !internalTypeName.equals(lookup.typeName)) {
+            lookup.state = automaton.run(internalTypeName);
+            lookup.typeName = internalTypeName;
+        }
+        return candidateModules[lookup.state];
+    }
+
+    private static int label(int moduleIndex, int kind) {
+        return moduleIndex * LabelsPerModule + kind;
+    }
+
+    private static final class LastLookup {
+        String typeName;
+        int state;
+    }
+
+    private class PrefilteredClassFileTransformer extends ResettableClassFileTransformer.WithDelegation {
+        // A negative index lets through the types that any module may transform.
+        private final int moduleIndex;
+
+        PrefilteredClassFileTransformer(ResettableClassFileTransformer classFileTransformer, int moduleIndex) {
+            super(classFileTransformer);
+            this.moduleIndex = moduleIndex;
+        }
+
+        @Override
+        public byte[] transform(ClassLoader classLoader, String internalTypeName, Class<?> classBeingRedefined, ProtectionDomain protectionDomain, byte[] classfileBuffer) throws IllegalClassFormatException {
+            if (internalTypeName != null && !mayTransform(moduleIndex, internalTypeName)) return null;
+            return classFileTransformer.transform(classLoader, internalTypeName, classBeingRedefined, protectionDomain, classfileBuffer);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.builder;
+
+import kanela.agent.util.conf.KanelaConfiguration.GeneratedClassesConfig;
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.agent.builder.ResettableClassFileTransformer;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.utility.JavaModule;
+
+import java.lang.instrument.IllegalClassFormatException;
+import java.security.ProtectionDomain;
+
+/**
+ * Recognizes generated classes (ByteBuddy types, reflection accessors and, when configured, lambdas, proxies, etc.) by
+ * the shape of their names. The checks only look at a few fixed fragments of the name, so generated classes are rejected
+ * before ByteBuddy resolves any TypeDescription for them, which matters on applications generating proxies by the
+ * thousands at runtime. Classes defined by the reflection class loaders are left to the modules' ignore chains.
+ */
+public class GeneratedClassClassifier implements AgentBuilder.RawMatcher {
+
+    private final String[] nameFragments;
+    private final String[] namePrefixes;
+    private final String[] internalNameFragments;
+    private final String[] internalNamePrefixes;
+    private final boolean allFragmentsContainDollar;
+
+    private GeneratedClassClassifier(GeneratedClassesConfig config) {
+        this.nameFragments = config.getNameFragments().toJavaArray(String[]::new);
+        this.namePrefixes = config.getNamePrefixes().toJavaArray(String[]::new);
+        this.internalNameFragments = config.getNameFragments().map(GeneratedClassClassifier::internalName).toJavaArray(String[]::new);
+        this.internalNamePrefixes = config.getNamePrefixes().map(GeneratedClassClassifier::internalName).toJavaArray(String[]::new);
+        this.allFragmentsContainDollar = config.getNameFragments().forAll(fragment -> fragment.indexOf('$') >= 0);
+    }
+
+    public static GeneratedClassClassifier from(GeneratedClassesConfig config) {
+        return new GeneratedClassClassifier(config);
+    }
+
+    /**
+     * Decorator that skips the generated classes before they reach the module's transformer.
+     */
+    public AgentBuilder.TransformerDecorator decorator() {
+        return classFileTransformer -> new GeneratedClassesFilter(classFileTransformer);
+    }
+
+    /**
+     * Whether the class with the provided internal name (e.g. "com/sun/proxy/$Proxy12") is a generated class.
+     */
+    boolean isGenerated(String internalTypeName) {
+        return matches(internalTypeName, internalNameFragments, internalNamePrefixes);
+    }
+
+    @Override
+    public boolean matches(TypeDescription typeDescription, ClassLoader classLoader, JavaModule module, Class<?> classBeingRedefined, ProtectionDomain protectionDomain) {
+        return matches(typeDescription.getName(), nameFragments, namePrefixes);
+    }
+
+    private boolean matches(String typeName, String[] fragments, String[] prefixes) {
+        for (String prefix : prefixes) {
+            if (typeName.startsWith(prefix)) return true;
+        }
+        // Generated names are recognized by their '$' signs, names without any (most of them) are not searched at all.
+        if (allFragmentsContainDollar && typeName.indexOf('$') < 0) return false;
+        for (String fragment : fragments) {
+            if (typeName.contains(fragment)) return true;
+        }
+        return false;
+    }
+
+    private static String internalName(String typeName) {
+        return typeName.replace('.', '/');
+    }
+
+    private class GeneratedClassesFilter extends ResettableClassFileTransformer.WithDelegation {
+
+        GeneratedClassesFilter(ResettableClassFileTransformer classFileTransformer) {
+            super(classFileTransformer);
+        }
+
+        @Override
+        public byte[] transform(ClassLoader classLoader, String internalTypeName, Class<?> classBeingRedefined, ProtectionDomain protectionDomain, byte[] classfileBuffer) throws IllegalClassFormatException {
+            if (internalTypeName != null && isGenerated(internalTypeName)) return null;
+            return classFileTransformer.transform(classLoader, internalTypeName, classBeingRedefined, protectionDomain, classfileBuffer);
+        }
+    }
+}
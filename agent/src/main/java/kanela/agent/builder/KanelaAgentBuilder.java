@@ -16,21 +16,31 @@
 
 package kanela.agent.builder;
 
+import io.vavr.Lazy;
+import io.vavr.collection.List;
+import io.vavr.control.Option;
 import kanela.agent.api.instrumentation.TypeTransformation;
 import kanela.agent.api.instrumentation.listener.DebugInstrumentationListener;
 import kanela.agent.api.instrumentation.listener.DefaultInstrumentationListener;
 import kanela.agent.api.instrumentation.listener.InstrumentationRegistryListener;
 import kanela.agent.api.instrumentation.listener.dumper.ClassDumperListener;
 import kanela.agent.cache.PoolStrategyCache;
+import kanela.agent.cache.TransformationCache;
+import kanela.agent.governor.AdviceOverheadGovernor;
+import kanela.agent.reinstrument.RetransformationJob;
 import kanela.agent.resubmitter.PeriodicResubmitter;
+import kanela.agent.util.BootstrapInjector;
 import kanela.agent.util.ListBuilder;
 import kanela.agent.util.conf.KanelaConfiguration;
 import kanela.agent.util.log.Logger;
+import lombok.AccessLevel;
+import lombok.Getter;
 import lombok.Value;
 import lombok.val;
 import net.bytebuddy.ByteBuddy;
 import net.bytebuddy.agent.builder.AgentBuilder;
 import net.bytebuddy.agent.builder.AgentBuilder.InjectionStrategy;
+import net.bytebuddy.agent.builder.AgentBuilder.RawMatcher;
 import net.bytebuddy.description.NamedElement;
 import net.bytebuddy.dynamic.loading.ClassInjector;
 import net.bytebuddy.dynamic.scaffold.MethodGraph;
@@ -39,6 +49,8 @@ import net.bytebuddy.matcher.ElementMatcher;
 
 import java.lang.instrument.Instrumentation;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 import static kanela.agent.util.classloader.ClassLoaderNameMatcher.*;
 import static net.bytebuddy.matcher.ElementMatchers.*;
@@ -50,93 +62,294 @@ class KanelaAgentBuilder {
     KanelaConfiguration.ModuleConfiguration moduleDescription;
     Instrumentation instrumentation;
 
-    private static final PoolStrategyCache poolStrategyCache = PoolStrategyCache.instance();
     final ListBuilder<TypeTransformation> typeTransformations = ListBuilder.builder();
+    @Getter(AccessLevel.NONE)
+    final Map<TypeTransformation, Integer> registryIds = new IdentityHashMap<>();
+    @Getter(AccessLevel.NONE)
+    final Lazy<BootstrapInjector.HelperInjection> helperInjection = Lazy.of(() -> BootstrapInjector.helperInjectionFor(moduleDescription, instrumentation));
+    @Getter(AccessLevel.NONE)
+    final Lazy<Option<TransformationCache>> transformationCache = Lazy.of(this::openTransformationCache);
+    @Getter(AccessLevel.NONE)
+    final Lazy<GeneratedClassClassifier> generatedClassClassifier = Lazy.of(() -> GeneratedClassClassifier.from(config.getGeneratedClasses()));
 
     public void addTypeTransformation(TypeTransformation typeTransformation) {
-        InstrumentationRegistryListener.instance().register(moduleDescription, typeTransformation);
+        registryIds.put(typeTransformation, InstrumentationRegistryListener.instance().register(moduleDescription, typeTransformation));
         typeTransformations.add(typeTransformation);
     }
 
     AgentBuilder build() {
-        return typeTransformations.build().foldLeft(newAgentBuilder(), (agent, typeTransformation) -> {
+        return withTransformations(newAgentBuilder(), RawMatcher.Trivial.MATCHING);
+    }
+
+    /**
+     * Builds a single AgentBuilder with the transformations of all the provided modules, which parses, ignores and
+     * matches every class once for all of them. The modules' within/exclude patterns, the bootstrap class loader
+     * exclusion and the class name prefilter are evaluated as part of their transformations' matchers, instead of on
+     * their own ignore chains. All the modules must share the same {@link MergeStrategy}.
+     */
+    static AgentBuilder merged(List<KanelaAgentBuilder> modules, ClassNamePrefilter classNamePrefilter) {
+        val module = modules.head();
+        val config = module.config;
+        val strategy = module.mergeStrategy();
+
+        AgentBuilder agentBuilder = new AgentBuilder.Default(newByteBuddy(config))
+                .with(module.poolStrategy());
+
+        if (strategy.isRetransformation())
+            agentBuilder = withRetransformation(agentBuilder, config, strategy.isDisableClassFormatChanges());
+        if (modules.exists(m -> m.moduleDescription.shouldInjectInBootstrap()))
+            agentBuilder = withUnsafeInjection(agentBuilder, module.instrumentation);
+
+        val ignoredTypes = List.of(module.generatedClasses()).appendAll(ignoredClassLoaders());
+        agentBuilder = withIgnore(agentBuilder, modules.exists(m -> m.moduleDescription.shouldInjectInBootstrap())
+                ? ignoredTypes
+                : ignoredTypes.append(new RawMatcher.ForElementMatchers(any(), isBootstrapClassLoader())));
+
+        if (config.getTransformationCache().isEnabled())
+            Logger.info(() -> "The transformation cache is not used with the merged install mode.");
+
+        agentBuilder = modules.foldLeft(agentBuilder, (agent, m) -> m.withTransformations(agent, m.mergedScope(classNamePrefilter)));
+        agentBuilder = module.withGeneratedClassesFilter(agentBuilder);
+
+        return agentBuilder
+                .with(classNamePrefilter.mergedDecorator())
+                .with(DefaultInstrumentationListener.instance())
+                // Errors are attributed by the transformers that were applied, since all modules share the listener.
+                .with(module.additionalListeners(InstrumentationRegistryListener.instance()));
+    }
+
+    /**
+     * How the transformer of the module retransforms and resets classes. Only modules with the same strategy are
+     * merged into a single transformer, so that neither retransforming the loaded classes for some modules nor stopping
+     * them touches the classes transformed by the others.
+     */
+    MergeStrategy mergeStrategy() {
+        val retransformation = needsRetransformation();
+        return new MergeStrategy(moduleDescription.isStoppable(), retransformation, retransformation && moduleDescription.isDisableClassFormatChanges());
+    }
+
+    @Value
+    static class MergeStrategy {
+        boolean stoppable;
+        boolean retransformation;
+        boolean disableClassFormatChanges;
+    }
+
+    /**
+     * Adds the transformations of the module to the provided AgentBuilder, restricted to the types that also match the
+     * provided scope. All the transformers of a transformation share a single matcher, so it is evaluated once per type.
+     */
+    private AgentBuilder withTransformations(AgentBuilder agentBuilder, RawMatcher scope) {
+        return typeTransformations.build().foldLeft(agentBuilder, (agent, typeTransformation) -> {
             val transformers = new ArrayList<AgentBuilder.Transformer>();
-            transformers.addAll(typeTransformation.getBridges());
-            transformers.addAll(typeTransformation.getMixins());
-            transformers.addAll(typeTransformation.getTransformations());
-
-            for (AgentBuilder.Transformer transformer : transformers) {
-                agent  = agent
-                        .type(typeTransformation.getElementMatcher().get(), RefinedClassLoaderMatcher.from(typeTransformation.getClassLoaderRefiner()))
-                        .transform(transformer);
-             }
-             return agent;
+            for (AgentBuilder.Transformer transformer : typeTransformation.getBridges()) transformers.add(withRegistry(typeTransformation, transformer));
+            for (AgentBuilder.Transformer transformer : typeTransformation.getMixins()) transformers.add(withRegistry(typeTransformation, transformer));
+            for (AgentBuilder.Transformer transformer : typeTransformation.getTransformations()) transformers.add(withRegistry(typeTransformation, transformer));
+            if (transformers.isEmpty()) return agent;
+
+            val matcher = scoped(scope, withTiming(typeTransformation, new RawMatcher.ForElementMatchers(typeTransformation.getElementMatcher().get(), RefinedClassLoaderMatcher.from(typeTransformation.getClassLoaderRefiner()))));
+
+            AgentBuilder.Identified.Extendable transformation = agent
+                    .type(matcher)
+                    .transform(withCacheability(typeTransformation, withHelperInjection(transformers.get(0))));
+            for (AgentBuilder.Transformer transformer : transformers.subList(1, transformers.size())) {
+                transformation = transformation.transform(withCacheability(typeTransformation, transformer));
+            }
+            return transformation;
         });
     }
 
-    private AgentBuilder newAgentBuilder() {
-        val byteBuddy = new ByteBuddy()
-            .with(TypeValidation.of(config.isDebugMode()))
-            .with(MethodGraph.Compiler.ForDeclaredMethods.INSTANCE);
+    // The helpers are injected the first time any transformation of the module is applied, ahead of its transformers.
+    private AgentBuilder.Transformer withHelperInjection(AgentBuilder.Transformer transformer) {
+        if (!moduleDescription.shouldInjectInBootstrap()) return transformer;
+        return (builder, typeDescription, classLoader, module) -> {
+            helperInjection.get().inject();
+            return transformer.transform(builder, typeDescription, classLoader, module);
+        };
+    }
+
+    /**
+     * The types the module applies to when merged with other modules, which are the ones its own ignore chain would let
+     * through, further limited by the class name prefilter. Modules that do not inject into the bootstrap class loader
+     * keep excluding it here, even when other merged modules do inject into it.
+     */
+    private RawMatcher mergedScope(ClassNamePrefilter classNamePrefilter) {
+        val prefiltered = classNamePrefilter.matcherFor(moduleDescription);
+        ElementMatcher.Junction<ClassLoader> classLoaders = moduleDescription.shouldInjectInBootstrap() ? any() : not(isBootstrapClassLoader());
+        val scope = new RawMatcher.ForElementMatchers(not(ignoreMatches()).and(not(moduleExcludes())), classLoaders);
+
+        return (typeDescription, classLoader, module, classBeingRedefined, protectionDomain) ->
+                prefiltered.matches(typeDescription, classLoader, module, classBeingRedefined, protectionDomain) &&
+                scope.matches(typeDescription, classLoader, module, classBeingRedefined, protectionDomain);
+    }
+
+    private static RawMatcher scoped(RawMatcher scope, RawMatcher matcher) {
+        if (scope == RawMatcher.Trivial.MATCHING) return matcher;
+        return (typeDescription, classLoader, module, classBeingRedefined, protectionDomain) ->
+                scope.matches(typeDescription, classLoader, module, classBeingRedefined, protectionDomain) &&
+                matcher.matches(typeDescription, classLoader, module, classBeingRedefined, protectionDomain);
+    }
+
+    private AgentBuilder.Transformer withRegistry(TypeTransformation typeTransformation, AgentBuilder.Transformer transformer) {
+        if (!config.getInstrumentationRegistryConfig().isEnabled()) return transformer;
+        return InstrumentationRegistryListener.instance().recording(registryIds.get(typeTransformation), transformer, isTimed());
+    }
+
+    // Only the types matched by their names alone, regardless of the ClassLoader, can be served from the cache.
+    private AgentBuilder.Transformer withCacheability(TypeTransformation typeTransformation, AgentBuilder.Transformer transformer) {
+        if (typeTransformation.getTypeNames().isDefined() && typeTransformation.getClassLoaderRefiner().isEmpty()) return transformer;
+        return transformationCache.get().map(cache -> cache.uncacheable(transformer)).getOrElse(transformer);
+    }
+
+    private AgentBuilder.RawMatcher withTiming(TypeTransformation typeTransformation, AgentBuilder.RawMatcher matcher) {
+        if (!isTimed()) return matcher;
+        return InstrumentationRegistryListener.instance().timing(registryIds.get(typeTransformation), matcher);
+    }
+
+    private AgentBuilder.PoolStrategy poolStrategy() {
+        val poolStrategyCache = PoolStrategyCache.instance(config.getTypePoolCache());
+        return isTimed() ? poolStrategyCache.timed() : poolStrategyCache;
+    }
 
-        AgentBuilder agentBuilder = new AgentBuilder.Default(byteBuddy)
-                .with(poolStrategyCache);
+    private boolean isTimed() {
+        return config.getInstrumentationRegistryConfig().isEnabled() && config.getInstrumentationRegistryConfig().isTimings();
+    }
+
+    private AgentBuilder newAgentBuilder() {
+        AgentBuilder agentBuilder = new AgentBuilder.Default(newByteBuddy(config))
+                .with(poolStrategy());
 
 
         agentBuilder = withRetransformationForRuntime(agentBuilder);
         agentBuilder = withBootstrapAttaching(agentBuilder);
-        agentBuilder = withIgnore(agentBuilder);
+        agentBuilder = withIgnore(agentBuilder, ignoredTypes());
+        agentBuilder = withTransformationCache(agentBuilder);
+        agentBuilder = withGeneratedClassesFilter(agentBuilder);
+        agentBuilder = withModuleTimings(agentBuilder);
 
         return agentBuilder
                 .with(DefaultInstrumentationListener.instance())
-                .with(additionalListeners());
+                .with(additionalListeners(InstrumentationRegistryListener.instance().forModule(moduleDescription)));
 }
 
-    private AgentBuilder withRetransformationForRuntime(AgentBuilder agentBuilder) {
-        if (config.isAttachedInRuntime() || moduleDescription.isStoppable() || moduleDescription.shouldInjectInBootstrap()) {
-            Logger.info(() -> "Retransformation Strategy activated for: " + moduleDescription.getName());
+    private static ByteBuddy newByteBuddy(KanelaConfiguration config) {
+        return new ByteBuddy()
+            .with(TypeValidation.of(config.isDebugMode()))
+            .with(MethodGraph.Compiler.ForDeclaredMethods.INSTANCE);
+    }
+
+    private boolean needsRetransformation() {
+        return config.isAttachedInRuntime() || moduleDescription.isStoppable() || moduleDescription.shouldInjectInBootstrap() || hasGovernedAdvisors();
+    }
 
-            if(moduleDescription.isDisableClassFormatChanges())
-                agentBuilder = agentBuilder.disableClassFormatChanges(); // enable restrictions imposed by most VMs and also HotSpot.
+    // The governor retransforms the classes of an advisor when removing it or applying it again.
+    private boolean hasGovernedAdvisors() {
+        return typeTransformations.build().exists(tt -> tt.getTransformations().stream().anyMatch(AdviceOverheadGovernor::isGoverned));
+    }
 
-            agentBuilder = agentBuilder
-                .with(AgentBuilder.RedefinitionStrategy.RETRANSFORMATION)
-                .withResubmission(PeriodicResubmitter.instance()).resubmitOnError();
+    private AgentBuilder withRetransformationForRuntime(AgentBuilder agentBuilder) {
+        if (needsRetransformation()) {
+            Logger.info(() -> "Retransformation Strategy activated for: " + moduleDescription.getName());
+            agentBuilder = withRetransformation(agentBuilder, config, moduleDescription.isDisableClassFormatChanges());
         }
         return agentBuilder;
     }
 
+    private static AgentBuilder withRetransformation(AgentBuilder agentBuilder, KanelaConfiguration config, boolean disableClassFormatChanges) {
+        if(disableClassFormatChanges)
+            agentBuilder = agentBuilder.disableClassFormatChanges(); // enable restrictions imposed by most VMs and also HotSpot.
+
+        return agentBuilder
+            .with(AgentBuilder.RedefinitionStrategy.RETRANSFORMATION)
+            .with(RetransformationJob.batchAllocator(config.getReinstrumentation()))
+            .with(RetransformationJob.Forwarding.INSTANCE)
+            .withResubmission(PeriodicResubmitter.instance()).resubmitOnError();
+    }
+
     private AgentBuilder withBootstrapAttaching(AgentBuilder agentBuilder) {
         if(moduleDescription.shouldInjectInBootstrap()){
             Logger.info(() -> "Bootstrap Injection activated.");
-            agentBuilder = agentBuilder.with(new InjectionStrategy.UsingUnsafe.OfFactory(ClassInjector.UsingUnsafe.Factory.resolve(instrumentation)));
+            agentBuilder = withUnsafeInjection(agentBuilder, instrumentation);
         }
         return agentBuilder;
     }
 
-    private AgentBuilder withIgnore(AgentBuilder agentBuilder) {
-        AgentBuilder.Ignored builder = agentBuilder.ignore(ignoreMatches())
-                .or(moduleExcludes())
-                .or(any(), isExtensionClassLoader())
-                .or(any(), isKanelaClassLoader())
-                .or(any(), isGroovyClassLoader())
-                .or(any(), isSBTClassLoader())
-                .or(any(), isSBTPluginClassLoader())
-                .or(any(), isSBTCompilerClassLoader())
-                .or(any(), isSBTCachedClassLoader())
-                .or(any(), isLagomClassLoader())
-                .or(any(), isLagomServiceLocatorClassLoader())
-                .or(any(), isReflectionClassLoader());
+    private static AgentBuilder withUnsafeInjection(AgentBuilder agentBuilder, Instrumentation instrumentation) {
+        return agentBuilder.with(new InjectionStrategy.UsingUnsafe.OfFactory(ClassInjector.UsingUnsafe.Factory.resolve(instrumentation)));
+    }
+
+    private AgentBuilder withTransformationCache(AgentBuilder agentBuilder) {
+        return transformationCache.get()
+                .map(cache -> agentBuilder.with(cache.listener()).with(cache.decorator(beforeServingCachedTypes())))
+                .getOrElse(agentBuilder);
+    }
+
+    private Option<TransformationCache> openTransformationCache() {
+        if (!config.getTransformationCache().isEnabled() || config.shouldMergeTransformers()) return Option.none();
+        return TransformationCache.forModule(config.getTransformationCache(), moduleDescription, Thread.currentThread().getContextClassLoader());
+    }
+
+    // Added after the cache so generated classes are skipped before looking for them on the cache.
+    private AgentBuilder withGeneratedClassesFilter(AgentBuilder agentBuilder) {
+        if (!config.getGeneratedClasses().isEnabled()) return agentBuilder;
+        return agentBuilder.with(generatedClassClassifier.get().decorator());
+    }
+
+    // Added last so the timings cover everything the module's transformer does on a class load.
+    private AgentBuilder withModuleTimings(AgentBuilder agentBuilder) {
+        if (!isTimed()) return agentBuilder;
+        return agentBuilder.with(InstrumentationRegistryListener.instance().moduleTimings(moduleDescription.getConfigPath()).decorator());
+    }
+
+    // Cached types skip the transformers, so the helpers they depend on must be injected before serving them.
+    private Runnable beforeServingCachedTypes() {
+        if (!moduleDescription.shouldInjectInBootstrap()) return () -> {};
+        return () -> helperInjection.get().inject();
+    }
+
+    private static AgentBuilder withIgnore(AgentBuilder agentBuilder, List<AgentBuilder.RawMatcher> ignoredTypes) {
+        return ignoredTypes.tail().foldLeft(agentBuilder.ignore(ignoredTypes.head()), AgentBuilder.Ignored::or);
+    }
+
+    /**
+     * Types and ClassLoaders that are never transformed by the module, in the same order they are evaluated by ByteBuddy.
+     */
+    List<AgentBuilder.RawMatcher> ignoredTypes() {
+        val ignoredTypes = List.<AgentBuilder.RawMatcher>of(
+                new RawMatcher.ForElementMatchers(ignoreMatches()),
+                generatedClasses(),
+                new RawMatcher.ForElementMatchers(moduleExcludes()))
+                .appendAll(ignoredClassLoaders());
+
+        if (moduleDescription.shouldInjectInBootstrap()) return ignoredTypes;
+        return ignoredTypes.append(new RawMatcher.ForElementMatchers(any(), isBootstrapClassLoader()));
+    }
+
+    private static List<AgentBuilder.RawMatcher> ignoredClassLoaders() {
+        return List.of(
+                new RawMatcher.ForElementMatchers(any(), isExtensionClassLoader()),
+                new RawMatcher.ForElementMatchers(any(), isKanelaClassLoader()),
+                new RawMatcher.ForElementMatchers(any(), isGroovyClassLoader()),
+                new RawMatcher.ForElementMatchers(any(), isSBTClassLoader()),
+                new RawMatcher.ForElementMatchers(any(), isSBTPluginClassLoader()),
+                new RawMatcher.ForElementMatchers(any(), isSBTCompilerClassLoader()),
+                new RawMatcher.ForElementMatchers(any(), isSBTCachedClassLoader()),
+                new RawMatcher.ForElementMatchers(any(), isLagomClassLoader()),
+                new RawMatcher.ForElementMatchers(any(), isLagomServiceLocatorClassLoader()),
+                new RawMatcher.ForElementMatchers(any(), isReflectionClassLoader()));
+    }
 
-        if (moduleDescription.shouldInjectInBootstrap()) return builder;
-        return builder.or(any(), isBootstrapClassLoader());
+    // Also applies to the types that are retransformed, which do not go through the decorator.
+    private AgentBuilder.RawMatcher generatedClasses() {
+        if (!config.getGeneratedClasses().isEnabled()) return RawMatcher.Trivial.NON_MATCHING;
+        return generatedClassClassifier.get();
     }
 
-    private AgentBuilder.Listener additionalListeners() {
+    private AgentBuilder.Listener additionalListeners(AgentBuilder.Listener registryListener) {
         val listeners = new ArrayList<AgentBuilder.Listener>();
         if (config.getDump().isDumpEnabled()) listeners.add(ClassDumperListener.instance());
         if (config.getDebugMode()) listeners.add(DebugInstrumentationListener.instance());
-        if (config.getInstrumentationRegistryConfig().isEnabled()) listeners.add(InstrumentationRegistryListener.instance());
+        if (config.getInstrumentationRegistryConfig().isEnabled()) listeners.add(registryListener);
         return new AgentBuilder.Listener.Compound(listeners);
     }
 
@@ -16,15 +16,34 @@
 
 package kanela.agent.builder;
 
+import kanela.agent.reinstrument.RetransformationJob;
 import lombok.ToString;
 import lombok.Value;
+import lombok.experimental.NonFinal;
 import net.bytebuddy.agent.builder.AgentBuilder;
 import net.bytebuddy.agent.builder.ResettableClassFileTransformer;
 
+import java.lang.instrument.Instrumentation;
+
 @Value(staticConstructor = "from")
-@ToString(exclude="classFileTransformer")
+@ToString(exclude={"classFileTransformer", "instrumentation"})
 public class KanelaFileTransformer {
     AgentBuilder agentBuilder;
-    ResettableClassFileTransformer classFileTransformer;
+    @NonFinal volatile ResettableClassFileTransformer classFileTransformer;
     boolean stoppable;
-}
\ No newline at end of file
+    Instrumentation instrumentation;
+
+    /**
+     * Resets the transformer, retransforming the classes it changed in batches.
+     */
+    public boolean stop(AgentBuilder.RedefinitionStrategy.BatchAllocator batchAllocator) {
+        return classFileTransformer.reset(instrumentation, AgentBuilder.RedefinitionStrategy.RETRANSFORMATION, batchAllocator, RetransformationJob.Forwarding.INSTANCE);
+    }
+
+    /**
+     * Installs the module again after it was reset, from then on the new transformer is the one to reset.
+     */
+    public void reinstall() {
+        this.classFileTransformer = agentBuilder.installOn(instrumentation);
+    }
+}
@@ -17,76 +17,310 @@
 package kanela.agent.cache;
 
 import com.blogspot.mydailyjava.weaklockfree.WeakConcurrentMap;
-import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 import kanela.agent.util.NamedThreadFactory;
+import kanela.agent.util.conf.KanelaConfiguration.TypePoolCacheConfig;
+import kanela.agent.util.log.Logger;
+import kanela.agent.util.stats.ModuleTimings;
+import lombok.AccessLevel;
 import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.Value;
 import lombok.val;
 import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.dynamic.ClassFileLocator;
+import net.bytebuddy.matcher.ElementMatchers;
 import net.bytebuddy.pool.TypePool;
 
+import static java.text.MessageFormat.format;
+
 /**
- * WeakReference for the ClassLoaders and SoftReference for TypePolCache in order to avoid OOMEs
+ * WeakReference for the ClassLoaders and a bounded TypePool cache for each of them. Every cache keeps up to a maximum
+ * amount of types, evicting the least recently used ones when it grows past it, and the caches of class loaders that
+ * were not used for a while are dropped altogether.
+ *
+ * Types of the shared packages (the ones that can only be defined by the bootstrap and platform class loaders, like
+ * java.*) are described once, by a TypePool over the platform class loader, and shared by the caches of all class
+ * loaders instead of being parsed again for each of them.
  */
 @Value
 @EqualsAndHashCode(callSuper = false)
 public class PoolStrategyCache extends AgentBuilder.PoolStrategy.WithTypePoolCache {
 
-    private static final PoolStrategyCache Instance = new PoolStrategyCache();
+    private static PoolStrategyCache current = null;
 
-    WeakConcurrentMap<ClassLoader, SoftReferenceCacheProvider> cache = new WeakConcurrentMap<>(false);
+    WeakConcurrentMap<ClassLoader, BoundedCacheProvider> cache = new WeakConcurrentMap<>(false);
+    TypePoolCacheConfig config;
+    @Getter(AccessLevel.NONE)
+    Counters counters = new Counters();
+    @Getter(AccessLevel.NONE)
+    SharedTypes sharedTypes;
+    @Getter(AccessLevel.NONE)
+    ScheduledExecutorService cleaner;
 
-    private PoolStrategyCache() {
+    private PoolStrategyCache(TypePoolCacheConfig config) {
         super(TypePool.Default.ReaderMode.FAST);
-        Executors.newScheduledThreadPool(1, NamedThreadFactory.instance("cache-pool-cleaner"))
-                 .scheduleWithFixedDelay(() -> {
-                     removeAfterLastMinuteAccess();
-                     cache.expungeStaleEntries();
-                 }, 1, 1, TimeUnit.MINUTES);
+        this.config = config;
+        this.sharedTypes = new SharedTypes(config.getSharedPackages().toJavaArray(String[]::new), BoundedCacheProvider.withObjectType(config.getSharedMaxEntries(), counters, null));
+        this.cleaner = Executors.newScheduledThreadPool(1, NamedThreadFactory.instance("cache-pool-cleaner"));
+        this.cleaner.scheduleWithFixedDelay(() -> {
+            removeIdleClassLoaders();
+            cache.expungeStaleEntries();
+            Logger.debug(() -> format("TypePool cache stats: {0}", getStats()));
+        }, 1, 1, TimeUnit.MINUTES);
     }
 
     @Override
     protected TypePool.CacheProvider locate(ClassLoader classLoader) {
         val loader = (classLoader == null) ? ClassLoader.getSystemClassLoader() : classLoader;
-        SoftReferenceCacheProvider providerRef = cache.getIfPresent(loader);
+        BoundedCacheProvider cacheProvider = cache.getIfPresent(loader);
 
-        if (providerRef == null || providerRef.get() == null) {
-            providerRef = SoftReferenceCacheProvider.newOne();
-            cache.put(loader, providerRef);
-            providerRef =  cache.get(loader);
+        if (cacheProvider == null) {
+            cacheProvider = BoundedCacheProvider.withObjectType(config.getMaxEntriesPerClassLoader(), counters, sharedTypes);
+            cache.put(loader, cacheProvider);
         }
 
-        val cacheProvider = providerRef.get();
-        return cacheProvider != null ? cacheProvider : TypePool.CacheProvider.Simple.withObjectType();
+        cacheProvider.touch();
+        return cacheProvider;
+    }
+
+    /**
+     * The same cache, with TypePools that record the time spent resolving types on the module timings. Only meant for
+     * when the timings are enabled, since every resolution looks up the module that is running on the current thread.
+     */
+    public AgentBuilder.PoolStrategy timed() {
+        return new Timed();
     }
 
-    public static PoolStrategyCache instance() {
-        return Instance;
+    /**
+     * Returns the cache for the provided configuration. A new cache replaces the current one when the configuration
+     * changes (e.g. when the modules are reloaded), otherwise all modules share the same cache.
+     */
+    public static synchronized PoolStrategyCache instance(TypePoolCacheConfig config) {
+        if (current == null || !current.config.equals(config)) {
+            if (current != null) current.cleaner.shutdown();
+            current = new PoolStrategyCache(config);
+        }
+        return current;
     }
 
+    public CacheStats getStats() {
+        long entries = 0;
+        int classLoaders = 0;
+        for (Map.Entry<ClassLoader, BoundedCacheProvider> entry : cache) {
+            entries += entry.getValue().size();
+            classLoaders++;
+        }
+        return new CacheStats(counters.hits.sum(), counters.misses.sum(), counters.evictions.sum(), counters.expiredClassLoaders.sum(), classLoaders, entries, sharedTypes.size());
+    }
 
-    private void removeAfterLastMinuteAccess() {
+    private void removeIdleClassLoaders() {
+        val idleSince = System.currentTimeMillis() - config.getExpireAfterIdleMillis();
         cache.forEach(entry -> {
-            if (System.currentTimeMillis() >= entry.getValue().getLastAccess() + TimeUnit.MINUTES.toMillis(1)) {
+            if (entry.getValue().getLastAccess() < idleSince) {
                 cache.remove(entry.getKey());
+                counters.expiredClassLoaders.increment();
             }
         });
     }
 
-    @Value(staticConstructor = "newOne")
-    private static class SoftReferenceCacheProvider {
-        AtomicLong lastAccess = new AtomicLong(System.currentTimeMillis());
-        SoftReference<TypePool.CacheProvider> delegate = new SoftReference<>(new TypePool.CacheProvider.Simple());
+    @Value
+    public static class CacheStats {
+        long hits;
+        long misses;
+        long evictions;
+        long expiredClassLoaders;
+        int classLoaders;
+        long entries;
+        long sharedEntries;
+    }
+
+    private final class Timed extends AgentBuilder.PoolStrategy.WithTypePoolCache {
+
+        Timed() {
+            super(PoolStrategyCache.this.readerMode);
+        }
+
+        @Override
+        protected TypePool.CacheProvider locate(ClassLoader classLoader) {
+            return PoolStrategyCache.this.locate(classLoader);
+        }
+
+        @Override
+        public TypePool typePool(ClassFileLocator classFileLocator, ClassLoader classLoader) {
+            return new TimedTypePool(locate(classLoader), classFileLocator, readerMode);
+        }
+
+        @Override
+        public TypePool typePool(ClassFileLocator classFileLocator, ClassLoader classLoader, String name) {
+            val cacheProvider = new TypePool.CacheProvider.Discriminating(ElementMatchers.<String>is(name), new TypePool.CacheProvider.Simple(), locate(classLoader));
+            return new TimedTypePool(cacheProvider, classFileLocator, readerMode);
+        }
+    }
+
+    /**
+     * Records the time spent resolving types on the timings of the module whose transformer is running on the current
+     * thread, if any.
+     */
+    static final class TimedTypePool extends TypePool.Default.WithLazyResolution {
+
+        TimedTypePool(TypePool.CacheProvider cacheProvider, ClassFileLocator classFileLocator, TypePool.Default.ReaderMode readerMode) {
+            super(cacheProvider, classFileLocator, readerMode);
+        }
+
+        @Override
+        protected Resolution doResolve(String name) {
+            val timings = ModuleTimings.current();
+            if (timings == null) return super.doResolve(name);
+
+            val start = System.nanoTime();
+            try {
+                return super.doResolve(name);
+            } finally {
+                timings.recordTypePoolResolution(System.nanoTime() - start);
+            }
+        }
+    }
+
+    static final class SharedTypes {
+        private final String[] packages;
+        private final BoundedCacheProvider cacheProvider;
+        private final TypePool typePool;
+
+        SharedTypes(String[] packages, BoundedCacheProvider cacheProvider) {
+            this.packages = packages;
+            this.cacheProvider = cacheProvider;
+            this.typePool = new TypePool.Default.WithLazyResolution(cacheProvider, ClassFileLocator.ForClassLoader.ofPlatformLoader(), TypePool.Default.ReaderMode.FAST);
+        }
+
+        boolean covers(String name) {
+            for (String sharedPackage : packages) {
+                if (name.startsWith(sharedPackage)) return true;
+            }
+            return false;
+        }
+
+        TypePool.Resolution describe(String name) {
+            return typePool.describe(name);
+        }
+
+        int size() {
+            return cacheProvider.size();
+        }
+    }
+
+    static final class Counters {
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder evictions = new LongAdder();
+        final LongAdder expiredClassLoaders = new LongAdder();
+    }
+
+    /**
+     * TypePool cache that holds up to {@code maxEntries} resolutions. Lookups only stamp the entry with the current
+     * time, and once the cache grows past its bound the least recently used entries are evicted in a batch (a tenth of
+     * the bound) so that the cost of sorting them is amortized over many registrations.
+     */
+    static final class BoundedCacheProvider implements TypePool.CacheProvider {
+        private final ConcurrentMap<String, Entry> storage = new ConcurrentHashMap<>();
+        private final ReentrantLock evictionLock = new ReentrantLock();
+        private final int maxEntries;
+        private final Counters counters;
+        private final SharedTypes sharedTypes;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        BoundedCacheProvider(int maxEntries, Counters counters, SharedTypes sharedTypes) {
+            this.maxEntries = maxEntries;
+            this.counters = counters;
+            this.sharedTypes = sharedTypes;
+        }
+
+        static BoundedCacheProvider withObjectType(int maxEntries, Counters counters, SharedTypes sharedTypes) {
+            val cacheProvider = new BoundedCacheProvider(maxEntries, counters, sharedTypes);
+            cacheProvider.register(Object.class.getName(), new TypePool.Resolution.Simple(TypeDescription.OBJECT));
+            return cacheProvider;
+        }
+
+        @Override
+        public TypePool.Resolution find(String name) {
+            if (sharedTypes != null && sharedTypes.covers(name)) {
+                // Types that the platform class loader can not see are resolved and cached by the class loader itself.
+                val shared = sharedTypes.describe(name);
+                if (shared.isResolved()) return shared;
+            }
+            val entry = storage.get(name);
+            if (entry == null) {
+                counters.misses.increment();
+                return UNRESOLVED;
+            }
+            counters.hits.increment();
+            entry.lastAccess = System.nanoTime();
+            return entry.resolution;
+        }
+
+        @Override
+        public TypePool.Resolution register(String name, TypePool.Resolution resolution) {
+            val previous = storage.putIfAbsent(name, new Entry(resolution));
+            if (previous != null) return previous.resolution;
+            if (storage.size() > maxEntries) evictLeastRecentlyUsed();
+            return resolution;
+        }
+
+        @Override
+        public void clear() {
+            storage.clear();
+        }
+
+        int size() {
+            return storage.size();
+        }
 
         long getLastAccess() {
-            return lastAccess.get();
+            return lastAccess;
+        }
+
+        void touch() {
+            // Avoids writing the shared field on every class load, a second is plenty for expiring idle caches.
+            val now = System.currentTimeMillis();
+            if (now - lastAccess > 1000) lastAccess = now;
         }
 
-        TypePool.CacheProvider get() {
-            return delegate.get();
+        private void evictLeastRecentlyUsed() {
+            if (!evictionLock.tryLock()) return;
+            try {
+                val excess = storage.size() - maxEntries;
+                if (excess <= 0) return;
+
+                final List<Map.Entry<String, Entry>> entries = new ArrayList<>(storage.entrySet());
+                entries.sort(Comparator.comparingLong(entry -> entry.getValue().lastAccess));
+
+                val toEvict = Math.min(entries.size(), excess + Math.max(1, maxEntries / 10));
+                for (val entry : entries.subList(0, toEvict)) {
+                    if (storage.remove(entry.getKey(), entry.getValue())) counters.evictions.increment();
+                }
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+
+        private static final class Entry {
+            final TypePool.Resolution resolution;
+            volatile long lastAccess = System.nanoTime();
+
+            Entry(TypePool.Resolution resolution) {
+                this.resolution = resolution;
+            }
         }
     }
 }
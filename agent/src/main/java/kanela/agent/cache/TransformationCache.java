@@ -0,0 +1,293 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.cache;
+
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+import kanela.agent.util.BuildInfo;
+import kanela.agent.util.conf.KanelaConfiguration.ModuleConfiguration;
+import kanela.agent.util.conf.KanelaConfiguration.TransformationCacheConfig;
+import kanela.agent.util.log.Logger;
+import lombok.val;
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.agent.builder.ResettableClassFileTransformer;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.dynamic.DynamicType;
+import net.bytebuddy.utility.JavaModule;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.instrument.IllegalClassFormatException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.ProtectionDomain;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import static java.text.MessageFormat.format;
+
+/**
+ * Persistent, on-disk cache of the bytes produced by a module's transformations. The entries of each module live on a
+ * directory named after a fingerprint of the agent version, the module configuration and the contents of the jars that
+ * provide the module's instrumentations, so any change on those starts a fresh directory and removes the stale ones.
+ *
+ * Within that directory each transformed type is stored under the hash of its original bytes, its name and the type of
+ * the ClassLoader that defines it. On later starts the decorated ClassFileTransformer returns those bytes right away,
+ * without building a TypePool or running any matcher. Only the transformations that produced neither auxiliary types
+ * nor live type initializers are cached, since those can not be recreated from the class bytes alone. Types transformed
+ * by any transformation that matches on something other than type names (a type hierarchy, an annotation or a
+ * ClassRefiner) are never cached either, since whether those match depends on the class path of the ClassLoader.
+ */
+public class TransformationCache {
+
+    private static final String ClassFileExtension = ".class";
+    private static final char KeySeparator = '@';
+    private static final int KeyLength = 32;
+    private static final Map<String, String> resourceFingerprints = new ConcurrentHashMap<>();
+    private static final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(TransformationCache::newDigest);
+
+    private final String moduleName;
+    private final Path directory;
+    private final Set<String> cachedTypes = ConcurrentHashMap.newKeySet();
+    private final ThreadLocal<Boolean> cacheableTransformation = new ThreadLocal<>();
+
+    private TransformationCache(String moduleName, Path directory) throws IOException {
+        this.moduleName = moduleName;
+        this.directory = directory;
+        indexCachedTypes();
+    }
+
+    /**
+     * Opens the transformation cache of a module, removing any entries created for a previous agent version, module
+     * configuration or instrumentation jars.
+     */
+    public static Option<TransformationCache> forModule(TransformationCacheConfig config, ModuleConfiguration moduleConfig, ClassLoader instrumentationClassLoader) {
+        return forModule(config, moduleConfig, instrumentationClassLoader, Try.of(BuildInfo::version).getOrElse("unknown"));
+    }
+
+    static Option<TransformationCache> forModule(TransformationCacheConfig config, ModuleConfiguration moduleConfig, ClassLoader instrumentationClassLoader, String agentVersion) {
+        return Try.of(() -> {
+            val moduleDirectory = Paths.get(config.getDir(), moduleConfig.getConfigPath());
+            val directory = moduleDirectory.resolve(fingerprintOf(agentVersion, moduleConfig, instrumentationClassLoader));
+
+            removeStaleEntries(moduleDirectory, directory);
+            Files.createDirectories(directory);
+            return new TransformationCache(moduleConfig.getName(), directory);
+        })
+        .onSuccess(cache -> Logger.info(() -> format("Transformation Cache activated for: {0} on {1}", moduleConfig.getName(), cache.directory)))
+        .onFailure(cause -> Logger.warn(() -> "Unable to open the Transformation Cache for: " + moduleConfig.getName(), cause))
+        .toOption();
+    }
+
+    /**
+     * Listener that tells the cache whether the transformation that was just applied can be served from the cache.
+     */
+    public AgentBuilder.Listener listener() {
+        return new CacheabilityListener();
+    }
+
+    /**
+     * Decorator that serves the cached bytes when available and stores the result of any cacheable transformation.
+     */
+    public AgentBuilder.TransformerDecorator decorator() {
+        return decorator(() -> {});
+    }
+
+    /**
+     * Same as {@link #decorator()}, running the provided action before serving any cached bytes.
+     */
+    public AgentBuilder.TransformerDecorator decorator(Runnable beforeServing) {
+        return classFileTransformer -> new CachingClassFileTransformer(classFileTransformer, beforeServing);
+    }
+
+    /**
+     * Wraps a transformer whose type matchers depend on the class path of the ClassLoader, so that the types it is
+     * applied on are not cached.
+     */
+    public AgentBuilder.Transformer uncacheable(AgentBuilder.Transformer transformer) {
+        return (builder, typeDescription, classLoader, module) -> {
+            cacheableTransformation.set(Boolean.FALSE);
+            return transformer.transform(builder, typeDescription, classLoader, module);
+        };
+    }
+
+    private byte[] load(String internalTypeName, String key) {
+        return Try.of(() -> Files.readAllBytes(directory.resolve(fileNameOf(internalTypeName, key)))).getOrNull();
+    }
+
+    private void store(String internalTypeName, String key, byte[] transformed) {
+        Try.run(() -> {
+            val temporaryFile = Files.createTempFile(directory, null, ".tmp");
+            Files.write(temporaryFile, transformed);
+            Files.move(temporaryFile, directory.resolve(fileNameOf(internalTypeName, key)), StandardCopyOption.ATOMIC_MOVE);
+            cachedTypes.add(internalTypeName);
+        }).onFailure(cause -> Logger.debug(() -> format("Unable to store {0} on the Transformation Cache for {1}: {2}", internalTypeName, moduleName, cause.getMessage())));
+    }
+
+    private void indexCachedTypes() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(file -> file.getFileName().toString())
+                 .filter(fileName -> fileName.endsWith(ClassFileExtension) && fileName.indexOf(KeySeparator) > 0)
+                 .forEach(fileName -> cachedTypes.add(fileName.substring(0, fileName.lastIndexOf(KeySeparator)).replace('.', '/')));
+        }
+    }
+
+    private static String fileNameOf(String internalTypeName, String key) {
+        return internalTypeName.replace('/', '.') + KeySeparator + key + ClassFileExtension;
+    }
+
+    private static String keyOf(ClassLoader classLoader, String internalTypeName, byte[] classfileBuffer) {
+        val digest = digests.get();
+        digest.reset();
+        digest.update(((classLoader == null) ? "bootstrap" : classLoader.getClass().getName()).getBytes(StandardCharsets.UTF_8));
+        digest.update(internalTypeName.getBytes(StandardCharsets.UTF_8));
+        digest.update(classfileBuffer);
+        return toHex(digest.digest());
+    }
+
+    private static String fingerprintOf(String agentVersion, ModuleConfiguration moduleConfig, ClassLoader instrumentationClassLoader) {
+        val digest = newDigest();
+        digest.update(agentVersion.getBytes(StandardCharsets.UTF_8));
+        digest.update(describe(moduleConfig).getBytes(StandardCharsets.UTF_8));
+        moduleConfig.getInstrumentations().forEach(instrumentationClassName ->
+            digest.update(sourceFingerprintOf(instrumentationClassName, instrumentationClassLoader).getBytes(StandardCharsets.UTF_8)));
+
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Every setting of the module that has an effect on the transformations, leaving out the ones that change on every
+     * start (like the temporary directory).
+     */
+    private static String describe(ModuleConfiguration moduleConfig) {
+        return String.join("|",
+            moduleConfig.getName(),
+            moduleConfig.getInstrumentations().mkString(","),
+            moduleConfig.getWithinPackage(),
+            String.valueOf(moduleConfig.getExcludePackage()),
+            String.valueOf(moduleConfig.isStoppable()),
+            String.valueOf(moduleConfig.shouldInjectInBootstrap()),
+            moduleConfig.getBootstrapInjectionConfig().getHelperClassNames().mkString(","),
+            String.valueOf(moduleConfig.shouldValidateMinimumClassFileVersion()),
+            String.valueOf(moduleConfig.isDisableClassFormatChanges()),
+            moduleConfig.getExceptionHandlerStrategy());
+    }
+
+    /**
+     * Fingerprints the contents of the jar (or the class file, when loading from a directory) that provides the
+     * instrumentation class. Built-in modules are extracted from the agent jar, so neither the location nor the
+     * modification time of the jars can be trusted.
+     */
+    private static String sourceFingerprintOf(String instrumentationClassName, ClassLoader instrumentationClassLoader) {
+        val resource = instrumentationClassLoader.getResource(instrumentationClassName.replace('.', '/') + ClassFileExtension);
+        if (resource == null) return "missing:" + instrumentationClassName;
+
+        val location = resource.toExternalForm();
+        val source = ("jar".equals(resource.getProtocol()) && location.contains("!/")) ? location.substring(4, location.indexOf("!/")) : location;
+
+        return resourceFingerprints.computeIfAbsent(source, key -> Try.of(() -> {
+            val digest = newDigest();
+            try (InputStream in = new URL(key).openStream()) {
+                val buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) digest.update(buffer, 0, read);
+            }
+            return toHex(digest.digest());
+        }).getOrElse(() -> "unreadable:" + key));
+    }
+
+    private static void removeStaleEntries(Path moduleDirectory, Path currentDirectory) throws IOException {
+        if (!Files.isDirectory(moduleDirectory)) return;
+
+        try (Stream<Path> entries = Files.list(moduleDirectory)) {
+            entries.filter(entry -> !entry.equals(currentDirectory)).forEach(staleEntry ->
+                Try.run(() -> {
+                    try (Stream<Path> files = Files.walk(staleEntry)) {
+                        files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+                    }
+                }).onFailure(cause -> Logger.debug(() -> "Unable to remove stale Transformation Cache entries on: " + staleEntry)));
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        return Try.of(() -> MessageDigest.getInstance("SHA-256"))
+                  .getOrElseThrow((cause) -> new RuntimeException("SHA-256 is not available on this JVM", cause));
+    }
+
+    private static String toHex(byte[] bytes) {
+        val hex = new StringBuilder(KeyLength);
+        for (int i = 0; hex.length() < KeyLength; i++) {
+            hex.append(Character.forDigit((bytes[i] >> 4) & 0xF, 16)).append(Character.forDigit(bytes[i] & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private class CacheabilityListener extends AgentBuilder.Listener.Adapter {
+        @Override
+        public void onTransformation(TypeDescription typeDescription, ClassLoader classLoader, JavaModule module, boolean loaded, DynamicType dynamicType) {
+            // The uncacheable transformers run before the type is made, so their mark must be kept.
+            if (Boolean.FALSE.equals(cacheableTransformation.get())) return;
+            cacheableTransformation.set(dynamicType.getAuxiliaryTypes().isEmpty() && !dynamicType.hasAliveLoadedTypeInitializers());
+        }
+    }
+
+    private class CachingClassFileTransformer extends ResettableClassFileTransformer.WithDelegation {
+        private final Runnable beforeServing;
+
+        CachingClassFileTransformer(ResettableClassFileTransformer classFileTransformer, Runnable beforeServing) {
+            super(classFileTransformer);
+            this.beforeServing = beforeServing;
+        }
+
+        @Override
+        public byte[] transform(ClassLoader classLoader, String internalTypeName, Class<?> classBeingRedefined, ProtectionDomain protectionDomain, byte[] classfileBuffer) throws IllegalClassFormatException {
+            if (internalTypeName == null)
+                return classFileTransformer.transform(classLoader, null, classBeingRedefined, protectionDomain, classfileBuffer);
+
+            String key = null;
+            if (cachedTypes.contains(internalTypeName)) {
+                key = keyOf(classLoader, internalTypeName, classfileBuffer);
+                val cached = load(internalTypeName, key);
+                if (cached != null) {
+                    beforeServing.run();
+                    return cached;
+                }
+            }
+
+            // Nested class loads can happen while transforming, so the outer state must survive them.
+            val previousState = cacheableTransformation.get();
+            cacheableTransformation.set(null);
+            try {
+                val transformed = classFileTransformer.transform(classLoader, internalTypeName, classBeingRedefined, protectionDomain, classfileBuffer);
+                if (transformed != null && Boolean.TRUE.equals(cacheableTransformation.get())) {
+                    store(internalTypeName, (key != null) ? key : keyOf(classLoader, internalTypeName, classfileBuffer), transformed);
+                }
+                return transformed;
+            } finally {
+                cacheableTransformation.set(previousState);
+            }
+        }
+    }
+}
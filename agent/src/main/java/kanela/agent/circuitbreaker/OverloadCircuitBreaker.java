@@ -0,0 +1,137 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.circuitbreaker;
+
+import io.vavr.collection.List;
+import io.vavr.control.Try;
+import kanela.agent.broker.EventBroker;
+import kanela.agent.reinstrument.Reinstrumenter;
+import kanela.agent.util.NamedThreadFactory;
+import kanela.agent.util.annotation.Experimental;
+import kanela.agent.util.conf.KanelaConfiguration;
+import kanela.agent.util.conf.KanelaConfiguration.OverloadSignalsConfig;
+import kanela.agent.util.jvm.Jvm;
+import kanela.agent.util.log.Logger;
+import lombok.Value;
+import lombok.val;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static java.text.MessageFormat.format;
+
+/**
+ * Stops the stoppable modules when the JVM is overloaded, judging from signals that are sampled periodically rather
+ * than from Old GC events, so it works the same regardless of the collector.
+ *
+ * <p>Each signal is averaged over a sliding window of samples. The breaker trips when the average of any signal goes
+ * above its threshold (once the windows are full) and resets when the averages of all signals go below their
+ * threshold times the reset ratio.</p>
+ */
+@Experimental
+public class OverloadCircuitBreaker {
+    private final OverloadSignalsConfig config;
+    private final List<MonitoredSignal> signals;
+    private final EventBroker broker;
+    private volatile boolean tripped = false;
+
+    OverloadCircuitBreaker(OverloadSignalsConfig config, List<MonitoredSignal> signals, EventBroker broker) {
+        this.config = config;
+        this.signals = signals;
+        this.broker = broker;
+    }
+
+    public static void attach(KanelaConfiguration.CircuitBreakerConfig config) {
+        attach(config, Jvm.instance());
+    }
+
+    public static void attach(KanelaConfiguration.CircuitBreakerConfig config, Jvm jvm) {
+        if (config.isEnabled() && config.getSignals().isEnabled()) {
+            Try.of(() -> new OverloadCircuitBreaker(config.getSignals(), signalsFor(config.getSignals(), jvm), EventBroker.instance()))
+                    .andThen(OverloadCircuitBreaker::schedule)
+                    .andThen(circuitBreaker -> Logger.info(() -> format("Overload CircuitBreaker activated with signals {0}.", circuitBreaker.signals.map(MonitoredSignal::toString).mkString(", "))))
+                    .onFailure(cause -> Logger.error(() -> "Error when trying to activate Overload CircuitBreaker.", cause));
+        }
+    }
+
+    static List<MonitoredSignal> signalsFor(OverloadSignalsConfig config, Jvm jvm) {
+        return List.of(
+                    new MonitoredSignal(OverloadSignals.gcPausePercentage(jvm), config.getGcPausePercentage(), new SlidingWindow(config.getWindowSize())),
+                    new MonitoredSignal(OverloadSignals.allocationRateMegabytes(jvm), config.getAllocationRateMegabytes(), new SlidingWindow(config.getWindowSize())),
+                    new MonitoredSignal(OverloadSignals.processCpuPercentage(jvm), config.getProcessCpuPercentage(), new SlidingWindow(config.getWindowSize())),
+                    new MonitoredSignal(OverloadSignals.threadCount(jvm), config.getThreadCount(), new SlidingWindow(config.getWindowSize())))
+                .filter(signal -> signal.getThreshold() > 0);
+    }
+
+    public boolean isTripped() {
+        return tripped;
+    }
+
+    void evaluate() {
+        signals.forEach(MonitoredSignal::sample);
+
+        if (!tripped) {
+            signals.find(MonitoredSignal::isOverThreshold).forEach(signal -> {
+                Logger.warn(() -> format("Overload CircuitBreaker => {0} averaged {1} over the window, stopping modules.", signal.getName(), signal.average()));
+                tripped = true;
+                broker.publish(Reinstrumenter.ReinstrumentationProtocol.StopModules.instance());
+            });
+        } else if (signals.forAll(signal -> signal.isBelowReset(config.getResetRatio()))) {
+            Logger.info(() -> format("Overload CircuitBreaker => The System back to normal :) {0}.", signals.map(signal -> signal.getName() + "=" + signal.average()).mkString(", ")));
+            tripped = false;
+            broker.publish(Reinstrumenter.ReinstrumentationProtocol.RestartModules.instance());
+        }
+    }
+
+    private void schedule() {
+        Executors.newSingleThreadScheduledExecutor(NamedThreadFactory.instance("overload-circuit-breaker"))
+                .scheduleAtFixedRate(() -> Try.run(this::evaluate).onFailure(cause -> Logger.error(() -> "Error while sampling the overload signals.", cause)),
+                        config.getIntervalMillis(), config.getIntervalMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Value
+    static class MonitoredSignal {
+        OverloadSignal signal;
+        double threshold;
+        SlidingWindow window;
+
+        String getName() {
+            return signal.getName();
+        }
+
+        void sample() {
+            window.add(signal.sample());
+        }
+
+        double average() {
+            return window.average();
+        }
+
+        boolean isOverThreshold() {
+            return window.isFull() && window.average() > threshold;
+        }
+
+        boolean isBelowReset(double resetRatio) {
+            return window.average() <= threshold * resetRatio;
+        }
+
+        @Override
+        public String toString() {
+            return signal.getName() + " > " + threshold;
+        }
+    }
+}
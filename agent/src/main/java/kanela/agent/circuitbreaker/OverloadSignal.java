@@ -0,0 +1,30 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.circuitbreaker;
+
+/**
+ * A measurement of the load of the JVM that is sampled periodically by the {@link OverloadCircuitBreaker}.
+ */
+public interface OverloadSignal {
+
+    String getName();
+
+    /**
+     * Current value of the signal, which for accumulated measurements is the rate since the previous sample.
+     */
+    double sample();
+}
@@ -0,0 +1,95 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.circuitbreaker;
+
+import kanela.agent.util.jvm.Jvm;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+
+import java.util.function.LongSupplier;
+
+/**
+ * The signals available to the {@link OverloadCircuitBreaker}.
+ */
+public final class OverloadSignals {
+
+    private OverloadSignals() {}
+
+    /**
+     * Percentage of the wall clock time spent on collector pauses.
+     */
+    public static OverloadSignal gcPausePercentage(Jvm jvm) {
+        return new Rate("gc-pause-percentage", jvm::getGcPauseTimeMillis, 100.0 * 1_000_000);
+    }
+
+    /**
+     * Megabytes allocated per second by the live threads.
+     */
+    public static OverloadSignal allocationRateMegabytes(Jvm jvm) {
+        return new Rate("allocation-rate-megabytes", jvm::getAllocatedBytes, 1_000_000_000.0 / (1 << 20));
+    }
+
+    /**
+     * Percentage of the available processors used by the process.
+     */
+    public static OverloadSignal processCpuPercentage(Jvm jvm) {
+        return new Rate("process-cpu-percentage", jvm::getProcessCPUTime, 100.0 / jvm.getAvailableProcessors());
+    }
+
+    public static OverloadSignal threadCount(Jvm jvm) {
+        return new OverloadSignal() {
+            @Override
+            public String getName() {
+                return "thread-count";
+            }
+
+            @Override
+            public double sample() {
+                return jvm.getThreadCount();
+            }
+        };
+    }
+
+    /**
+     * Rate at which an accumulated measurement grows, scaled by a factor from units per nanosecond. Decreases of the
+     * measurement count as no growth.
+     */
+    @RequiredArgsConstructor
+    static final class Rate implements OverloadSignal {
+        private final String name;
+        private final LongSupplier accumulated;
+        private final double scale;
+        private long lastValue = -1L;
+        private long lastNanos;
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public double sample() {
+            val value = accumulated.getAsLong();
+            val nanos = System.nanoTime();
+            val growth = lastValue < 0 ? 0L : Math.max(value - lastValue, 0L);
+            val elapsedNanos = nanos - lastNanos;
+            lastValue = value;
+            lastNanos = nanos;
+            return elapsedNanos > 0 ? growth * scale / elapsedNanos : 0.0;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.circuitbreaker;
+
+/**
+ * Average of the latest samples of a signal.
+ */
+final class SlidingWindow {
+    private final double[] samples;
+    private int next = 0;
+    private int size = 0;
+    private double sum = 0.0;
+
+    SlidingWindow(int size) {
+        this.samples = new double[Math.max(size, 1)];
+    }
+
+    void add(double sample) {
+        if (size == samples.length) sum -= samples[next];
+        else size++;
+
+        samples[next] = sample;
+        sum += sample;
+        next = (next + 1) % samples.length;
+    }
+
+    boolean isFull() {
+        return size == samples.length;
+    }
+
+    double average() {
+        return size == 0 ? 0.0 : sum / size;
+    }
+}
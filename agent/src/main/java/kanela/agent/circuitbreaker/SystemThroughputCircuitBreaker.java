@@ -43,7 +43,8 @@ public class SystemThroughputCircuitBreaker {
     public static void attach(KanelaConfiguration.CircuitBreakerConfig config) { attach(config, Jvm.instance()); }
 
     public static void attach(KanelaConfiguration.CircuitBreakerConfig config, Jvm jvm) {
-        if(config.isEnabled()){
+        // The OverloadCircuitBreaker takes over when the signals are enabled.
+        if(config.isEnabled() && !config.getSignals().isEnabled()){
             Try.of(() -> new SystemThroughputCircuitBreaker(config, jvm))
                     .andThen(config::circuitBreakerRunning)
                     .andThen(() -> Logger.info(() -> "System Throughput CircuitBreaker activated."))
@@ -53,7 +54,8 @@ public class SystemThroughputCircuitBreaker {
         }
     }
 
-    @Subscribe
+    // Stopping the modules retransforms classes, which must not hold the JMX thread that delivers the GC notifications.
+    @Subscribe(async = true)
     public void onGCEvent(GcEvent event) {
         if((jvm.getGcCpuTimePercent(event) >= config.getGcProcessCPUThreshold()) && ((event.getPercentageFreeMemoryAfterGc() <= config.getFreeMemoryThreshold()))) {
             Logger.warn(() -> format("System Throughput Circuit BreakerCircuit => percentage of free memory {0} and  Process GC CPU time percentage {1}.", event.getPercentageFreeMemoryAfterGc(), jvm.getGcCpuTimePercent(event)));
@@ -0,0 +1,271 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.governor;
+
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+import kanela.agent.bootstrap.governor.AdviceCost;
+import kanela.agent.reinstrument.RetransformationJob;
+import kanela.agent.util.NamedThreadFactory;
+import kanela.agent.util.annotation.Experimental;
+import kanela.agent.util.conf.KanelaConfiguration.AdviceGovernorConfig;
+import kanela.agent.util.conf.KanelaConfiguration.ReinstrumentationConfig;
+import kanela.agent.util.jvm.Jvm;
+import kanela.agent.util.log.Logger;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.asm.Advice;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.dynamic.DynamicType;
+import net.bytebuddy.matcher.ElementMatcher;
+import net.bytebuddy.utility.JavaModule;
+
+import java.lang.instrument.Instrumentation;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static java.text.MessageFormat.format;
+import static net.bytebuddy.asm.Advice.ExceptionHandler;
+import static net.bytebuddy.matcher.ElementMatchers.isConstructor;
+import static net.bytebuddy.matcher.ElementMatchers.not;
+
+/**
+ * Keeps the time spent on advices within a budget of the CPU used by the process.
+ *
+ * <p>Every advisor is applied together with the {@link AdviceTiming} advices, which accumulate its cost. On each
+ * interval the governor compares the cost of all advisors against the process CPU time and, when over budget, removes
+ * the most expensive advisor by retransforming the classes it was applied on. Only one advisor is removed on every
+ * interval, and removed advisors are applied again (last removed first) when the current overhead plus the overhead
+ * the advisor had when removed fits within {@code restore-ratio} of the budget.</p>
+ *
+ * <p>The classes are retransformed in batches, as configured on {@code reinstrumentation}. Up to
+ * {@code max-tracked-types} type names are kept for each advisor, past that all loaded classes are retransformed.</p>
+ */
+@Experimental
+public class AdviceOverheadGovernor {
+    private static volatile Option<AdviceOverheadGovernor> current = Option.none();
+
+    private final AdviceGovernorConfig config;
+    private final ReinstrumentationConfig reinstrumentation;
+    private final Instrumentation instrumentation;
+    private final Jvm jvm;
+    private final List<GovernedAdvisor> advisors = new CopyOnWriteArrayList<>();
+    private final Deque<GovernedAdvisor> removed = new ArrayDeque<>();
+    private long lastProcessCpuNanos;
+
+    AdviceOverheadGovernor(AdviceGovernorConfig config, ReinstrumentationConfig reinstrumentation, Instrumentation instrumentation, Jvm jvm) {
+        this.config = config;
+        this.reinstrumentation = reinstrumentation;
+        this.instrumentation = instrumentation;
+        this.jvm = jvm;
+        this.lastProcessCpuNanos = jvm.getProcessCPUTime();
+    }
+
+    public static void attach(Instrumentation instrumentation, AdviceGovernorConfig config, ReinstrumentationConfig reinstrumentation) {
+        attach(instrumentation, config, reinstrumentation, Jvm.instance());
+    }
+
+    public static void attach(Instrumentation instrumentation, AdviceGovernorConfig config, ReinstrumentationConfig reinstrumentation, Jvm jvm) {
+        if (config.isEnabled()) {
+            Try.of(() -> new AdviceOverheadGovernor(config, reinstrumentation, instrumentation, jvm))
+                    .andThen(AdviceOverheadGovernor::schedule)
+                    .andThen(governor -> current = Option.of(governor))
+                    .andThen(() -> Logger.info(() -> format("Advice Governor activated with a budget of {0}% of the process CPU.", config.getBudgetPercentage())))
+                    .onFailure(cause -> Logger.error(() -> "Error when trying to activate the Advice Governor.", cause));
+        }
+    }
+
+    /**
+     * The governor attached to this JVM, if it is enabled.
+     */
+    public static Option<AdviceOverheadGovernor> current() {
+        return current;
+    }
+
+    /**
+     * Returns a transformer that applies the advisor surrounded by the timing advices, or leaves the types untouched
+     * while the advisor is removed.
+     */
+    public AgentBuilder.Transformer govern(String advisorName, ElementMatcher<? super MethodDescription> methodMatcher, ClassLoader classLoader, ExceptionHandler exceptionHandler) {
+        val advisor = new GovernedAdvisor(advisorName, AdviceCost.register(), config.getMaxTrackedTypes());
+        advisors.add(advisor);
+
+        val methods = not(isConstructor()).and(methodMatcher);
+        val constructors = isConstructor().and(methodMatcher);
+
+        // Entries are nested in the order they are added, the first one being the outermost.
+        val advice = new AgentBuilder.Transformer.ForAdvice(Advice.withCustomMapping().bind(AdviceTiming.AdvisorId.class, advisor.getId()))
+                .include(classLoader, AdviceTiming.class.getClassLoader())
+                .withExceptionHandler(exceptionHandler)
+                .advice(methods, AdviceTiming.Outer.class.getName())
+                .advice(constructors, AdviceTiming.OuterConstructor.class.getName())
+                .advice(methodMatcher, advisorName)
+                .advice(methods, AdviceTiming.Inner.class.getName())
+                .advice(constructors, AdviceTiming.InnerConstructor.class.getName());
+
+        return new GovernedTransformer(advisor, advice);
+    }
+
+    /**
+     * Whether the transformer applies a governed advisor, which means that the classes it transforms might need to be
+     * retransformed later on.
+     */
+    public static boolean isGoverned(AgentBuilder.Transformer transformer) {
+        return transformer instanceof GovernedTransformer;
+    }
+
+    /**
+     * Forgets all advisors, which happens when the modules are reloaded.
+     */
+    public synchronized void clear() {
+        advisors.clear();
+        removed.clear();
+    }
+
+    List<GovernedAdvisor> advisors() {
+        return advisors;
+    }
+
+    synchronized void evaluate() {
+        val processCpuNanos = jvm.getProcessCPUTime();
+        val elapsedCpuNanos = processCpuNanos - lastProcessCpuNanos;
+        lastProcessCpuNanos = processCpuNanos;
+
+        long adviceNanos = 0L;
+        GovernedAdvisor mostExpensive = null;
+        for (GovernedAdvisor advisor : advisors) {
+            val cost = advisor.sample();
+            adviceNanos += cost;
+            if (advisor.isEnabled() && cost > 0 && (mostExpensive == null || cost > mostExpensive.getLastCost())) mostExpensive = advisor;
+        }
+
+        if (elapsedCpuNanos <= 0) return;
+        val overhead = percentage(adviceNanos, elapsedCpuNanos);
+
+        if (overhead > config.getBudgetPercentage() && mostExpensive != null) {
+            val advisor = mostExpensive;
+            advisor.remove(percentage(advisor.getLastCost(), elapsedCpuNanos));
+            removed.push(advisor);
+            Logger.warn(() -> format("Advice Governor => advices took {0}% of the process CPU, removing {1} which took {2}%.", overhead, advisor.getName(), advisor.getOverheadWhenRemoved()));
+            retransform(advisor);
+        } else if (!removed.isEmpty() && overhead + removed.peek().getOverheadWhenRemoved() < config.getBudgetPercentage() * config.getRestoreRatio()) {
+            val advisor = removed.pop();
+            advisor.restore();
+            Logger.info(() -> format("Advice Governor => advices took {0}% of the process CPU, applying {1} again.", overhead, advisor.getName()));
+            retransform(advisor);
+        }
+    }
+
+    private void schedule() {
+        Executors.newSingleThreadScheduledExecutor(NamedThreadFactory.instance("advice-governor"))
+                .scheduleAtFixedRate(() -> Try.run(this::evaluate).onFailure(cause -> Logger.error(() -> "Error while evaluating the advices overhead.", cause)),
+                        config.getIntervalMillis(), config.getIntervalMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    // Only transformers registered with retransformation enabled take part, which is why the modules with governed
+    // advisors are installed with the RETRANSFORMATION strategy.
+    private void retransform(GovernedAdvisor advisor) {
+        val classes = Arrays.stream(instrumentation.getAllLoadedClasses())
+                .filter(type -> advisor.mayHaveAdvised(type.getName()) && instrumentation.isModifiableClass(type))
+                .collect(Collectors.toList());
+
+        if (classes.isEmpty()) return;
+        val job = new RetransformationJob(format("Advice Governor => retransforming the classes advised by {0}", advisor.getName()), reinstrumentation);
+        job.run(Collections.singletonList(() -> job.retransform(instrumentation, classes)));
+    }
+
+    private static double percentage(long nanos, long totalNanos) {
+        return nanos * 100.0 / totalNanos;
+    }
+
+    @RequiredArgsConstructor
+    private static class GovernedTransformer implements AgentBuilder.Transformer {
+        private final GovernedAdvisor advisor;
+        private final AgentBuilder.Transformer advice;
+
+        @Override
+        public DynamicType.Builder<?> transform(DynamicType.Builder<?> builder, TypeDescription typeDescription, ClassLoader classLoader, JavaModule module) {
+            advisor.track(typeDescription.getName());
+            return advisor.isEnabled() ? advice.transform(builder, typeDescription, classLoader, module) : builder;
+        }
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    static class GovernedAdvisor {
+        private final String name;
+        private final int id;
+        @Getter(AccessLevel.NONE)
+        private final int maxTrackedTypes;
+        private final Set<String> types = ConcurrentHashMap.newKeySet();
+        private volatile boolean tracksAllTypes = false;
+        private volatile boolean enabled = true;
+        private long lastNanos;
+        private long lastCost;
+        private double overheadWhenRemoved;
+
+        /**
+         * Keeps the name of a type the advisor was applied on, until there are too many of them to keep.
+         */
+        void track(String typeName) {
+            if (tracksAllTypes || types.contains(typeName)) return;
+            if (types.size() < maxTrackedTypes) {
+                types.add(typeName);
+            } else {
+                tracksAllTypes = true;
+                types.clear();
+                Logger.info(() -> format("Advice Governor => {0} was applied on more than {1} types, all loaded classes will be retransformed when it is removed or applied again.", name, maxTrackedTypes));
+            }
+        }
+
+        boolean mayHaveAdvised(String typeName) {
+            return tracksAllTypes || types.contains(typeName);
+        }
+
+        /**
+         * Returns the time spent on the advisor since the previous sample.
+         */
+        long sample() {
+            val nanos = AdviceCost.nanos(id);
+            lastCost = nanos - lastNanos;
+            lastNanos = nanos;
+            return lastCost;
+        }
+
+        void remove(double overhead) {
+            overheadWhenRemoved = overhead;
+            enabled = false;
+        }
+
+        void restore() {
+            enabled = true;
+        }
+    }
+}
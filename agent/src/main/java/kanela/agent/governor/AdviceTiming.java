@@ -0,0 +1,89 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.governor;
+
+import kanela.agent.bootstrap.governor.AdviceCost;
+import net.bytebuddy.asm.Advice;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Advices that measure the cost of the advisor they surround into {@link AdviceCost}. Exceptions can not be caught
+ * around a constructor call, so constructors get their own variants that are not applied when the constructor throws.
+ */
+public final class AdviceTiming {
+
+    private AdviceTiming() {}
+
+    /**
+     * Bound to the id under which the cost of the surrounded advisor is accumulated.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.PARAMETER)
+    public @interface AdvisorId {}
+
+    public static class Outer {
+        @Advice.OnMethodEnter
+        public static long enter() {
+            return AdviceCost.start();
+        }
+
+        @Advice.OnMethodExit(onThrowable = Throwable.class)
+        public static void exit(@AdvisorId int advisorId, @Advice.Enter long start) {
+            AdviceCost.record(advisorId, start);
+        }
+    }
+
+    public static class Inner {
+        @Advice.OnMethodEnter
+        public static long enter() {
+            return System.nanoTime();
+        }
+
+        @Advice.OnMethodExit(onThrowable = Throwable.class)
+        public static void exit(@Advice.Enter long start) {
+            AdviceCost.bodyCompleted(start);
+        }
+    }
+
+    public static class OuterConstructor {
+        @Advice.OnMethodEnter
+        public static long enter() {
+            return AdviceCost.start();
+        }
+
+        @Advice.OnMethodExit
+        public static void exit(@AdvisorId int advisorId, @Advice.Enter long start) {
+            AdviceCost.record(advisorId, start);
+        }
+    }
+
+    public static class InnerConstructor {
+        @Advice.OnMethodEnter
+        public static long enter() {
+            return System.nanoTime();
+        }
+
+        @Advice.OnMethodExit
+        public static void exit(@Advice.Enter long start) {
+            AdviceCost.bodyCompleted(start);
+        }
+    }
+}
@@ -18,17 +18,21 @@
 package kanela.agent.reinstrument;
 
 import io.vavr.collection.List;
+import io.vavr.control.Option;
 import io.vavr.control.Try;
 import kanela.agent.api.instrumentation.listener.InstrumentationRegistryListener;
 import kanela.agent.broker.EventBroker;
 import kanela.agent.broker.Subscribe;
 import kanela.agent.builder.KanelaFileTransformer;
+import kanela.agent.util.NamedThreadFactory;
 import kanela.agent.util.annotation.Experimental;
 import kanela.agent.util.conf.KanelaConfiguration;
 import kanela.agent.util.log.Logger;
-import net.bytebuddy.agent.builder.AgentBuilder;
 
 import java.lang.instrument.Instrumentation;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
 
 import static java.text.MessageFormat.format;
 
@@ -38,6 +42,10 @@ import lombok.val;
 @Value
 @Experimental
 public class Reinstrumenter {
+    // Only one job runs at a time, so a restart waits for a stop that is still retransforming classes.
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(NamedThreadFactory.instance("reinstrumenter"));
+    private static volatile Option<RetransformationJob> latestJob = Option.none();
+
     Instrumentation instrumentation;
     KanelaConfiguration configuration;
     List<KanelaFileTransformer> transformers;
@@ -50,23 +58,38 @@ public class Reinstrumenter {
                 .onFailure((cause) -> Logger.error(() -> format("Error when trying to activate Reinstrumenter."), cause));
     }
 
+    /**
+     * The job that is retransforming classes or the last one that did, which allows following its progress. It is
+     * exposed on JMX by the instrumentation registry MXBean.
+     */
+    public static Option<RetransformationJob> latestJob() {
+        return latestJob;
+    }
+
     @Subscribe
     public void onStopModules(ReinstrumentationProtocol.StopModules stopEvent) {
         Logger.warn(() -> "Trying to stop modules.....");
-        val stoppables = this.transformers.filter(KanelaFileTransformer::isStoppable)
-                                          .map(KanelaFileTransformer::getClassFileTransformer)
-                                          .map(transformer -> transformer.reset(this.instrumentation, AgentBuilder.RedefinitionStrategy.RETRANSFORMATION));
-
-        if(stoppables.forAll(s -> s.equals(true))) Logger.warn(() -> "All modules are been stopped.");
-        else Logger.warn(() -> "Error trying stop some modules.");
+        submit("Stopping modules", transformer -> () -> {
+            val reset = transformer.stop(RetransformationJob.batchAllocator(configuration.getReinstrumentation()));
+            if (!reset) Logger.warn(() -> format("Error trying to stop module {0}.", transformer));
+        });
     }
 
     @Subscribe
     public void onRestartModules(ReinstrumentationProtocol.RestartModules restartEvent) {
         Logger.warn(() -> "Trying to reapply the removed transformations...");
-        this.transformers.filter(KanelaFileTransformer::isStoppable)
-                         .map(KanelaFileTransformer::getAgentBuilder)
-                         .forEach(transformer -> transformer.installOn(this.instrumentation));
+        submit("Restarting modules", transformer -> transformer::reinstall);
+    }
+
+    private void submit(String name, Function<KanelaFileTransformer, Runnable> retransformation) {
+        val job = new RetransformationJob(name, configuration.getReinstrumentation());
+        val modules = this.transformers.filter(KanelaFileTransformer::isStoppable).map(retransformation).toJavaList();
+
+        executor.execute(() -> {
+            latestJob = Option.of(job);
+            Try.run(() -> job.run(modules))
+               .onFailure(cause -> Logger.error(() -> format("Error while {0}.", name.toLowerCase()), cause));
+        });
     }
 
     public interface ReinstrumentationProtocol {
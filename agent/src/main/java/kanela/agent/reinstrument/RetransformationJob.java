@@ -0,0 +1,182 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.reinstrument;
+
+import io.vavr.control.Try;
+import kanela.agent.util.conf.KanelaConfiguration.ReinstrumentationConfig;
+import kanela.agent.util.log.Logger;
+import lombok.Value;
+import lombok.val;
+import net.bytebuddy.agent.builder.AgentBuilder.RedefinitionStrategy;
+
+import java.lang.instrument.Instrumentation;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.text.MessageFormat.format;
+
+/**
+ * Retransformation of the classes of several modules, done in batches of {@code batch-size} classes with a pause of
+ * {@code pause-between-batches} between them so that stopping or restarting modules does not stall the application on
+ * a single long safepoint.
+ *
+ * <p>Modules are installed with a {@link RedefinitionStrategy.BatchAllocator} of the configured size and the
+ * {@link Forwarding} listener, which reports to the job that is running on the current thread (if any). That way the
+ * same batching and progress tracking apply when resetting a module and when installing it again.</p>
+ */
+@Value
+public class RetransformationJob implements RedefinitionStrategy.Listener {
+    private static final ThreadLocal<RetransformationJob> Current = new ThreadLocal<>();
+
+    String name;
+    ReinstrumentationConfig config;
+    AtomicBoolean running = new AtomicBoolean();
+    AtomicInteger completedModules = new AtomicInteger();
+    AtomicInteger discoveredClasses = new AtomicInteger();
+    AtomicInteger submittedClasses = new AtomicInteger();
+    AtomicInteger failedClasses = new AtomicInteger();
+    AtomicInteger batches = new AtomicInteger();
+
+    public static RedefinitionStrategy.BatchAllocator batchAllocator(ReinstrumentationConfig config) {
+        return RedefinitionStrategy.BatchAllocator.ForFixedSize.ofSize(config.getBatchSize());
+    }
+
+    /**
+     * Runs the retransformation of each module on the current thread, reporting all of them to this job.
+     */
+    public void run(List<Runnable> modules) {
+        Current.set(this);
+        running.set(true);
+        try {
+            for (Runnable module : modules) {
+                module.run();
+                completedModules.incrementAndGet();
+            }
+        } finally {
+            running.set(false);
+            Current.remove();
+        }
+        Logger.info(() -> format("{0} completed => {1}", name, getProgress()));
+    }
+
+    /**
+     * Retransforms the classes in batches of the configured size, for retransformations that are not driven by an
+     * installed module (e.g. when the advice governor removes an advisor).
+     */
+    public void retransform(Instrumentation instrumentation, List<Class<?>> classes) {
+        int index = 0;
+        for (List<Class<?>> batch : batchAllocator(config).batch(classes)) {
+            val batchIndex = index++;
+            onBatch(batchIndex, batch, classes);
+            Try.run(() -> instrumentation.retransformClasses(batch.toArray(new Class<?>[0])))
+               .onFailure(cause -> onError(batchIndex, batch, cause, classes));
+        }
+        onComplete(index, classes, Collections.emptyMap());
+    }
+
+    public Progress getProgress() {
+        return new Progress(completedModules.get(), discoveredClasses.get(), submittedClasses.get(), failedClasses.get(), batches.get());
+    }
+
+    /**
+     * Adds the state of the job to the provided map, encoded with JDK-only types:
+     *
+     *   - name: What the job does, e.g. "Stopping modules".
+     *   - running: Whether the job is still retransforming classes.
+     *   - completedModules, discoveredClasses, submittedClasses, failedClasses and batches: See {@link Progress}.
+     */
+    public void shareInto(Map<String, String> info) {
+        val progress = getProgress();
+        info.put("name", name);
+        info.put("running", String.valueOf(running.get()));
+        info.put("completedModules", String.valueOf(progress.getCompletedModules()));
+        info.put("discoveredClasses", String.valueOf(progress.getDiscoveredClasses()));
+        info.put("submittedClasses", String.valueOf(progress.getSubmittedClasses()));
+        info.put("failedClasses", String.valueOf(progress.getFailedClasses()));
+        info.put("batches", String.valueOf(progress.getBatches()));
+    }
+
+    @Override
+    public void onBatch(int index, List<Class<?>> batch, List<Class<?>> types) {
+        if (index == 0) discoveredClasses.addAndGet(types.size());
+        else pause();
+        batches.incrementAndGet();
+        submittedClasses.addAndGet(batch.size());
+        Logger.debug(() -> format("{0} => submitted a batch of {1} classes, {2}", name, batch.size(), getProgress()));
+    }
+
+    @Override
+    public Iterable<? extends List<Class<?>>> onError(int index, List<Class<?>> batch, Throwable throwable, List<Class<?>> types) {
+        failedClasses.addAndGet(batch.size());
+        Logger.warn(() -> format("{0} => unable to retransform a batch of {1} classes.", name, batch.size()), throwable);
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void onComplete(int amount, List<Class<?>> types, Map<List<Class<?>>, Throwable> failures) {
+        Logger.debug(() -> format("{0} => retransformed {1} classes of a module in {2} batches.", name, types.size(), amount));
+    }
+
+    private void pause() {
+        val pauseMillis = config.getPauseBetweenBatchesMillis();
+        if (pauseMillis <= 0) return;
+        try {
+            Thread.sleep(pauseMillis);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    @Value
+    public static class Progress {
+        int completedModules;
+        int discoveredClasses;
+        int submittedClasses;
+        int failedClasses;
+        int batches;
+    }
+
+    /**
+     * Reports to the job running on the current thread, while retransformations that are not part of a job (e.g. when
+     * a module is attached at runtime) are neither paused nor tracked.
+     */
+    public enum Forwarding implements RedefinitionStrategy.Listener {
+        INSTANCE;
+
+        @Override
+        public void onBatch(int index, List<Class<?>> batch, List<Class<?>> types) {
+            val job = Current.get();
+            if (job != null) job.onBatch(index, batch, types);
+        }
+
+        @Override
+        public Iterable<? extends List<Class<?>>> onError(int index, List<Class<?>> batch, Throwable throwable, List<Class<?>> types) {
+            val job = Current.get();
+            return job != null ? job.onError(index, batch, throwable, types) : Collections.emptyList();
+        }
+
+        @Override
+        public void onComplete(int amount, List<Class<?>> types, Map<List<Class<?>>, Throwable> failures) {
+            val job = Current.get();
+            if (job != null) job.onComplete(amount, types, failures);
+        }
+    }
+}
@@ -17,20 +17,31 @@
 package kanela.agent.util;
 
 import io.vavr.control.Try;
+import kanela.agent.util.conf.KanelaConfiguration.ModuleConfiguration;
 import kanela.agent.util.log.Logger;
 import lombok.Value;
 import lombok.val;
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.description.type.TypeDescription;
 import net.bytebuddy.dynamic.ClassFileLocator;
+import net.bytebuddy.dynamic.DynamicType;
 import net.bytebuddy.dynamic.loading.ClassInjector;
+import net.bytebuddy.utility.JavaModule;
 
 import java.io.File;
 import java.lang.instrument.Instrumentation;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
+import static java.text.MessageFormat.format;
+
 @Value
 public class BootstrapInjector {
+    private static final Set<String> injectedClassNames = ConcurrentHashMap.newKeySet();
 
     public static void injectJar(Instrumentation instrumentation, String jarName) {
         val jarFile = Jar.getEmbeddedJar(jarName + ".jar")
@@ -40,19 +51,74 @@ public class BootstrapInjector {
         instrumentation.appendToBootstrapClassLoaderSearch(jarFile);
     }
 
-    public static void inject(File folder, Instrumentation instrumentation, List<String>  allClasses) {
+    /**
+     * @deprecated the folder is not used, use {@link #inject(Instrumentation, List)} instead.
+     */
+    @Deprecated
+    public static void inject(File folder, Instrumentation instrumentation, List<String> allClasses) {
+        inject(instrumentation, allClasses);
+    }
+
+    /**
+     * Injects the classes into the bootstrap class loader on a single batch, skipping the ones that were already
+     * injected (e.g. helpers shared by several modules).
+     */
+    public static synchronized void inject(Instrumentation instrumentation, List<String> allClasses) {
+        val pendingClasses = allClasses.stream().filter(className -> !injectedClassNames.contains(className)).distinct().collect(Collectors.toList());
+        if (pendingClasses.isEmpty()) return;
+
         ClassInjector.UsingUnsafe.Factory.resolve(instrumentation)
                 .make(null, null)
-                .injectRaw(getTypeDefinitions(allClasses));
+                .injectRaw(getTypeDefinitions(pendingClasses));
+
+        injectedClassNames.addAll(pendingClasses);
+    }
+
+    /**
+     * Returns the injection of the module's helper classes, which only injects them the first time it is used so they
+     * are only injected when the module is actually applied. It must run before any other transformer of the module.
+     */
+    public static HelperInjection helperInjectionFor(ModuleConfiguration moduleConfiguration, Instrumentation instrumentation) {
+        return new HelperInjection(moduleConfiguration.getName(), moduleConfiguration.getBootstrapInjectionConfig().getHelperClassNames().toJavaList(), helperClassNames -> inject(instrumentation, helperClassNames));
     }
 
     private static Map<String, byte[]> getTypeDefinitions(List<String> helperClassNames)  {
-        return helperClassNames.stream().collect(Collectors.toMap(k -> k, BootstrapInjector::getClassBytes));
+        val classFileLocator = ClassFileLocator.ForClassLoader.of(ClassLoader.getSystemClassLoader());
+        return helperClassNames.stream().collect(Collectors.toMap(k -> k, className -> getClassBytes(classFileLocator, className)));
     }
 
-    private static byte[] getClassBytes(String className)  {
-        return Try.of(() -> ClassFileLocator.ForClassLoader.of(ClassLoader.getSystemClassLoader()).locate(className).resolve())
+    private static byte[] getClassBytes(ClassFileLocator classFileLocator, String className)  {
+        return Try.of(() -> classFileLocator.locate(className).resolve())
                 .onFailure(error -> Logger.error(error::getMessage, error))
                 .getOrElseThrow((cause) -> new RuntimeException("Could not locate class: " + className));
     }
+
+    public static class HelperInjection implements AgentBuilder.Transformer {
+        private final String moduleName;
+        private final List<String> helperClassNames;
+        private final Consumer<List<String>> injector;
+        private volatile boolean injected = false;
+
+        HelperInjection(String moduleName, List<String> helperClassNames, Consumer<List<String>> injector) {
+            this.moduleName = moduleName;
+            this.helperClassNames = helperClassNames;
+            this.injector = injector;
+        }
+
+        public void inject() {
+            if (injected) return;
+            synchronized (this) {
+                if (injected) return;
+                Logger.debug(() -> format("Injecting {0} helper classes into the bootstrap class loader for: {1}", helperClassNames.size(), moduleName));
+                injector.accept(helperClassNames);
+                injected = true;
+            }
+        }
+
+        @Override
+        public DynamicType.Builder<?> transform(DynamicType.Builder<?> builder, TypeDescription typeDescription, ClassLoader classLoader, JavaModule module) {
+            inject();
+            return builder;
+        }
+    }
 }
@@ -16,8 +16,10 @@
 
 package kanela.agent.util;
 
+import io.vavr.control.Try;
 import kanela.agent.util.log.Logger;
 import lombok.Value;
+import lombok.val;
 
 import java.net.URL;
 import java.util.List;
@@ -31,13 +33,27 @@ public class BuiltInModuleLoader {
     private static final Pattern filterScalaPattern = Pattern.compile(".*_[0-9]\\.[0-9]+\\.jar");
 
     public static URL[] findModules() {
-        return Jar.searchWith(instrumentationPattern)
+        return listModules()
                 .map(BuiltInModuleLoader::collectAll)
                 .map(BuiltInModuleLoader::urlsToJars)
                 .onFailure((cause) -> Logger.error(() -> "Error when trying to Load build-in instrumentation modules.", cause))
                 .getOrElse(new URL[]{});
     }
 
+    /**
+     * The modules listed on the embedded jars index, falling back to scanning the agent jar when the index does not list
+     * any (e.g. when the instrumentations were bundled after the agent jar was built).
+     */
+    private static Try<List<String>> listModules() {
+        val indexed = Jar.indexedEmbeddedJars().stream()
+                .filter(name -> instrumentationPattern.matcher(name).matches())
+                .sorted()
+                .collect(Collectors.toList());
+
+        if (indexed.isEmpty()) return Jar.searchWith(instrumentationPattern);
+        return Try.success(indexed);
+    }
+
     private static URL[] urlsToJars(List<String> urls) {
         return io.vavr.collection.List.ofAll(urls)
                 .map(url -> Jar.getEmbeddedFile("/" + url))
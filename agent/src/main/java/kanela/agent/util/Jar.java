@@ -16,39 +16,305 @@
 
 package kanela.agent.util;
 
+import io.vavr.Lazy;
 import io.vavr.control.Try;
 import kanela.agent.Kanela;
+import kanela.agent.util.log.Logger;
 import lombok.Value;
 import lombok.val;
 
-import java.io.File;
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import static java.text.MessageFormat.format;
+
+/**
+ * Embedded jars (bootstrap.jar and the built-in instrumentation modules) are extracted into a directory named after the
+ * SHA-256 of their contents under {@code kanela.extraction-dir} (by default "kanela-agent/jars" in the user's home), so
+ * later starts of the same agent reuse them once their hash is verified. The build writes the hashes of all embedded
+ * jars to {@code kanela/agent/embedded-jars.index}, which allows finding the extracted copy without reading the jar out
+ * of the agent first.
+ *
+ * The hash is only computed when a jar is extracted. A marker with the size and modification time of the copy is then
+ * written next to it, so later starts only compare those against the file, and hash the copy (memory-mapped) again only
+ * when they differ.
+ *
+ * The extracted jars end up on the bootstrap class path, so the extraction directory must only be writable by the
+ * current user: it is created owner-only and, when it is owned by someone else, the jars are extracted into a private
+ * temporary directory instead. Every JVM holds a shared lock on the extractions it uses until it exits. Extractions
+ * that were not used for a week are removed, unless the index points to them or another JVM holds their lock.
+ */
 @Value
 public class Jar {
+    private static final String EmbeddedJarsIndex = "kanela/agent/embedded-jars.index";
+    private static final Set<PosixFilePermission> OwnerOnly = PosixFilePermissions.fromString("rwx------");
+    private static final Pattern HashDirectoryName = Pattern.compile("[0-9a-f]{64}");
+    private static final long StaleAfterMillis = TimeUnit.DAYS.toMillis(7);
+    private static final String LockFileName = ".lock";
+    private static final String VerifiedSuffix = ".verified";
+    // Never released, the locks tell other JVMs that the extractions are in use until this one exits.
+    private static final Map<Path, FileLock> extractionsInUse = new ConcurrentHashMap<>();
+    private static final Lazy<Map<String, String>> embeddedJarHashes = Lazy.of(Jar::readEmbeddedJarsIndex);
+    private static final Lazy<Path> extractionDirectory = Lazy.of(Jar::openExtractionDirectory);
 
     public static Try<JarFile> getEmbeddedJar(String jarName) {
         return getEmbeddedFile(jarName).mapTry(file -> new JarFile(file.getFile()));
     }
 
+    /**
+     * Returns the location of the extracted copy of a jar embedded in the agent, extracting it if no verified copy
+     * exists yet. Names without a leading slash are relative to the kanela/agent package.
+     */
     public static Try<URL> getEmbeddedFile(String jarName) {
-        return Try.of(() -> {
-            val tempFile = File.createTempFile(jarName, ".jar");
-            tempFile.deleteOnExit();
-            val resourceAsStream = Kanela.class.getResourceAsStream(jarName);
-            Files.copy(resourceAsStream, tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-            return tempFile.toURI().toURL();
+        return Try.of(() -> extract(jarName.startsWith("/") ? jarName.substring(1) : "kanela/agent/" + jarName).toUri().toURL());
+    }
+
+    /**
+     * Resource names of the embedded jars listed on the index, empty when the agent was built without an index.
+     */
+    public static Set<String> indexedEmbeddedJars() {
+        return embeddedJarHashes.get().keySet();
+    }
+
+    private static Path extract(String resourceName) throws IOException {
+        return extract(resourceName, embeddedJarHashes.get(), extractionDirectory.get());
+    }
+
+    /**
+     * Extracts the resource into a directory named after its hash, unless a verified copy is already there. The hash on
+     * the index is trusted to find the copy, which is used as long as it has the size and modification time recorded
+     * when it was verified.
+     */
+    static Path extract(String resourceName, Map<String, String> index, Path directory) throws IOException {
+        val fileName = Paths.get(resourceName).getFileName().toString();
+
+        val indexedHash = index.get(resourceName);
+        if (indexedHash != null && Files.isDirectory(directory.resolve(indexedHash), LinkOption.NOFOLLOW_LINKS)) {
+            val extracted = directory.resolve(indexedHash).resolve(fileName);
+            markInUse(extracted.getParent());
+            if (isVerified(extracted, indexedHash)) return touched(extracted);
+        }
+
+        // The resource is hashed while it is copied aside, so it is read once and never held in memory.
+        Files.createDirectories(directory);
+        val temporaryFile = Files.createTempFile(directory, fileName, ".tmp");
+        try {
+            val hash = copyResource(resourceName, temporaryFile);
+            val extracted = directory.resolve(hash).resolve(fileName);
+            Files.createDirectories(extracted.getParent());
+            markInUse(extracted.getParent());
+            if (!isVerified(extracted, hash)) {
+                // Several JVMs might be extracting the same jar at once, so the copy is moved into place.
+                Files.move(temporaryFile, extracted, StandardCopyOption.ATOMIC_MOVE);
+                markVerified(extracted);
+            }
+            return touched(extracted);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    private static Path openExtractionDirectory() {
+        val defaultDirectory = Paths.get(System.getProperty("user.home"), "kanela-agent", "jars").toString();
+        val directory = Paths.get(System.getProperty("kanela.extraction-dir", defaultDirectory));
+
+        return Try.of(() -> ownerOnlyDirectory(directory))
+                  .andThen(extractions -> removeStaleExtractions(extractions, new HashSet<>(embeddedJarHashes.get().values())))
+                  .recoverWith(cause -> Try.of(() -> {
+                      Logger.warn(() -> format("Unable to use {0} to extract the embedded jars, using a temporary directory instead: {1}", directory, cause.getMessage()));
+                      return supportsPosix(directory.getFileSystem())
+                          ? Files.createTempDirectory("kanela-agent", PosixFilePermissions.asFileAttribute(OwnerOnly))
+                          : Files.createTempDirectory("kanela-agent");
+                  }))
+                  .get();
+    }
+
+    /**
+     * Creates the directory (and any missing parent) readable and writable by the current user only, failing when it
+     * already exists and belongs to another user. Only checked on file systems with POSIX permissions.
+     */
+    static Path ownerOnlyDirectory(Path directory) throws IOException {
+        if (!supportsPosix(directory.getFileSystem())) return Files.createDirectories(directory);
+
+        Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(OwnerOnly));
+        val currentUser = directory.getFileSystem().getUserPrincipalLookupService().lookupPrincipalByName(System.getProperty("user.name"));
+        if (Files.isSymbolicLink(directory) || !Files.getOwner(directory, LinkOption.NOFOLLOW_LINKS).equals(currentUser))
+            throw new IOException(format("{0} is not owned by {1}", directory, currentUser.getName()));
+
+        if (!Files.getPosixFilePermissions(directory, LinkOption.NOFOLLOW_LINKS).equals(OwnerOnly))
+            Files.setPosixFilePermissions(directory, OwnerOnly);
+        return directory;
+    }
+
+    /**
+     * Removes the extractions that were not used for a while, which belong to agent versions that are no longer used.
+     * The extractions of the current index and the ones locked by any JVM are kept.
+     */
+    static void removeStaleExtractions(Path directory, Set<String> currentHashes) {
+        val staleBefore = System.currentTimeMillis() - StaleAfterMillis;
+        Try.run(() -> {
+            try (Stream<Path> extractions = Files.list(directory)) {
+                extractions
+                    .filter(extraction -> HashDirectoryName.matcher(extraction.getFileName().toString()).matches())
+                    .filter(extraction -> !currentHashes.contains(extraction.getFileName().toString()) && !extractionsInUse.containsKey(extraction))
+                    .filter(extraction -> Try.of(() -> Files.getLastModifiedTime(extraction).toMillis() < staleBefore).getOrElse(false))
+                    .forEach(Jar::deleteUnlessLocked);
+            }
         });
     }
 
+    // Deleted while holding the lock, so a JVM waiting to use the extraction finds it gone and extracts it again.
+    private static void deleteUnlessLocked(Path directory) {
+        Try.run(() -> {
+            try (FileChannel channel = FileChannel.open(directory.resolve(LockFileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock lock = channel.tryLock()) {
+                if (lock == null) return;
+                try (Stream<Path> files = Files.walk(directory)) {
+                    files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+                }
+            }
+        }).onFailure(cause -> Logger.debug(() -> "Unable to remove the stale extraction on: " + directory));
+    }
+
+    /**
+     * Takes a shared lock on the extraction, kept until the JVM exits. Failing to lock does not prevent using the
+     * extraction, it only leaves it unprotected from the removal of stale extractions.
+     */
+    private static synchronized void markInUse(Path extraction) {
+        if (extractionsInUse.containsKey(extraction)) return;
+        Try.run(() -> {
+            val lockFile = extraction.resolve(LockFileName);
+            for (int attempt = 0; attempt < 3; attempt++) {
+                Files.createDirectories(extraction);
+                val channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                val lock = channel.lock(0, Long.MAX_VALUE, true);
+                // Another JVM might have removed the extraction while this one was waiting for the lock.
+                if (Files.exists(lockFile, LinkOption.NOFOLLOW_LINKS)) {
+                    extractionsInUse.put(extraction, lock);
+                    return;
+                }
+                channel.close();
+            }
+        }).onFailure(cause -> Logger.debug(() -> format("Unable to lock the extraction on {0}: {1}", extraction, cause.getMessage())));
+    }
+
+    private static boolean supportsPosix(FileSystem fileSystem) {
+        return fileSystem.supportedFileAttributeViews().contains("posix");
+    }
+
+    // The directory of every extraction is touched whenever it is used, so that only the unused ones become stale.
+    private static Path touched(Path extracted) {
+        Try.run(() -> Files.setLastModifiedTime(extracted.getParent(), FileTime.fromMillis(System.currentTimeMillis())));
+        return extracted;
+    }
+
+    /**
+     * Whether the file is the extracted copy with the provided hash. The copy is only hashed again when its size or
+     * modification time changed since it was verified.
+     */
+    private static boolean isVerified(Path file, String hash) throws IOException {
+        if (!Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)) return false;
+        if (verificationOf(file).equals(readVerification(file))) return true;
+        if (!hasHash(file, hash)) return false;
+        markVerified(file);
+        return true;
+    }
+
+    private static boolean hasHash(Path file, String hash) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            val digest = newDigest();
+            digest.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            return toHex(digest.digest()).equals(hash);
+        }
+    }
+
+    private static String verificationOf(Path file) throws IOException {
+        return Files.size(file) + " " + Files.getLastModifiedTime(file, LinkOption.NOFOLLOW_LINKS).toMillis();
+    }
+
+    private static String readVerification(Path file) {
+        return Try.of(() -> new String(Files.readAllBytes(verificationMarkerOf(file)), StandardCharsets.UTF_8)).getOrElse("");
+    }
+
+    // Written aside and moved into place, so that a marker is never seen half written.
+    private static void markVerified(Path file) throws IOException {
+        val temporaryFile = Files.createTempFile(file.getParent(), null, ".tmp");
+        try {
+            Files.write(temporaryFile, verificationOf(file).getBytes(StandardCharsets.UTF_8));
+            Files.move(temporaryFile, verificationMarkerOf(file), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    private static Path verificationMarkerOf(Path file) {
+        return file.resolveSibling(file.getFileName() + VerifiedSuffix);
+    }
+
+    private static String copyResource(String resourceName, Path target) throws IOException {
+        val digest = newDigest();
+        try (InputStream in = Kanela.class.getResourceAsStream("/" + resourceName)) {
+            if (in == null) throw new FileNotFoundException("Embedded jar not found: " + resourceName);
+            Files.copy(new DigestInputStream(in, digest), target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return toHex(digest.digest());
+    }
+
+    private static Map<String, String> readEmbeddedJarsIndex() {
+        val hashes = new HashMap<String, String>();
+        Try.run(() -> {
+            try (InputStream in = Kanela.class.getResourceAsStream("/" + EmbeddedJarsIndex)) {
+                if (in == null) return;
+                val reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    val separator = line.indexOf(' ');
+                    if (line.startsWith("#") || separator < 0) continue;
+                    hashes.put(line.substring(separator + 1).trim(), line.substring(0, separator));
+                }
+            }
+        });
+        return Collections.unmodifiableMap(hashes);
+    }
+
+    private static MessageDigest newDigest() {
+        return Try.of(() -> MessageDigest.getInstance("SHA-256"))
+                  .getOrElseThrow((cause) -> new RuntimeException("SHA-256 is not available on this JVM", cause));
+    }
+
+    private static String toHex(byte[] digest) {
+        val hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return hex.toString();
+    }
+
     public static Try<List<ExtensionJar>> fromString(String arguments) {
         return stringToMap(arguments)
                 .mapTry(map -> map.entrySet()
@@ -16,28 +16,16 @@
 
 package kanela.agent.util.classloader;
 
-import io.vavr.Tuple;
-import io.vavr.collection.Array;
-import io.vavr.collection.List;
 import io.vavr.control.Option;
-import io.vavr.control.Try;
 import kanela.agent.api.instrumentation.classloader.ClassRefiner;
 import kanela.agent.util.log.Logger;
 import lombok.Value;
 import lombok.val;
-import net.bytebuddy.jar.asm.ClassReader;
-import net.bytebuddy.jar.asm.Opcodes;
-import net.bytebuddy.jar.asm.Type;
-import net.bytebuddy.jar.asm.tree.ClassNode;
-import net.bytebuddy.utility.OpenedClassReader;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 
 interface ClassMatcher {
@@ -47,102 +35,46 @@ interface ClassMatcher {
 @Value
 public class AnalyzedClass implements ClassMatcher {
     private ClassRefiner classRefiner;
-    private Map<String, Object> fields;
-    private Map<String, Set<String>> methodsWithArguments;
+    private ClassSummary summary;
 
     public static ClassMatcher from(ClassRefiner refiner, ClassLoader loader)  {
-        return Try.of(() -> {
-            val target = refiner.getTarget();
-            val resourceName = target.replace('.', '/') + ".class";
-
-            try(InputStream in = loader.getResourceAsStream(resourceName)) {
-                val classNode = convertToClassNode(in);
-                return (ClassMatcher) new AnalyzedClass(refiner, extractFieldsAndValues(refiner, classNode, loader), extractMethods(classNode));
-            }
-        })
-        .onFailure((cause) -> Logger.debug(() -> "Error trying to build an AnalyzedClass of type: " + refiner.getTarget() + " with error: " + cause.getMessage()))
-        .getOrElse(new NoOpAnalyzedClass());
+        return ClassSummaryIndex.instance()
+                .summaryOf(refiner.getTarget(), loader)
+                .map(summary -> (ClassMatcher) new AnalyzedClass(refiner, summary))
+                .getOrElse(NoOpAnalyzedClass::new);
     }
 
     public Boolean match() {
-        val evaluated = buildClassRefinerPredicate(this.classRefiner).test(true);
+        val evaluated = containsFields(classRefiner.getFields()) && containsMethodWithParameters(classRefiner.getMethods());
         if(!evaluated) Logger.debug(() -> "The Class: " + this.classRefiner.getTarget() + " was filtered because not match with the provided ClassRefined: " + this.classRefiner);
         return evaluated;
     }
 
-    private Boolean containsFields(Map<String, Option<Object>> fieldsAndValues) {
-        if(fieldsAndValues.isEmpty()) return true;
-        return !fieldsAndValues
+    private boolean containsFields(Map<String, Option<Object>> fieldsAndValues) {
+        return fieldsAndValues
                 .entrySet()
                 .stream()
-                .map((entry) -> containsField(entry.getKey(), entry.getValue()))
-                .collect(Collectors.toSet())
-                .contains(false);
-    }
-
-    private Boolean containsField(String fieldName, Option<Object> value) {
-        return value.map(v -> v == fields.get(fieldName)).getOrElse(() -> fields.containsKey(fieldName));
+                .allMatch((entry) -> containsField(entry.getKey(), entry.getValue()));
     }
 
-    private Boolean containsMethod(String methodName, String... parameters) {
-        if (!methodsWithArguments.containsKey(methodName)) return false;
-        val parameterSet = methodsWithArguments.get(methodName);
-        if(parameters.length > 0) return Arrays.asList(parameters).containsAll(parameterSet);
-        return true;
+    private boolean containsField(String fieldName, Option<Object> value) {
+        // Only constant values can be known without initializing the class, which is never done while refining.
+        val fields = summary.getFields();
+        return value.map(v -> Objects.equals(v, fields.get(fieldName))).getOrElse(() -> fields.containsKey(fieldName));
     }
 
-    private Predicate<Boolean> buildClassRefinerPredicate(ClassRefiner classRefiner) {
-        java.util.List<Predicate<Boolean>> allPredicates = Arrays.asList(
-                p -> containsFields(classRefiner.getFields()),
-                p -> containsMethodWithParameters(classRefiner.getMethods())
-        );
-        return allPredicates.stream().reduce(p -> true, Predicate::and);
+    private boolean containsMethod(String methodName, String... parameters) {
+        val overloads = summary.getMethods().get(methodName);
+        if (overloads == null) return false;
+        if (parameters.length == 0) return true;
+        val parameterList = Arrays.asList(parameters);
+        return overloads.stream().anyMatch(parameterList::containsAll);
     }
 
-    private Boolean containsMethodWithParameters(Map<String, Set<String>> methods) {
-        if (methods.isEmpty()) return true;
-            return !methods.entrySet()
+    private boolean containsMethodWithParameters(Map<String, Set<String>> methods) {
+        return methods.entrySet()
                 .stream()
-                .map((entry) ->  containsMethod(entry.getKey(), entry.getValue().toArray(new String[0])))
-                .collect(Collectors.toSet())
-                .contains(false);
-    }
-
-    private static Map<String, Object> extractFieldsAndValues(ClassRefiner refiner, ClassNode classNode, ClassLoader loader) {
-        return List.ofAll(classNode.fields)
-                .filter(fieldNode -> (fieldNode.access & Opcodes.ACC_SYNTHETIC) == 0)
-                .toJavaMap(fieldNode -> Tuple.of(fieldNode.name, extractFieldValue(refiner, fieldNode.name, loader)));
-    }
-
-    private static Object extractFieldValue(ClassRefiner refiner, String fieldName, ClassLoader loader) {
-        if(!refiner.getFields().getOrDefault(fieldName, Option.none()).isDefined()) return null;
-        return Try.of(() -> {
-            val clazz = Class.forName(refiner.getTarget(), true, loader);
-            val instance = clazz.getDeclaredConstructor().newInstance();
-            val field = clazz.getDeclaredField(fieldName);
-            field.setAccessible(true);
-            return field.get(instance);
-        }).onFailure((cause) -> Logger.debug(() -> "cannot get field value from: " + refiner.getTarget() + "." + fieldName))
-          .getOrElse(() -> null);
-    }
-
-    private static Map<String, Set<String>> extractMethods(ClassNode classNode) {
-        return List.ofAll(classNode.methods)
-                .filter(methodNode -> (methodNode.access & Opcodes.ACC_SYNTHETIC) == 0)
-                .toJavaMap(methodNode -> Tuple.of(methodNode.name, Array.of(Type.getArgumentTypes(methodNode.desc)).map(AnalyzedClass::getType).toJavaSet()));
-    }
-
-    private static String getType(Type methodDescription) {
-        return methodDescription
-                .getInternalName()
-                .replace('/', '.');
-    }
-
-    private static ClassNode convertToClassNode(InputStream classBytes) throws IOException {
-        val result = new ClassNode(OpenedClassReader.ASM_API);
-        val reader =  new ClassReader(classBytes);
-        reader.accept(result, ClassReader.SKIP_FRAMES);
-        return result;
+                .allMatch((entry) -> containsMethod(entry.getKey(), entry.getValue().toArray(new String[0])));
     }
 
     static class NoOpAnalyzedClass implements ClassMatcher {
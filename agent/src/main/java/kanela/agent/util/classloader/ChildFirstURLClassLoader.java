@@ -16,21 +16,38 @@
 
 package kanela.agent.util.classloader;
 
+import io.vavr.control.Try;
+import kanela.agent.util.log.Logger;
+import lombok.AccessLevel;
 import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
 import lombok.Value;
+import lombok.val;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.util.ArrayList;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Enumeration;
-import java.util.Iterator;
-import java.util.List;
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
 
 
 /**
  * This class is a <b>ClassLoader</b> that loads classes before delegating to a parent.
+ *
+ * Classes are loaded in parallel, locking on each class name. The system class loader, the local class path and the
+ * parent are probed for the class file, in that order, and the class is loaded from the first one that has it, so the
+ * lookups do not throw and catch a ClassNotFoundException on every miss. The packages available on the class path of
+ * the loader are indexed when it is created, so that only those packages are probed locally. Classes whose file is not
+ * found anywhere are loaded from the system class loader or else from the parent, as before probing.
  */
 @Value
 @EqualsAndHashCode(callSuper = false)
@@ -42,37 +59,56 @@ public class ChildFirstURLClassLoader extends URLClassLoader {
 
     private ClassLoader system;
 
+    // Null when some entry of the class path can not be indexed, in which case all packages are looked up locally.
+    @Getter(AccessLevel.NONE)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private Set<String> localPackages;
+
     ChildFirstURLClassLoader(URL[] classpath, ClassLoader parent) {
         super(classpath, parent);
         system = getSystemClassLoader();
+        localPackages = indexPackages(classpath);
     }
 
     @Override
-    protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
-        // First, check if the class has already been loaded
-        Class<?> c = findLoadedClass(name);
-        if (c == null) {
-            if (system != null) {
-                try {
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        synchronized (getClassLoadingLock(name)) {
+            // First, check if the class has already been loaded
+            Class<?> c = findLoadedClass(name);
+            if (c == null) {
+                val classFile = name.replace('.', '/') + ".class";
+                if (system != null && system.getResource(classFile) != null) {
                     // checking system: jvm classes, endorsed, cmd classpath, etc.
                     c = system.loadClass(name);
-                }catch (ClassNotFoundException ignored) {}
-            }
-            if (c == null) {
-                try {
+                } else if (isLocalPackage(packageOf(name)) && findResource(classFile) != null) {
                     // checking local
                     c = findClass(name);
-                } catch (ClassNotFoundException e) {
-                    // checking parent
-                    // This call to loadClass may eventually call findClass again, in case the parent doesn't find anything.
+                } else if (getParent() != null && getParent().getResource(classFile) != null) {
+                    // checking parent, including the packages split between the local class path and the parent.
                     c = super.loadClass(name, resolve);
+                } else {
+                    c = loadWithoutClassFile(name, resolve);
                 }
             }
+            if (resolve) {
+                resolveClass(c);
+            }
+            return c;
         }
-        if (resolve) {
-            resolveClass(c);
+    }
+
+    /**
+     * Neither side exposes the class file, which is either a miss or a class defined without one (e.g. injected into
+     * the system class loader), so the class is looked up as it was before the class files were probed.
+     */
+    private Class<?> loadWithoutClassFile(String name, boolean resolve) throws ClassNotFoundException {
+        if (system != null) {
+            try {
+                return system.loadClass(name);
+            } catch (ClassNotFoundException ignored) {}
         }
-        return c;
+        return super.loadClass(name, resolve);
     }
 
     @Override
@@ -96,41 +132,10 @@ public class ChildFirstURLClassLoader extends URLClassLoader {
         /**
          * Similar to super, but local resources are enumerated before parent resources
          */
-        Enumeration<URL> systemUrls = null;
-        if (system != null) {
-            systemUrls = system.getResources(name);
-        }
-        Enumeration<URL> localUrls = findResources(name);
-        Enumeration<URL> parentUrls = null;
-        if (getParent() != null) {
-            parentUrls = getParent().getResources(name);
-        }
-        final List<URL> urls = new ArrayList<URL>();
-        if (systemUrls != null) {
-            while(systemUrls.hasMoreElements()) {
-                urls.add(systemUrls.nextElement());
-            }
-        }
-        if (localUrls != null) {
-            while (localUrls.hasMoreElements()) {
-                urls.add(localUrls.nextElement());
-            }
-        }
-        if (parentUrls != null) {
-            while (parentUrls.hasMoreElements()) {
-                urls.add(parentUrls.nextElement());
-            }
-        }
-        return new Enumeration<URL>() {
-            Iterator<URL> iter = urls.iterator();
-
-            public boolean hasMoreElements() {
-                return iter.hasNext();
-            }
-            public URL nextElement() {
-                return iter.next();
-            }
-        };
+        return new CompoundEnumeration(
+            system != null ? system.getResources(name) : null,
+            findResources(name),
+            getParent() != null ? getParent().getResources(name) : null);
     }
 
     @Override
@@ -142,4 +147,71 @@ public class ChildFirstURLClassLoader extends URLClassLoader {
         return null;
     }
 
-}
\ No newline at end of file
+    private boolean isLocalPackage(String packageName) {
+        return localPackages == null || localPackages.contains(packageName);
+    }
+
+    private static String packageOf(String className) {
+        val lastDot = className.lastIndexOf('.');
+        return lastDot < 0 ? "" : className.substring(0, lastDot);
+    }
+
+    private static Set<String> indexPackages(URL[] classpath) {
+        val packages = new HashSet<String>();
+        for (URL url : classpath) {
+            val indexed = Try.run(() -> indexPackagesOf(url, packages))
+                .onFailure((cause) -> Logger.warn(() -> "Unable to index the packages of " + url + ", all classes will be looked up locally.", cause));
+            if (indexed.isFailure()) return null;
+        }
+        return packages;
+    }
+
+    private static void indexPackagesOf(URL url, Set<String> packages) throws Exception {
+        if (!"file".equals(url.getProtocol())) throw new IOException("Unsupported class path entry: " + url);
+        val file = new File(url.toURI());
+
+        if (file.isDirectory()) {
+            val root = file.toPath();
+            try (Stream<Path> paths = Files.walk(root)) {
+                paths.map(path -> root.relativize(path).toString().replace(File.separatorChar, '/'))
+                    .forEach(entryName -> addPackageOf(entryName, packages));
+            }
+        } else if (file.isFile()) {
+            try (JarFile jar = new JarFile(file)) {
+                jar.stream().forEach(entry -> addPackageOf(entry.getName(), packages));
+            }
+        }
+    }
+
+    private static void addPackageOf(String entryName, Set<String> packages) {
+        if (!entryName.endsWith(".class")) return;
+        val lastSlash = entryName.lastIndexOf('/');
+        packages.add(lastSlash < 0 ? "" : entryName.substring(0, lastSlash).replace('/', '.'));
+    }
+
+    /**
+     * Enumerates the elements of each enumeration in order, without copying them.
+     */
+    private static class CompoundEnumeration implements Enumeration<URL> {
+        private final Enumeration<URL>[] enumerations;
+        private int index = 0;
+
+        @SafeVarargs
+        CompoundEnumeration(Enumeration<URL>... enumerations) {
+            this.enumerations = enumerations;
+        }
+
+        public boolean hasMoreElements() {
+            while (index < enumerations.length) {
+                if (enumerations[index] != null && enumerations[index].hasMoreElements()) return true;
+                index++;
+            }
+            return false;
+        }
+
+        public URL nextElement() {
+            if (!hasMoreElements()) throw new NoSuchElementException();
+            return enumerations[index].nextElement();
+        }
+    }
+}
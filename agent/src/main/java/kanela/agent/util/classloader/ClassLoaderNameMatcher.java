@@ -24,8 +24,6 @@ import lombok.Value;
 import net.bytebuddy.matcher.ElementMatcher;
 import net.bytebuddy.matcher.ElementMatchers;
 
-import java.util.stream.Collectors;
-
 @Value
 @EqualsAndHashCode(callSuper = false)
 public class ClassLoaderNameMatcher extends ElementMatcher.Junction.AbstractBase<ClassLoader> {
@@ -102,12 +100,10 @@ public class ClassLoaderNameMatcher extends ElementMatcher.Junction.AbstractBase
         }
 
         private boolean compute(ClassLoaderRefiner classRefiner, ClassLoader classLoader) {
-            return !classRefiner
+            return classRefiner
                     .refiners()
                     .stream()
-                    .map(refiner -> AnalyzedClass.from(refiner, classLoader).match())
-                    .collect(Collectors.toList())
-                    .contains(false);
+                    .allMatch(refiner -> AnalyzedClass.from(refiner, classLoader).match());
         }
     }
 }
\ No newline at end of file
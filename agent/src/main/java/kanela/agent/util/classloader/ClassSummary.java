@@ -0,0 +1,191 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.util.classloader;
+
+import lombok.Value;
+import net.bytebuddy.jar.asm.ClassReader;
+import net.bytebuddy.jar.asm.ClassVisitor;
+import net.bytebuddy.jar.asm.FieldVisitor;
+import net.bytebuddy.jar.asm.Handle;
+import net.bytebuddy.jar.asm.Label;
+import net.bytebuddy.jar.asm.MethodVisitor;
+import net.bytebuddy.jar.asm.Opcodes;
+import net.bytebuddy.jar.asm.Type;
+import net.bytebuddy.utility.OpenedClassReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The declared (non synthetic) fields and methods of a class, read straight from its class file without loading nor
+ * initializing it. Methods keep the argument types of each of their overloads. Fields keep their constant value, which
+ * is either the one of a static constant or the one that all the constructors (or the static initializer) store on
+ * them, when that is a literal. Only the code of constructors and static initializers is read.
+ */
+@Value
+public class ClassSummary {
+    Map<String, Object> fields;
+    Map<String, List<Set<String>>> methods;
+
+    public static ClassSummary read(InputStream classFile) throws IOException {
+        final SummaryVisitor visitor = new SummaryVisitor();
+        new ClassReader(classFile).accept(visitor, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return new ClassSummary(visitor.fieldValues(), visitor.methods);
+    }
+
+    private static class SummaryVisitor extends ClassVisitor {
+        final Map<String, Object> constants = new HashMap<>();
+        final Map<String, String> descriptors = new HashMap<>();
+        final Map<String, Object> assigned = new HashMap<>();
+        final Set<String> reassigned = new HashSet<>();
+        final Map<String, List<Set<String>>> methods = new HashMap<>();
+        String internalName;
+
+        SummaryVisitor() {
+            super(OpenedClassReader.ASM_API);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            this.internalName = name;
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+            if ((access & Opcodes.ACC_SYNTHETIC) == 0) {
+                descriptors.put(name, descriptor);
+                constants.put(name, value);
+            }
+            return null;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            if ((access & Opcodes.ACC_SYNTHETIC) == 0) {
+                final Set<String> argumentTypes = new HashSet<>();
+                for (Type argumentType : Type.getArgumentTypes(descriptor)) {
+                    argumentTypes.add(argumentType.getInternalName().replace('/', '.'));
+                }
+                methods.computeIfAbsent(name, key -> new ArrayList<>()).add(argumentTypes);
+            }
+            return (name.equals("<init>") || name.equals("<clinit>")) ? new ConstantAssignments() : null;
+        }
+
+        Map<String, Object> fieldValues() {
+            final Map<String, Object> fields = new HashMap<>();
+            descriptors.forEach((name, descriptor) -> {
+                final Object value = constants.get(name) != null ? constants.get(name) : (reassigned.contains(name) ? null : assigned.get(name));
+                fields.put(name, value == null ? null : valueOf(descriptor, value));
+            });
+            return fields;
+        }
+
+        private void assign(String fieldName, Object value) {
+            final Object previous = assigned.putIfAbsent(fieldName, value);
+            if (previous != null && !Objects.equals(previous, value)) reassigned.add(fieldName);
+        }
+
+        private static Object valueOf(String descriptor, Object value) {
+            if (!(value instanceof Integer)) return value;
+            final int intValue = (Integer) value;
+            switch (descriptor) {
+                case "Z": return intValue != 0;
+                case "C": return (char) intValue;
+                case "B": return (byte) intValue;
+                case "S": return (short) intValue;
+                default: return value;
+            }
+        }
+
+        /**
+         * Tracks the literals that are stored right away on fields of the class, e.g. {@code this.version = "2.6.0"}.
+         */
+        private class ConstantAssignments extends MethodVisitor {
+            private Object pending;
+
+            ConstantAssignments() {
+                super(OpenedClassReader.ASM_API);
+            }
+
+            @Override
+            public void visitLdcInsn(Object value) {
+                pending = (value instanceof String || value instanceof Number) ? value : null;
+            }
+
+            @Override
+            public void visitInsn(int opcode) {
+                if (opcode >= Opcodes.ICONST_M1 && opcode <= Opcodes.ICONST_5) pending = opcode - Opcodes.ICONST_0;
+                else if (opcode == Opcodes.LCONST_0 || opcode == Opcodes.LCONST_1) pending = (long) (opcode - Opcodes.LCONST_0);
+                else if (opcode >= Opcodes.FCONST_0 && opcode <= Opcodes.FCONST_2) pending = (float) (opcode - Opcodes.FCONST_0);
+                else if (opcode == Opcodes.DCONST_0 || opcode == Opcodes.DCONST_1) pending = (double) (opcode - Opcodes.DCONST_0);
+                else pending = null;
+            }
+
+            @Override
+            public void visitIntInsn(int opcode, int operand) {
+                pending = (opcode == Opcodes.BIPUSH || opcode == Opcodes.SIPUSH) ? operand : null;
+            }
+
+            @Override
+            public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+                final boolean isStore = opcode == Opcodes.PUTFIELD || opcode == Opcodes.PUTSTATIC;
+                if (isStore && owner.equals(internalName) && descriptors.containsKey(name)) {
+                    if (pending != null) assign(name, pending);
+                    else reassigned.add(name);
+                }
+                pending = null;
+            }
+
+            @Override
+            public void visitVarInsn(int opcode, int varIndex) { pending = null; }
+
+            @Override
+            public void visitTypeInsn(int opcode, String type) { pending = null; }
+
+            @Override
+            public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) { pending = null; }
+
+            @Override
+            public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) { pending = null; }
+
+            @Override
+            public void visitJumpInsn(int opcode, Label label) { pending = null; }
+
+            @Override
+            public void visitLabel(Label label) { pending = null; }
+
+            @Override
+            public void visitIincInsn(int varIndex, int increment) { pending = null; }
+
+            @Override
+            public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) { pending = null; }
+
+            @Override
+            public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) { pending = null; }
+
+            @Override
+            public void visitMultiANewArrayInsn(String descriptor, int numDimensions) { pending = null; }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.util.classloader;
+
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+import kanela.agent.util.collection.ConcurrentReferenceHashMap;
+import kanela.agent.util.log.Logger;
+import lombok.val;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Index of the {@link ClassSummary} of the classes looked up by the class refiners, shared by all refiners and modules.
+ * Lookups are cached per ClassLoader (including the ones for classes that are missing) and the summaries themselves
+ * are cached by the URL of their class file, so a class file is read only once even if it is visible from many
+ * ClassLoaders. The ClassLoaders are weakly referenced, while only the most recently used summaries are kept by their
+ * URL, since every new ClassLoader (e.g. on each redeploy of an application) brings new URLs.
+ */
+public class ClassSummaryIndex {
+
+    private static final ClassSummaryIndex Instance = new ClassSummaryIndex(1024);
+
+    private final ConcurrentReferenceHashMap<ClassLoader, ConcurrentMap<String, Option<ClassSummary>>> summariesByClassLoader = new ConcurrentReferenceHashMap<>();
+    private final Map<String, ClassSummary> summariesByResource;
+
+    ClassSummaryIndex(int maxResourceSummaries) {
+        this.summariesByResource = Collections.synchronizedMap(new LinkedHashMap<String, ClassSummary>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ClassSummary> eldest) {
+                return size() > maxResourceSummaries;
+            }
+        });
+    }
+
+    public static ClassSummaryIndex instance() {
+        return Instance;
+    }
+
+    public Option<ClassSummary> summaryOf(String typeName, ClassLoader classLoader) {
+        return summariesByClassLoader
+            .computeIfAbsent(classLoader, key -> new ConcurrentHashMap<>())
+            .computeIfAbsent(typeName, key -> locate(typeName, classLoader));
+    }
+
+    private Option<ClassSummary> locate(String typeName, ClassLoader classLoader) {
+        return Option.of(classLoader.getResource(typeName.replace('.', '/') + ".class"))
+            .flatMap(resource -> Option.of(summaryOf(typeName, resource)));
+    }
+
+    // The class file is read without holding the lock, at the cost of reading it twice on a race.
+    private ClassSummary summaryOf(String typeName, URL resource) {
+        val key = resource.toExternalForm();
+        val cached = summariesByResource.get(key);
+        if (cached != null) return cached;
+
+        val summary = read(typeName, resource);
+        if (summary != null) summariesByResource.putIfAbsent(key, summary);
+        return summary;
+    }
+
+    int resourceSummaries() {
+        return summariesByResource.size();
+    }
+
+    private static ClassSummary read(String typeName, URL resource) {
+        return Try.of(() -> {
+            try (InputStream in = resource.openStream()) {
+                return ClassSummary.read(in);
+            }
+        })
+        .onFailure((cause) -> Logger.debug(() -> "Error trying to read the class summary of type: " + typeName + " with error: " + cause.getMessage()))
+        .getOrNull();
+    }
+}
@@ -16,6 +16,10 @@
 
 package kanela.agent.util.classloader;
 
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.ArrayList;
 
@@ -47,27 +51,53 @@ public class PreInitializeClasses {
     // only called a single time, but just to be safe ...
     public static volatile Object toPreventDeadCodeElimination;
 
+    // Recorded by the preInitializedClasses task from the agent classes loaded on a training run, and checked in.
+    private static final String RecordedTypesList = "kanela/agent/pre-initialized-classes.list";
+    private static final String ByteBuddyPrefix = "kanela.agent.libs.net.bytebuddy.";
+
+    // Disabled on the training run, where the types that are loaded ahead would end up on the recorded list.
+    private static final String EnabledProperty = "kanela.pre-initialize-classes";
+
     public static void preInitializeClasses(ClassLoader loader) {
+        if (!Boolean.parseBoolean(System.getProperty(EnabledProperty, "true"))) return;
+
         for (String type : usedTypes()) {
             initialize(type, loader);
         }
         preExpiryMapKeySetAndKeySetIterator();
     }
 
+    // Only the ByteBuddy types are initialized, the rest of the recorded types are just loaded since initializing them
+    // out of their usual order could change what their static initializers see.
     private static void initialize(String type, ClassLoader loader) {
-        Try.of(() -> Class.forName(type, true, loader))
+        Try.of(() -> Class.forName(type, type.startsWith(ByteBuddyPrefix), loader))
                 .onFailure((cause) -> Logger.warn(() -> "class not found: " + type, cause));
     }
 
     public static List<String> usedTypes() {
         val types = new ArrayList<String>();
         types.addAll(getJavaUsedTypes());
-        types.addAll(getBytebuddyUsedTypes());
+        types.addAll(getRecordedUsedTypes().getOrElse(PreInitializeClasses::getBytebuddyUsedTypes));
         return types;
     }
 
     private static String prependByteBuddyPrefix(String s) {
-        return "kanela.agent.libs.net.bytebuddy." + s;
+        return ByteBuddyPrefix + s;
+    }
+
+    private static Try<List<String>> getRecordedUsedTypes() {
+        return Try.of(() -> {
+            try (InputStream in = PreInitializeClasses.class.getResourceAsStream("/" + RecordedTypesList)) {
+                if (in == null) throw new IllegalStateException("The recorded types list is not bundled: " + RecordedTypesList);
+                val types = new ArrayList<String>();
+                val reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.trim().isEmpty() && !line.startsWith("#")) types.add(line.trim());
+                }
+                return types;
+            }
+        });
     }
 
     private static List<String> getJavaUsedTypes() {
@@ -78,7 +108,7 @@ public class PreInitializeClasses {
         return types;
     }
 
-    // List obtained from running:
+    // Fallback for when the recorded list is missing, also the initial content of that list. Obtained from running:
     // grep -rh net.bytebuddy ./agent/src/ | sed s"/import net.bytebuddy.//" | sort -u
     // and adapted manually
     private static List<String> getBytebuddyUsedTypes() {
@@ -35,6 +35,7 @@ import java.io.File;
 import java.nio.file.Files;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
 
 import static io.vavr.API.*;
 import static java.text.MessageFormat.format;
@@ -47,9 +48,17 @@ public class KanelaConfiguration {
     CircuitBreakerConfig circuitBreakerConfig;
     InstrumentationRegistryConfig instrumentationRegistryConfig;
     OldGarbageCollectorConfig oldGarbageCollectorConfig;
+    TransformationCacheConfig transformationCache;
+    TypePoolCacheConfig typePoolCache;
+    GeneratedClassesConfig generatedClasses;
+    AdviceGovernorConfig adviceGovernor;
+    ReinstrumentationConfig reinstrumentation;
+    Boolean mergeTransformers;
+    ParallelStartupConfig parallelStartup;
     Boolean showBanner;
     HashMap extraParams;
     Level logLevel;
+    Integer logBufferSize;
     @Getter(AccessLevel.PRIVATE)
     Config config;
 
@@ -79,7 +88,15 @@ public class KanelaConfiguration {
         this.circuitBreakerConfig = new CircuitBreakerConfig(config);
         this.instrumentationRegistryConfig = new InstrumentationRegistryConfig(config);
         this.oldGarbageCollectorConfig =  new OldGarbageCollectorConfig(config);
+        this.transformationCache = new TransformationCacheConfig(config);
+        this.typePoolCache = new TypePoolCacheConfig(config);
+        this.generatedClasses = new GeneratedClassesConfig(config);
+        this.adviceGovernor = new AdviceGovernorConfig(config);
+        this.reinstrumentation = new ReinstrumentationConfig(config);
+        this.mergeTransformers = getMergeTransformers(config);
+        this.parallelStartup = new ParallelStartupConfig(config);
         this.logLevel = getLoggerLevel(config);
+        this.logBufferSize = Try.of(() -> config.getInt("log-buffer-size")).getOrElse(8192);
     }
 
     public List<ModuleConfiguration> getAgentModules() {
@@ -168,12 +185,14 @@ public class KanelaConfiguration {
         String dumpDir;
         Boolean createJar;
         String jarName;
+        int queueSize;
 
         DumpConfig(Config config) {
             this.dumpEnabled = Try.of(() -> config.getBoolean("class-dumper.enabled")).getOrElse(false);
             this.dumpDir = Try.of(() -> config.getString("class-dumper.dir")).getOrElse( System.getProperty("user.home") + "/kanela-agent/dump");
             this.createJar = Try.of(() -> config.getBoolean("class-dumper.create-jar")).getOrElse(true);
             this.jarName = Try.of(() -> config.getString("class-dumper.jar-name")).getOrElse("instrumentedClasses");
+            this.queueSize = Try.of(() -> config.getInt("class-dumper.queue-size")).getOrElse(10000);
         }
 
         public boolean isDumpEnabled() {
@@ -186,11 +205,13 @@ public class KanelaConfiguration {
         boolean enabled;
         double freeMemoryThreshold;
         double gcProcessCPUThreshold;
+        OverloadSignalsConfig signals;
 
         CircuitBreakerConfig(Config config) {
             this.enabled = Try.of(() -> config.getBoolean("circuit-breaker.enabled")).getOrElse(false);
             this.freeMemoryThreshold = Try.of(() -> config.getDouble("circuit-breaker.free-memory-threshold")).getOrElse(50.0);
             this.gcProcessCPUThreshold = Try.of(() -> config.getDouble("circuit-breaker.gc-process-cpu-threshold")).getOrElse(10.0);
+            this.signals = new OverloadSignalsConfig(config);
         }
 
         public void circuitBreakerRunning() {
@@ -198,12 +219,39 @@ public class KanelaConfiguration {
         }
     }
 
+    @Value
+    public static class OverloadSignalsConfig {
+        boolean enabled;
+        long intervalMillis;
+        int windowSize;
+        double resetRatio;
+        double gcPausePercentage;
+        double allocationRateMegabytes;
+        double processCpuPercentage;
+        double threadCount;
+
+        OverloadSignalsConfig(Config config) {
+            this.enabled = Try.of(() -> config.getBoolean("circuit-breaker.signals.enabled")).getOrElse(false);
+            this.intervalMillis = Try.of(() -> config.getDuration("circuit-breaker.signals.interval", TimeUnit.MILLISECONDS)).getOrElse(TimeUnit.SECONDS.toMillis(1));
+            this.windowSize = Try.of(() -> config.getInt("circuit-breaker.signals.window-size")).getOrElse(30);
+            this.resetRatio = Try.of(() -> config.getDouble("circuit-breaker.signals.reset-ratio")).getOrElse(0.8);
+            this.gcPausePercentage = Try.of(() -> config.getDouble("circuit-breaker.signals.gc-pause-percentage")).getOrElse(10.0);
+            this.allocationRateMegabytes = Try.of(() -> config.getDouble("circuit-breaker.signals.allocation-rate-megabytes")).getOrElse(0.0);
+            this.processCpuPercentage = Try.of(() -> config.getDouble("circuit-breaker.signals.process-cpu-percentage")).getOrElse(90.0);
+            this.threadCount = Try.of(() -> config.getDouble("circuit-breaker.signals.thread-count")).getOrElse(0.0);
+        }
+    }
+
     @Value
     public static class InstrumentationRegistryConfig {
         boolean enabled;
+        boolean timings;
+        boolean jmx;
 
         InstrumentationRegistryConfig(Config config) {
             this.enabled = Try.of(() -> config.getBoolean("instrumentation-registry.enabled")).getOrElse(false);
+            this.timings = Try.of(() -> config.getBoolean("instrumentation-registry.timings")).getOrElse(false);
+            this.jmx = Try.of(() -> config.getBoolean("instrumentation-registry.jmx")).getOrElse(false);
         }
     }
 
@@ -220,6 +268,88 @@ public class KanelaConfiguration {
         }
     }
 
+    @Value
+    public static class TransformationCacheConfig {
+        boolean enabled;
+        String dir;
+
+        TransformationCacheConfig(Config config) {
+            this.enabled = Try.of(() -> config.getBoolean("transformation-cache.enabled")).getOrElse(false);
+            this.dir = Try.of(() -> config.getString("transformation-cache.dir")).getOrElse(System.getProperty("user.home") + "/kanela-agent/cache");
+        }
+    }
+
+    @Value
+    public static class TypePoolCacheConfig {
+        int maxEntriesPerClassLoader;
+        long expireAfterIdleMillis;
+        List<String> sharedPackages;
+        int sharedMaxEntries;
+
+        TypePoolCacheConfig(Config config) {
+            this.maxEntriesPerClassLoader = Try.of(() -> config.getInt("type-pool-cache.max-entries-per-class-loader")).getOrElse(10000);
+            this.expireAfterIdleMillis = Try.of(() -> config.getDuration("type-pool-cache.expire-after-idle", TimeUnit.MILLISECONDS)).getOrElse(TimeUnit.MINUTES.toMillis(1));
+            this.sharedPackages = List.ofAll(Try.of(() -> config.getStringList("type-pool-cache.shared-packages")).getOrElse(Collections.singletonList("java.")));
+            this.sharedMaxEntries = Try.of(() -> config.getInt("type-pool-cache.shared-max-entries")).getOrElse(20000);
+        }
+    }
+
+    @Value
+    public static class GeneratedClassesConfig {
+        boolean enabled;
+        List<String> nameFragments;
+        List<String> namePrefixes;
+
+        GeneratedClassesConfig(Config config) {
+            this.enabled = Try.of(() -> config.getBoolean("generated-classes.enabled")).getOrElse(true);
+            this.nameFragments = List.ofAll(Try.of(() -> config.getStringList("generated-classes.name-fragments")).getOrElse(Collections.emptyList()));
+            this.namePrefixes = List.ofAll(Try.of(() -> config.getStringList("generated-classes.name-prefixes")).getOrElse(Collections.emptyList()));
+        }
+    }
+
+    @Value
+    public static class AdviceGovernorConfig {
+        boolean enabled;
+        double budgetPercentage;
+        long intervalMillis;
+        double restoreRatio;
+        int maxTrackedTypes;
+
+        AdviceGovernorConfig(Config config) {
+            this.enabled = Try.of(() -> config.getBoolean("advice-governor.enabled")).getOrElse(false);
+            this.budgetPercentage = Try.of(() -> config.getDouble("advice-governor.budget-percentage")).getOrElse(5.0);
+            this.intervalMillis = Try.of(() -> config.getDuration("advice-governor.interval", TimeUnit.MILLISECONDS)).getOrElse(TimeUnit.SECONDS.toMillis(10));
+            this.restoreRatio = Try.of(() -> config.getDouble("advice-governor.restore-ratio")).getOrElse(0.75);
+            this.maxTrackedTypes = Try.of(() -> config.getInt("advice-governor.max-tracked-types")).getOrElse(10000);
+        }
+    }
+
+    @Value
+    public static class ReinstrumentationConfig {
+        int batchSize;
+        long pauseBetweenBatchesMillis;
+
+        ReinstrumentationConfig(Config config) {
+            this.batchSize = Try.of(() -> config.getInt("reinstrumentation.batch-size")).getOrElse(100);
+            this.pauseBetweenBatchesMillis = Try.of(() -> config.getDuration("reinstrumentation.pause-between-batches", TimeUnit.MILLISECONDS)).getOrElse(50L);
+        }
+    }
+
+    @Value
+    public static class ParallelStartupConfig {
+        boolean enabled;
+        int maxThreads;
+
+        ParallelStartupConfig(Config config) {
+            this.enabled = Try.of(() -> config.getBoolean("parallel-startup.enabled")).getOrElse(false);
+            this.maxThreads = Try.of(() -> config.getInt("parallel-startup.max-threads")).getOrElse(4);
+        }
+
+        public int parallelismFor(int modules) {
+            return Math.max(1, Math.min(Math.min(maxThreads, Runtime.getRuntime().availableProcessors()), modules));
+        }
+    }
+
     @Value
     public static class BootstrapInjectionConfig {
         boolean enabled;
@@ -241,6 +371,10 @@ public class KanelaConfiguration {
         return this.debugMode;
     }
 
+    public boolean shouldMergeTransformers() {
+        return this.mergeTransformers;
+    }
+
     private <T> void addExtraParameter(String key, T value) {
         this.extraParams.put(key, value);
     }
@@ -296,6 +430,10 @@ public class KanelaConfiguration {
         return Try.of(() -> config.getBoolean("debug-mode")).getOrElse(false);
     }
 
+    private Boolean getMergeTransformers(Config config) {
+        return Try.of(() -> config.getString("install-mode")).map("merged"::equalsIgnoreCase).getOrElse(false);
+    }
+
     private Boolean getShowBanner(Config config) {
         return Try.of(() -> config.getBoolean("show-banner")).getOrElse(false);
     }
@@ -0,0 +1,210 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.util.jvm;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+import lombok.Value;
+import lombok.val;
+
+import java.lang.management.MemoryUsage;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Maps the notifications of the collectors in use to normalized {@link GcEvent}s, which are only published for the
+ * collections that reflect the occupancy of the old generation (or its equivalent on non generational collectors).
+ *
+ * <ul>
+ *     <li>Serial, Parallel and CMS: major collections, with the occupancy of the old/tenured pool.</li>
+ *     <li>G1: full and mixed collections (young pauses that reclaimed old regions), with the occupancy of the old
+ *     region pool. Concurrent cycles are accounted as concurrent time on the next event.</li>
+ *     <li>ZGC and Shenandoah: the end of every (major) cycle, with the occupancy of the whole heap (or the old
+ *     generation on generational ZGC) and the pauses that happened since the previous cycle. Non generational ZGC
+ *     before JDK 17 does not report its pauses, so the duration of its cycles is taken as pause time instead.</li>
+ * </ul>
+ */
+public abstract class CollectorProfile {
+    private final AtomicLong pendingPauseMillis = new AtomicLong();
+    private final AtomicLong pendingConcurrentMillis = new AtomicLong();
+
+    public abstract String getName();
+
+    /**
+     * Whether the collectors report their pauses, otherwise the pause time of the events is an approximation.
+     */
+    public boolean reportsPauses() {
+        return true;
+    }
+
+    /**
+     * Returns the normalized values of a collection, or none when the collection is not relevant for the old generation.
+     */
+    abstract Option<Collection> normalize(String gcName, String gcAction, long durationMillis, Map<String, MemoryUsage> before, Map<String, MemoryUsage> after);
+
+    public Option<GcEvent> toEvent(GarbageCollectionNotificationInfo info, long jvmStartTime) {
+        val gcInfo = info.getGcInfo();
+        return normalize(info.getGcName(), info.getGcAction(), gcInfo.getDuration(), gcInfo.getMemoryUsageBeforeGc(), gcInfo.getMemoryUsageAfterGc())
+                .map(collection -> GcEvent.from(info, collection.getPercentageFreeMemory(), jvmStartTime + gcInfo.getStartTime(),
+                        collection.getPauseMillis(), collection.getConcurrentMillis(), collection.getHeapUsedAfterGc()));
+    }
+
+    /**
+     * Picks the profile for the collectors with the provided names.
+     */
+    public static CollectorProfile detect(List<String> collectorNames) {
+        if (collectorNames.exists(name -> name.startsWith("G1"))) return new G1();
+        if (collectorNames.exists(name -> name.startsWith("ZGC"))) return new Concurrent("ZGC", List.of("ZGC Old Generation", "ZHeap"), collectorNames.contains("ZGC Pauses"));
+        if (collectorNames.exists(name -> name.startsWith("Shenandoah"))) return new Concurrent("Shenandoah", List.of("Shenandoah"), true);
+        return new Generational();
+    }
+
+    void addPause(long millis) {
+        pendingPauseMillis.addAndGet(millis);
+    }
+
+    void addConcurrent(long millis) {
+        pendingConcurrentMillis.addAndGet(millis);
+    }
+
+    Collection collection(long pauseMillis, long concurrentMillis, Map<String, MemoryUsage> after, List<String> pools) {
+        return new Collection(
+                pendingPauseMillis.getAndSet(0L) + pauseMillis,
+                pendingConcurrentMillis.getAndSet(0L) + concurrentMillis,
+                percentageFree(after, pools),
+                used(after, after.keySet()));
+    }
+
+    /**
+     * Free percentage of the first of the pools that is present, or of the whole heap when none of them is.
+     */
+    static double percentageFree(Map<String, MemoryUsage> usages, List<String> pools) {
+        val present = pools.filter(usages::containsKey);
+        val names = present.isEmpty() ? usages.keySet() : present.take(1).toJavaSet();
+
+        long max = 0L;
+        for (String name : names) {
+            val usage = usages.get(name);
+            max += usage.getMax() > 0 ? usage.getMax() : usage.getCommitted();
+        }
+        return max > 0 ? 100.0 * (max - used(usages, names)) / max : 100.0;
+    }
+
+    private static long used(Map<String, MemoryUsage> usages, Iterable<String> pools) {
+        long used = 0L;
+        for (String name : pools) used += usages.get(name).getUsed();
+        return used;
+    }
+
+    @Value
+    static class Collection {
+        long pauseMillis;
+        long concurrentMillis;
+        double percentageFreeMemory;
+        long heapUsedAfterGc;
+    }
+
+    /**
+     * Serial, Parallel and CMS collectors, which have an old/tenured pool and report major collections. Also used for
+     * any collector that is not known.
+     */
+    static class Generational extends CollectorProfile {
+
+        @Override
+        public String getName() {
+            return "Generational";
+        }
+
+        @Override
+        Option<Collection> normalize(String gcName, String gcAction, long durationMillis, Map<String, MemoryUsage> before, Map<String, MemoryUsage> after) {
+            if (!"end of major GC".equalsIgnoreCase(gcAction)) return Option.none();
+            return Option.of(collection(durationMillis, 0L, after, List.ofAll(after.keySet()).filter(Jvm::isOldGenPool)));
+        }
+    }
+
+    static class G1 extends CollectorProfile {
+        private static final String OldPool = "G1 Old Gen";
+
+        @Override
+        public String getName() {
+            return "G1";
+        }
+
+        @Override
+        Option<Collection> normalize(String gcName, String gcAction, long durationMillis, Map<String, MemoryUsage> before, Map<String, MemoryUsage> after) {
+            switch (gcName) {
+                case "G1 Old Generation":
+                    return Option.of(collection(durationMillis, 0L, after, List.of(OldPool)));
+                case "G1 Young Generation":
+                    if (reclaimedOldRegions(before, after)) return Option.of(collection(durationMillis, 0L, after, List.of(OldPool)));
+                    return Option.none();
+                default:
+                    // The concurrent cycle (G1 Concurrent GC) only marks, the old regions are reclaimed by mixed collections.
+                    addConcurrent(durationMillis);
+                    return Option.none();
+            }
+        }
+
+        private static boolean reclaimedOldRegions(Map<String, MemoryUsage> before, Map<String, MemoryUsage> after) {
+            return before.containsKey(OldPool) && after.containsKey(OldPool) && after.get(OldPool).getUsed() < before.get(OldPool).getUsed();
+        }
+    }
+
+    /**
+     * ZGC and Shenandoah, which report their concurrent cycles and their pauses on separate beans ("Cycles" and
+     * "Pauses"). Non generational ZGC before JDK 17 reports the cycles on a bean named "ZGC" and no pauses, so the
+     * whole cycle is accounted as pause time, which overestimates it but still lets the circuit breaker trip.
+     */
+    static class Concurrent extends CollectorProfile {
+        private final String name;
+        private final List<String> pools;
+        private final boolean reportsPauses;
+
+        Concurrent(String name, List<String> pools, boolean reportsPauses) {
+            this.name = name;
+            this.pools = pools;
+            this.reportsPauses = reportsPauses;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public boolean reportsPauses() {
+            return reportsPauses;
+        }
+
+        @Override
+        Option<Collection> normalize(String gcName, String gcAction, long durationMillis, Map<String, MemoryUsage> before, Map<String, MemoryUsage> after) {
+            if (gcName.endsWith("Pauses")) {
+                addPause(durationMillis);
+                return Option.none();
+            }
+
+            // The minor cycles of generational ZGC only collect the young generation.
+            if (gcName.endsWith("Minor Cycles")) {
+                addConcurrent(durationMillis);
+                return Option.none();
+            }
+
+            return Option.of(collection(reportsPauses ? 0L : durationMillis, durationMillis, after, pools));
+        }
+    }
+}
@@ -34,8 +34,12 @@ public class GcEvent {
     static final long ONE_GIBIBYTE = 1 << 30;
 
     GarbageCollectionNotificationInfo info;
+    // Of the old generation, or of its equivalent for the collector in use (see CollectorProfile).
     double percentageFreeMemoryAfterGc;
     long startTime;
+    long pauseMillis;
+    long concurrentMillis;
+    long heapUsedAfterGc;
 
     @Override
     public String toString() {
@@ -61,7 +65,8 @@ public class GcEvent {
 
         return "OLD" + ": "
                 + name + ", id=" + gcInfo.getId() + ", at=" + d.toString()
-                + ", duration=" + gcInfo.getDuration() + "ms" + ", cause=[" + info.getGcCause() + "]"
+                + ", duration=" + gcInfo.getDuration() + "ms" + ", pause=" + pauseMillis + "ms" + ", concurrent=" + concurrentMillis + "ms"
+                + ", cause=[" + info.getGcCause() + "]"
                 + ", " + change + " (" + percentChange + ")";
     }
 
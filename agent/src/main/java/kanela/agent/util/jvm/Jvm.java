@@ -18,9 +18,10 @@
 package kanela.agent.util.jvm;
 
 import lombok.Value;
+import lombok.val;
 
+import java.lang.management.GarbageCollectorMXBean;
 import java.lang.management.ManagementFactory;
-import java.lang.management.MemoryPoolMXBean;
 
 @Value
 public class Jvm {
@@ -32,7 +33,7 @@ public class Jvm {
     }
 
     public double getGcCpuTimePercent(GcEvent event) {
-        final long totalGcDuration = event.getInfo().getGcInfo().getDuration();
+        final long totalGcDuration = event.getPauseMillis();
         final long percent = totalGcDuration * 1000L / event.getInfo().getGcInfo().getEndTime();
         return Double.parseDouble((percent/10) +"."+ (percent%10));
     }
@@ -41,11 +42,46 @@ public class Jvm {
         return ( (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean() ).getProcessCpuTime();
     }
 
-    static boolean isOldGenPool(MemoryPoolMXBean bean) {
-        return bean.getName().endsWith("Old Gen") || bean.getName().endsWith("Tenured Gen");
+    public int getAvailableProcessors() {
+        return Runtime.getRuntime().availableProcessors();
     }
 
-    boolean isEndOfMayorGC(String gcAction) {
-        return "end of major GC".equalsIgnoreCase(gcAction);
+    /**
+     * Accumulated collection time of all collectors, in milliseconds. The beans of the concurrent cycles of ZGC and
+     * Shenandoah are left out since the application keeps running during those cycles.
+     */
+    public long getGcPauseTimeMillis() {
+        long total = 0L;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector.getName().endsWith("Cycles")) continue;
+            total += Math.max(collector.getCollectionTime(), 0L);
+        }
+        return total;
+    }
+
+    /**
+     * Accumulated bytes allocated by the live threads, or 0 when the JVM does not measure thread allocations. Threads
+     * that already finished are not part of the total, so it can decrease.
+     */
+    public long getAllocatedBytes() {
+        val threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) return 0L;
+
+        val allocations = (com.sun.management.ThreadMXBean) threads;
+        if (!allocations.isThreadAllocatedMemorySupported() || !allocations.isThreadAllocatedMemoryEnabled()) return 0L;
+
+        long total = 0L;
+        for (long allocatedBytes : allocations.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(allocatedBytes, 0L);
+        }
+        return total;
+    }
+
+    public int getThreadCount() {
+        return ManagementFactory.getThreadMXBean().getThreadCount();
+    }
+
+    static boolean isOldGenPool(String poolName) {
+        return poolName.endsWith("Old Gen") || poolName.endsWith("Tenured Gen");
     }
 }
@@ -18,7 +18,6 @@ package kanela.agent.util.jvm;
 
 import com.sun.management.GarbageCollectionNotificationInfo;
 import io.vavr.collection.List;
-import io.vavr.control.Option;
 import io.vavr.control.Try;
 import kanela.agent.broker.EventBroker;
 import kanela.agent.util.annotation.Experimental;
@@ -34,7 +33,6 @@ import javax.management.NotificationListener;
 import javax.management.openmbean.CompositeData;
 import java.lang.management.GarbageCollectorMXBean;
 import java.lang.management.ManagementFactory;
-import java.lang.management.MemoryPoolMXBean;
 
 import static java.text.MessageFormat.format;
 
@@ -45,15 +43,15 @@ public class OldGarbageCollectorListener {
     Jvm tools;
     long jvmStartTime;
     EventBroker broker;
-    Option<MemoryPoolMXBean> oldGenPool;
+    CollectorProfile profile;
     KanelaConfiguration.OldGarbageCollectorConfig config;
 
     @SneakyThrows
     private OldGarbageCollectorListener(KanelaConfiguration.OldGarbageCollectorConfig configuration, Jvm jvm) {
-        val memoryBeans = List.ofAll(ManagementFactory.getMemoryPoolMXBeans());
+        val collectorNames = List.ofAll(ManagementFactory.getGarbageCollectorMXBeans()).map(GarbageCollectorMXBean::getName);
 
         this.jvmStartTime = ManagementFactory.getRuntimeMXBean().getStartTime();
-        this.oldGenPool = memoryBeans.find(Jvm::isOldGenPool);
+        this.profile = CollectorProfile.detect(collectorNames);
         this.tools = jvm;
         this.config = configuration;
         this.broker = EventBroker.instance();
@@ -68,7 +66,11 @@ public class OldGarbageCollectorListener {
     public static void attach(KanelaConfiguration.OldGarbageCollectorConfig configuration, Jvm jvm) {
         if(configuration.isCircuitBreakerRunning()) {
             Try.of(() -> new OldGarbageCollectorListener(configuration, jvm))
-               .andThen(() -> Logger.info(() -> format("Old Garbage Collector Listener activated.")))
+               .andThen(listener -> Logger.info(() -> format("Old Garbage Collector Listener activated for the {0} collector profile.", listener.getProfile().getName())))
+               .andThen(listener -> {
+                   if (!listener.getProfile().reportsPauses())
+                       Logger.warn(() -> format("The {0} collector does not report its pauses, the circuit breaker takes the duration of its cycles as GC time instead.", listener.getProfile().getName()));
+               })
                .onFailure((cause) -> Logger.error(() -> format("Error when trying to activate Old Garbage Collector Listener."), cause));
         }
     }
@@ -88,24 +90,12 @@ public class OldGarbageCollectorListener {
     }
 
     private void processGCEvent(GarbageCollectionNotificationInfo info) {
-        if(tools.isEndOfMayorGC(info.getGcAction())) {
-            val after = info.getGcInfo().getMemoryUsageAfterGc();
-
-            val percentageFreeMemory = oldGenPool.map((pool) -> {
-                val totalMemoryAfterGc = after.get(pool.getName()).getMax();
-                val usedMemoryAfterGc = after.get(pool.getName()).getUsed();
-                val freeMemoryGc = ((double) totalMemoryAfterGc - usedMemoryAfterGc) / totalMemoryAfterGc;
-                return 100.0 * freeMemoryGc;
-            });
-
-            percentageFreeMemory.forEach((freeMemory) -> {
-                val event = GcEvent.from(info, (double) freeMemory, jvmStartTime + info.getGcInfo().getStartTime());
-                if(config.isShouldLogAfterGc()) {
-                    Logger.warn(() -> format("{0}", event));
-                }
-                broker.publish(event);
-            });
-        }
+        profile.toEvent(info, jvmStartTime).forEach(event -> {
+            if(config.isShouldLogAfterGc()) {
+                Logger.warn(() -> format("{0}", event));
+            }
+            broker.publish(event);
+        });
     }
 
     private class GcNotificationListener implements NotificationListener {
@@ -0,0 +1,145 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.util.log;
+
+import lombok.Value;
+import lombok.val;
+import org.pmw.tinylog.Level;
+import org.pmw.tinylog.LoggingContext;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Hands the log entries over to a dedicated thread that writes them through tinylog, so that logging never blocks the
+ * calling thread (e.g. a thread loading classes while the debug listener is enabled). Entries that do not fit on the
+ * buffer are dropped and counted, except errors which are written by the calling thread instead.
+ *
+ * The name of the thread that logged each entry is passed through the tinylog logging context, which the log format
+ * shows as {@code {context:thread}}.
+ */
+class AsyncLogWriter {
+
+    private static final long MaxParkNanos = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final String ThreadContextKey = "thread";
+
+    private final RingBuffer<Entry> buffer;
+    private final Consumer<Entry> sink;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicBoolean sleeping = new AtomicBoolean(false);
+    private final Thread writer;
+    private volatile boolean running = true;
+    private long reportedDrops = 0;
+
+    AsyncLogWriter(int bufferSize) {
+        this(bufferSize, AsyncLogWriter::write);
+    }
+
+    AsyncLogWriter(int bufferSize, Consumer<Entry> sink) {
+        this.buffer = new RingBuffer<>(bufferSize);
+        this.sink = sink;
+        this.writer = new Thread(this::writeEntries, "kamon-agent-logger");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop, "kamon-agent-logger-shutdown"));
+    }
+
+    void publish(Level level, String message, Throwable throwable) {
+        val entry = new Entry(level, message, throwable, Thread.currentThread().getName());
+
+        if (running && buffer.offer(entry)) {
+            if (sleeping.get() && sleeping.compareAndSet(true, false)) LockSupport.unpark(writer);
+        } else if (level == Level.ERROR) {
+            sink.accept(entry);
+        } else {
+            dropped.incrementAndGet();
+        }
+    }
+
+    long getDropped() {
+        return dropped.get();
+    }
+
+    private void writeEntries() {
+        while (running) {
+            if (!drain()) {
+                sleeping.set(true);
+                // Checking again after announcing that the writer is going to sleep, so a concurrent publish is not missed.
+                if (!drain()) LockSupport.parkNanos(this, MaxParkNanos);
+                sleeping.set(false);
+            }
+        }
+    }
+
+    private boolean drain() {
+        boolean written = false;
+        Entry entry;
+        while ((entry = buffer.poll()) != null) {
+            sink.accept(entry);
+            written = true;
+        }
+        reportDrops();
+        return written;
+    }
+
+    private synchronized void stop() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException ignored) {}
+        // The buffer only supports a single consumer, so the remaining entries are written here once the writer is done.
+        if (!writer.isAlive()) drain();
+    }
+
+    private void reportDrops() {
+        val drops = dropped.get();
+        if (drops == reportedDrops) return;
+        sink.accept(new Entry(Level.WARNING, (drops - reportedDrops) + " log entries were dropped because the log buffer was full.", null, Thread.currentThread().getName()));
+        reportedDrops = drops;
+    }
+
+    static void writeNow(Level level, String message, Throwable throwable) {
+        write(new Entry(level, message, throwable, Thread.currentThread().getName()));
+    }
+
+    private static void write(Entry entry) {
+        LoggingContext.put(ThreadContextKey, entry.getThreadName());
+        val message = entry.getMessage();
+        val throwable = entry.getThrowable();
+
+        switch (entry.getLevel()) {
+            case TRACE: if (throwable == null) org.pmw.tinylog.Logger.trace(message); else org.pmw.tinylog.Logger.trace(throwable, message); break;
+            case DEBUG: if (throwable == null) org.pmw.tinylog.Logger.debug(message); else org.pmw.tinylog.Logger.debug(throwable, message); break;
+            case INFO: if (throwable == null) org.pmw.tinylog.Logger.info(message); else org.pmw.tinylog.Logger.info(throwable, message); break;
+            case WARNING: if (throwable == null) org.pmw.tinylog.Logger.warn(message); else org.pmw.tinylog.Logger.warn(throwable, message); break;
+            case ERROR: if (throwable == null) org.pmw.tinylog.Logger.error(message); else org.pmw.tinylog.Logger.error(throwable, message); break;
+            default: break;
+        }
+    }
+
+    @Value
+    static class Entry {
+        Level level;
+        String message;
+        Throwable throwable;
+        String threadName;
+    }
+}
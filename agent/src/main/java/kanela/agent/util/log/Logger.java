@@ -32,17 +32,20 @@ import java.util.function.Supplier;
 
 /**
  * Lazy Logger implementing {@link org.pmw.tinylog.Logger}, which supports lazy evaluation of messages.<br>
- * The message to be logged must be inside a {@link Supplier} which will be evaluated only if the level of debug is enabled.
+ * The message to be logged must be inside a {@link Supplier} which will be evaluated only if the level of debug is enabled.<br>
+ * The messages are written by tinylog on a dedicated thread, see {@link AsyncLogWriter}.
  */
 public class Logger {
 
+    private static volatile Level level = Level.INFO;
+    private static volatile AsyncLogWriter writer = null;
+
     static { configureLogger(KanelaConfiguration.instance()); }
 
     public static void configureLogger(KanelaConfiguration config) {
         Try.run(() -> {
             val configurator = Configurator
                 .fromResource("kanela-log.properties")
-                .writingThread("main")
                 .maxStackTraceElements(400) // stack traces
                 .level(config.getLogLevel());
 
@@ -52,6 +55,8 @@ public class Logger {
             }
 
             configurator.activate();
+            level = config.getLogLevel();
+            if (writer == null) writer = new AsyncLogWriter(config.getLogBufferSize());
 
         }).andThen(() -> {
             //sets the logger provider in order to be able to access from advisors/interceptors
@@ -66,12 +71,33 @@ public class Logger {
 
     private Logger(){}
 
-    public static void debug(final Supplier<String> msg) { org.pmw.tinylog.Logger.debug(msg.get());}
-    public static void trace(final Supplier<String> msg) { org.pmw.tinylog.Logger.trace(msg.get());}
-    public static void info(final Supplier<String> msg) { org.pmw.tinylog.Logger.info(msg.get()); }
-    public static void info(final Supplier<String> msg, final Throwable t) { org.pmw.tinylog.Logger.info(t, msg.get());}
-    public static void warn(final Supplier<String> msg) { org.pmw.tinylog.Logger.warn(msg.get());}
-    public static void warn(final Supplier<String> msg, final Throwable t) { org.pmw.tinylog.Logger.warn(t, msg.get());}
-    public static void error(final Supplier<String> msg) { org.pmw.tinylog.Logger.error(msg.get()); }
-    public static void error(final Supplier<String> msg, final Throwable t) { org.pmw.tinylog.Logger.error(t, msg.get());}
+    public static void debug(final Supplier<String> msg) { log(Level.DEBUG, msg, null);}
+    public static void trace(final Supplier<String> msg) { log(Level.TRACE, msg, null);}
+    public static void info(final Supplier<String> msg) { log(Level.INFO, msg, null); }
+    public static void info(final Supplier<String> msg, final Throwable t) { log(Level.INFO, msg, t);}
+    public static void warn(final Supplier<String> msg) { log(Level.WARNING, msg, null);}
+    public static void warn(final Supplier<String> msg, final Throwable t) { log(Level.WARNING, msg, t);}
+    public static void error(final Supplier<String> msg) { log(Level.ERROR, msg, null); }
+    public static void error(final Supplier<String> msg, final Throwable t) { log(Level.ERROR, msg, t);}
+
+    public static boolean isEnabled(final Level messageLevel) {
+        return messageLevel != Level.OFF && messageLevel.compareTo(level) >= 0;
+    }
+
+    public static long droppedMessages() {
+        val currentWriter = writer;
+        return currentWriter == null ? 0 : currentWriter.getDropped();
+    }
+
+    private static void log(final Level messageLevel, final Supplier<String> msg, final Throwable t) {
+        if (!isEnabled(messageLevel)) return;
+
+        val currentWriter = writer;
+        if (currentWriter != null) {
+            currentWriter.publish(messageLevel, msg.get(), t);
+        } else {
+            // Only while the logger is being configured.
+            AsyncLogWriter.writeNow(messageLevel, msg.get(), t);
+        }
+    }
 }
@@ -0,0 +1,89 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.util.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free queue for many producers and a single consumer, based on the bounded MPMC queue by Dmitry Vyukov.
+ * Every slot carries a sequence number that tells producers when the slot is free and the consumer when it was
+ * published, so producers only contend on claiming a position and never wait for each other.
+ */
+class RingBuffer<T> {
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<T> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private long head = 0; // Only used by the consumer.
+
+    /**
+     * Creates a buffer with room for at least the provided amount of elements, rounded up to a power of two.
+     */
+    RingBuffer(int minimumCapacity) {
+        this.capacity = Integer.highestOneBit(Math.max(2, minimumCapacity - 1)) << 1;
+        this.mask = capacity - 1;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) sequences.set(i, i);
+    }
+
+    /**
+     * Adds the element to the buffer, returns false without waiting when the buffer is full.
+     */
+    boolean offer(T element) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots.set(index, element);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Takes the oldest element from the buffer, or null if there is none. Must only be called from a single thread.
+     */
+    T poll() {
+        int index = (int) (head & mask);
+        if (sequences.get(index) != head + 1) return null;
+
+        T element = slots.get(index);
+        slots.set(index, null);
+        sequences.set(index, head + capacity);
+        head++;
+        return element;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.util.matcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Deterministic automaton over type names, compiled from plain type names and from the subset of regular expressions
+ * that is used on module configurations: literal characters, escaped characters, the "." wildcard and the ".*" and
+ * ".+" repetitions, optionally anchored with "^" and "$". Every pattern carries a label and, just like
+ * {@link String#matches(String)}, a pattern is only accepted when it matches the entire type name.
+ *
+ * Running the automaton is a single pass over the characters of the type name without any allocation, which makes it
+ * suitable for the class loading path. Type names can be given either in binary ("a.b.C") or in internal ("a/b/C")
+ * form.
+ */
+public final class TypeNameAutomaton {
+
+    private static final int DeadState = 0;
+    private static final int StartState = 1;
+
+    private final char[][] inputs;
+    private final int[][] targets;
+    private final int[] defaultTargets;
+    private final BitSet[] labels;
+
+    private TypeNameAutomaton(char[][] inputs, int[][] targets, int[] defaultTargets, BitSet[] labels) {
+        this.inputs = inputs;
+        this.targets = targets;
+        this.defaultTargets = defaultTargets;
+        this.labels = labels;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Runs the automaton over the provided type name and returns the final state, which can be used to query the
+     * accepted labels through {@link #labelsOf(int)}.
+     */
+    public int run(String typeName) {
+        int state = StartState;
+        for (int i = 0; i < typeName.length() && state != DeadState; i++) {
+            final char c = typeName.charAt(i);
+            final char input = (c == '/') ? '.' : c;
+            final int index = Arrays.binarySearch(inputs[state], input);
+            state = (index >= 0) ? targets[state][index] : defaultTargets[state];
+        }
+        return state;
+    }
+
+    /**
+     * Labels of all patterns that fully matched the type name that led to the provided state.
+     */
+    public BitSet labelsOf(int state) {
+        return labels[state];
+    }
+
+    public int stateCount() {
+        return labels.length;
+    }
+
+    /**
+     * Collects the patterns and compiles them to a NFA, which is then turned into the DFA using the classic subset
+     * construction. Every pattern gets its own NFA states (even if they share prefixes with other patterns) so that the
+     * loops introduced by ".*" do not leak into other patterns; the subset construction takes care of merging them.
+     */
+    public static final class Builder {
+        private final List<NfaState> nfaStates = new ArrayList<>();
+        private final List<Integer> initialStates = new ArrayList<>();
+
+        private Builder() {}
+
+        /**
+         * Adds a type name that must be matched literally.
+         */
+        public Builder addTypeName(String typeName, int label) {
+            int state = newInitialState();
+            for (int i = 0; i < typeName.length(); i++) {
+                state = literal(state, typeName.charAt(i));
+            }
+            nfaStates.get(state).labels.set(label);
+            return this;
+        }
+
+        /**
+         * Adds all alternatives of a regular expression. Returns false, without adding anything, if any of the
+         * alternatives uses a construct that is not supported by this automaton.
+         */
+        public boolean addPattern(String regex, int label) {
+            final List<String> alternatives = alternativesOf(regex);
+            if (alternatives == null) return false;
+
+            final int rollbackSize = nfaStates.size();
+            final int rollbackInitialStates = initialStates.size();
+            for (String alternative : alternatives) {
+                if (!addAlternative(alternative, label)) {
+                    nfaStates.subList(rollbackSize, nfaStates.size()).clear();
+                    initialStates.subList(rollbackInitialStates, initialStates.size()).clear();
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Adds only the alternatives of a regular expression that are supported by this automaton, which is useful
+         * when the pattern is used for rejecting types: any supported alternative that matches is enough to reject.
+         */
+        public Builder addSupportedAlternatives(String regex, int label) {
+            final List<String> alternatives = alternativesOf(regex);
+            if (alternatives != null) {
+                for (String alternative : alternatives) {
+                    addPattern(alternative, label);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Compiles the automaton, giving up when it would need more than the provided amount of states.
+         */
+        public TypeNameAutomaton build(int maxStates) {
+            final Map<BitSet, Integer> dfaStateIds = new HashMap<>();
+            final List<BitSet> dfaStates = new ArrayList<>();
+            final List<char[]> inputs = new ArrayList<>();
+            final List<int[]> targets = new ArrayList<>();
+            final List<Integer> defaultTargets = new ArrayList<>();
+
+            final BitSet dead = new BitSet();
+            final BitSet start = new BitSet();
+            initialStates.forEach(start::set);
+
+            dfaStateIds.put(dead, DeadState);
+            dfaStates.add(dead);
+            dfaStateIds.putIfAbsent(start, StartState);
+            dfaStates.add(start);
+
+            for (int current = 0; current < dfaStates.size(); current++) {
+                final BitSet nfaSubset = dfaStates.get(current);
+                final TreeSet<Character> alphabet = new TreeSet<>();
+                final BitSet wildcardTargets = new BitSet();
+
+                for (int s = nfaSubset.nextSetBit(0); s >= 0; s = nfaSubset.nextSetBit(s + 1)) {
+                    final NfaState nfaState = nfaStates.get(s);
+                    alphabet.addAll(nfaState.transitions.keySet());
+                    wildcardTargets.or(nfaState.wildcardTransitions);
+                }
+
+                final char[] stateInputs = new char[alphabet.size()];
+                final int[] stateTargets = new int[alphabet.size()];
+                int index = 0;
+                for (Character input : alphabet) {
+                    final BitSet target = (BitSet) wildcardTargets.clone();
+                    for (int s = nfaSubset.nextSetBit(0); s >= 0; s = nfaSubset.nextSetBit(s + 1)) {
+                        final BitSet literalTargets = nfaStates.get(s).transitions.get(input);
+                        if (literalTargets != null) target.or(literalTargets);
+                    }
+                    stateInputs[index] = input;
+                    stateTargets[index] = idOf(target, dfaStateIds, dfaStates);
+                    index++;
+                }
+
+                inputs.add(stateInputs);
+                targets.add(stateTargets);
+                defaultTargets.add(idOf(wildcardTargets, dfaStateIds, dfaStates));
+
+                if (dfaStates.size() > maxStates) return null;
+            }
+
+            final BitSet[] labels = new BitSet[dfaStates.size()];
+            for (int i = 0; i < labels.length; i++) {
+                labels[i] = new BitSet();
+                final BitSet nfaSubset = dfaStates.get(i);
+                for (int s = nfaSubset.nextSetBit(0); s >= 0; s = nfaSubset.nextSetBit(s + 1)) {
+                    labels[i].or(nfaStates.get(s).labels);
+                }
+            }
+
+            return new TypeNameAutomaton(
+                inputs.toArray(new char[0][]),
+                targets.toArray(new int[0][]),
+                defaultTargets.stream().mapToInt(Integer::intValue).toArray(),
+                labels);
+        }
+
+        private static int idOf(BitSet nfaSubset, Map<BitSet, Integer> dfaStateIds, List<BitSet> dfaStates) {
+            return dfaStateIds.computeIfAbsent(nfaSubset, subset -> {
+                dfaStates.add(subset);
+                return dfaStates.size() - 1;
+            });
+        }
+
+        private boolean addAlternative(String pattern, int label) {
+            int state = newInitialState();
+            int position = 0;
+            int end = pattern.length();
+
+            if (pattern.startsWith("^")) position++;
+            if (end > position && pattern.charAt(end - 1) == '$' && !isEscaped(pattern, end - 1)) end--;
+
+            while (position < end) {
+                final char c = pattern.charAt(position);
+                final boolean isRepeated = position + 1 < end && (pattern.charAt(position + 1) == '*' || pattern.charAt(position + 1) == '+');
+
+                if (c == '.' && isRepeated) {
+                    if (pattern.charAt(position + 1) == '+') state = wildcard(state);
+                    nfaStates.get(state).wildcardTransitions.set(state);
+                    position += 2;
+                } else if (c == '.') {
+                    state = wildcard(state);
+                    position++;
+                } else if (c == '\\') {
+                    if (position + 1 >= end || Character.isLetterOrDigit(pattern.charAt(position + 1))) return false;
+                    state = literal(state, pattern.charAt(position + 1));
+                    position += 2;
+                } else if (isRepeated || "()[]{}|?*+^$".indexOf(c) >= 0) {
+                    return false;
+                } else {
+                    state = literal(state, c);
+                    position++;
+                }
+            }
+
+            nfaStates.get(state).labels.set(label);
+            return true;
+        }
+
+        private static boolean isEscaped(String pattern, int position) {
+            int backslashes = 0;
+            for (int i = position - 1; i >= 0 && pattern.charAt(i) == '\\'; i--) backslashes++;
+            return backslashes % 2 == 1;
+        }
+
+        /**
+         * Splits the top level alternatives of a regular expression, returning null if that can not be done safely.
+         */
+        private static List<String> alternativesOf(String regex) {
+            if (regex == null) return null;
+            if (regex.indexOf('(') >= 0 || regex.indexOf('[') >= 0) return null;
+
+            final List<String> alternatives = new ArrayList<>();
+            int start = 0;
+            for (int i = 0; i < regex.length(); i++) {
+                if (regex.charAt(i) == '\\') i++;
+                else if (regex.charAt(i) == '|') {
+                    alternatives.add(regex.substring(start, i));
+                    start = i + 1;
+                }
+            }
+            alternatives.add(regex.substring(start));
+            return alternatives;
+        }
+
+        private int newInitialState() {
+            nfaStates.add(new NfaState());
+            initialStates.add(nfaStates.size() - 1);
+            return nfaStates.size() - 1;
+        }
+
+        private int literal(int from, char input) {
+            nfaStates.add(new NfaState());
+            final int to = nfaStates.size() - 1;
+            nfaStates.get(from).transitions.computeIfAbsent(input, k -> new BitSet()).set(to);
+            return to;
+        }
+
+        private int wildcard(int from) {
+            nfaStates.add(new NfaState());
+            final int to = nfaStates.size() - 1;
+            nfaStates.get(from).wildcardTransitions.set(to);
+            return to;
+        }
+    }
+
+    private static final class NfaState {
+        final Map<Character, BitSet> transitions = new TreeMap<>();
+        final BitSet wildcardTransitions = new BitSet();
+        final BitSet labels = new BitSet();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.util.stats;
+
+import lombok.val;
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.agent.builder.ResettableClassFileTransformer;
+
+import java.lang.instrument.IllegalClassFormatException;
+import java.security.ProtectionDomain;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Time spent by a module on every class load, from the moment its ClassFileTransformer is called until it returns,
+ * and the share of that time spent resolving types from the TypePool. The module is made available to the TypePool
+ * (see {@link #current()}) while its transformer runs.
+ */
+public final class ModuleTimings {
+
+    private static final ThreadLocal<ModuleTimings> current = new ThreadLocal<>();
+
+    private final TimeHistogram classFileTransform = new TimeHistogram();
+    private final TimeHistogram typePoolResolution = new TimeHistogram();
+    private final LongAdder transformedClasses = new LongAdder();
+    private final LongAdder bytesBefore = new LongAdder();
+    private final LongAdder bytesAfter = new LongAdder();
+
+    /**
+     * The timings of the module whose transformer is running on the current thread, if any.
+     */
+    public static ModuleTimings current() {
+        return current.get();
+    }
+
+    /**
+     * Decorator that times every call to the module's transformer.
+     */
+    public AgentBuilder.TransformerDecorator decorator() {
+        return classFileTransformer -> new TimedClassFileTransformer(classFileTransformer);
+    }
+
+    public void recordTypePoolResolution(long nanos) {
+        typePoolResolution.record(nanos);
+    }
+
+    /**
+     * Adds the timings to the provided map, see {@link TimeHistogram#shareInto} for the keys of each histogram.
+     *
+     *   - transformedClasses: How many classes were changed by the module's transformer.
+     *   - bytesBefore and bytesAfter: Total size of the classes changed by the module, before and after the change.
+     */
+    public void shareInto(Map<String, String> target) {
+        target.put("transformedClasses", String.valueOf(transformedClasses.sum()));
+        target.put("bytesBefore", String.valueOf(bytesBefore.sum()));
+        target.put("bytesAfter", String.valueOf(bytesAfter.sum()));
+        classFileTransform.shareInto("classFileTransform", target);
+        typePoolResolution.shareInto("typePoolResolution", target);
+    }
+
+    private class TimedClassFileTransformer extends ResettableClassFileTransformer.WithDelegation {
+
+        TimedClassFileTransformer(ResettableClassFileTransformer classFileTransformer) {
+            super(classFileTransformer);
+        }
+
+        @Override
+        public byte[] transform(ClassLoader classLoader, String internalTypeName, Class<?> classBeingRedefined, ProtectionDomain protectionDomain, byte[] classfileBuffer) throws IllegalClassFormatException {
+            val previous = current.get();
+            current.set(ModuleTimings.this);
+            val start = System.nanoTime();
+            try {
+                val transformed = classFileTransformer.transform(classLoader, internalTypeName, classBeingRedefined, protectionDomain, classfileBuffer);
+                if (transformed != null) {
+                    transformedClasses.increment();
+                    bytesBefore.add(classfileBuffer.length);
+                    bytesAfter.add(transformed.length);
+                }
+                return transformed;
+            } finally {
+                classFileTransform.record(System.nanoTime() - start);
+                current.set(previous);
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.util.stats;
+
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations in nanoseconds, with power of two buckets: bucket N counts the durations between
+ * 2^(N-1) and 2^N nanoseconds, so percentiles are approximated by the upper bound of their bucket.
+ */
+public final class TimeHistogram {
+
+    private static final int Buckets = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(Buckets);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets.incrementAndGet(Math.min(Buckets - 1, Buckets - Long.numberOfLeadingZeros(value)));
+        count.increment();
+        totalNanos.add(value);
+        maxNanos.accumulate(value);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long totalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long maxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Upper bound of the bucket holding the provided percentile (between 0 and 100), or 0 if nothing was recorded.
+     */
+    public long percentileNanos(double percentile) {
+        long total = count();
+        if (total == 0) return 0;
+
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int bucket = 0; bucket < Buckets; bucket++) {
+            seen += buckets.get(bucket);
+            if (seen >= Math.max(1, rank)) return upperBoundOf(bucket);
+        }
+        return maxNanos();
+    }
+
+    /**
+     * Adds the summary of the histogram to the provided map, with all keys starting with the provided prefix:
+     *
+     *   - [prefix]Count: How many durations were recorded.
+     *   - [prefix]Nanos: The sum of all durations.
+     *   - [prefix]P50Nanos, [prefix]P99Nanos and [prefix]MaxNanos: The median, 99th percentile and max durations.
+     *   - [prefix]Histogram: Comma separated "upperBoundNanos=count" pairs of the non-empty buckets.
+     */
+    public void shareInto(String prefix, Map<String, String> target) {
+        target.put(prefix + "Count", String.valueOf(count()));
+        target.put(prefix + "Nanos", String.valueOf(totalNanos()));
+        target.put(prefix + "P50Nanos", String.valueOf(percentileNanos(50)));
+        target.put(prefix + "P99Nanos", String.valueOf(percentileNanos(99)));
+        target.put(prefix + "MaxNanos", String.valueOf(maxNanos()));
+
+        StringJoiner histogram = new StringJoiner(",");
+        for (int bucket = 0; bucket < Buckets; bucket++) {
+            long bucketCount = buckets.get(bucket);
+            if (bucketCount > 0) histogram.add(upperBoundOf(bucket) + "=" + bucketCount);
+        }
+        target.put(prefix + "Histogram", histogram.toString());
+    }
+
+    private static long upperBoundOf(int bucket) {
+        return bucket == 0 ? 0 : (bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1);
+    }
+}
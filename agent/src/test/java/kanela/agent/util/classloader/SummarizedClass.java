@@ -0,0 +1,57 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+
+package kanela.agent.util.classloader;
+
+public class SummarizedClass {
+    public static final String Version = "1.2.3";
+    public static final int Port = 8080;
+    public static final boolean Enabled = true;
+    public static final char Separator = ';';
+    private static long startedAt;
+
+    private final String name;
+    private final int retries;
+    private final boolean pooled;
+    private int attempts;
+
+    public SummarizedClass() {
+        this.name = "default";
+        this.retries = 3;
+        this.pooled = true;
+        this.attempts = 1;
+    }
+
+    public SummarizedClass(int attempts) {
+        this.name = "default";
+        this.retries = 3;
+        this.pooled = true;
+        this.attempts = attempts;
+    }
+
+    static {
+        startedAt = System.currentTimeMillis();
+    }
+
+    public String describe() {
+        return name + retries + pooled + attempts;
+    }
+
+    public String describe(String prefix, int times) {
+        return prefix + times;
+    }
+}
@@ -17,11 +17,14 @@
 package kanela.agent
 
 import java.lang.instrument.{ClassFileTransformer, Instrumentation}
+import java.net.{URL, URLClassLoader}
+
 import org.mockito.Mockito._
 import org.scalatest.{BeforeAndAfterAll, FlatSpec, Matchers}
 import io.vavr.collection.{List => JList}
 import kanela.agent.util.conf.KanelaConfiguration.ModuleConfiguration
 import kanela.agent.util.conf.KanelaConfiguration
+import kanela.agent.instrumentation.StartupRecordingInstrumentationBuilder
 import net.bytebuddy.agent.builder.AgentBuilder.Default.ExecutingTransformer
 import org.mockito.ArgumentMatchers._
 
@@ -87,4 +90,53 @@ class InstrumentationLoaderSpec extends FlatSpec with Matchers with BeforeAndAft
 
     verify(instrumentationMock, times(1)).addTransformer(any())
   }
+
+  "with the parallel startup enabled" should "return the modules in their configured order" in {
+    val slowModule = moduleWith("slow-module", "kanela.agent.instrumentation.StartupRecordingInstrumentationBuilder")
+    val fastModule = moduleWith("fast-module", "kanela.agent.instrumentation.KamonFakeInstrumentationBuilder")
+
+    val installers = InstrumentationLoader.prepareModules(mock(classOf[Instrumentation]), Thread.currentThread().getContextClassLoader, withParallelStartup(slowModule, fastModule))
+
+    installers.map[String](_.getModuleDescription.getName).toJavaList shouldBe java.util.Arrays.asList("slow-module", "fast-module")
+  }
+
+  it should "propagate the failure of the first module that failed" in {
+    val firstFailure = moduleWith("first-failure", "kanela.agent.instrumentation.StartupRecordingInstrumentationBuilder")
+    when(firstFailure.getInstrumentations).thenThrow(new IllegalStateException("first"))
+    val secondFailure = moduleWith("second-failure", "kanela.agent.instrumentation.KamonFakeInstrumentationBuilder")
+    when(secondFailure.getInstrumentations).thenThrow(new IllegalStateException("second"))
+
+    val failure = intercept[IllegalStateException] {
+      InstrumentationLoader.prepareModules(mock(classOf[Instrumentation]), Thread.currentThread().getContextClassLoader, withParallelStartup(firstFailure, secondFailure))
+    }
+    failure.getMessage shouldBe "first"
+  }
+
+  it should "load the instrumentations with the agent's context class loader" in {
+    val ctxClassloader = new URLClassLoader(Array.empty[URL], getClass.getClassLoader)
+    val modules = (1 to 2).map(i => moduleWith(s"module-$i", "kanela.agent.instrumentation.StartupRecordingInstrumentationBuilder"))
+    StartupRecordingInstrumentationBuilder.contextClassLoaders.clear()
+
+    InstrumentationLoader.prepareModules(mock(classOf[Instrumentation]), ctxClassloader, withParallelStartup(modules: _*))
+
+    StartupRecordingInstrumentationBuilder.contextClassLoaders.toArray should contain only ctxClassloader
+    StartupRecordingInstrumentationBuilder.contextClassLoaders.size shouldBe 2
+  }
+
+  def moduleWith(name: String, instrumentation: String): ModuleConfiguration = {
+    val module = mock(classOf[ModuleConfiguration])
+    when(module.getInstrumentations).thenReturn(JList.of[String](instrumentation))
+    when(module.getWithinPackage).thenReturn("")
+    when(module.getName).thenReturn(name)
+    module
+  }
+
+  def withParallelStartup(modules: ModuleConfiguration*): KanelaConfiguration = {
+    val agentConfiguration = spy(KanelaConfiguration.instance())
+    val parallelStartup = spy(KanelaConfiguration.instance().getParallelStartup)
+    when(parallelStartup.isEnabled).thenReturn(true)
+    when(agentConfiguration.getParallelStartup).thenReturn(parallelStartup)
+    when(agentConfiguration.getAgentModules).thenReturn(JList.of(modules: _*))
+    agentConfiguration
+  }
 }
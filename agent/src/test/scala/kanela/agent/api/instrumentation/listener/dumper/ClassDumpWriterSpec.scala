@@ -0,0 +1,107 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+
+package kanela.agent.api.instrumentation.listener.dumper
+
+import java.nio.file.{Files, Path}
+import java.util.Comparator
+import java.util.concurrent.{CountDownLatch, ExecutorService, Executors}
+import java.util.jar.{Attributes, JarFile}
+
+import org.scalatest.{Matchers, WordSpecLike}
+
+class ClassDumpWriterSpec extends Matchers with WordSpecLike {
+
+  "The class dump writer" should {
+    "write the classes into a valid jar" in withDirectory { directory =>
+      val jarFile = directory.resolve("instrumented-classes.jar").toFile
+      val writer = new ClassDumpWriter(directory.toFile, jarFile, 10)
+
+      writer.enqueue("app/First.class", Array[Byte](1, 2, 3)) shouldBe true
+      writer.enqueue("app/Second.class", Array[Byte](4, 5)) shouldBe true
+      writer.close(10000)
+
+      val jar = new JarFile(jarFile)
+      try {
+        jar.getManifest.getMainAttributes.get(Attributes.Name.MANIFEST_VERSION) shouldBe "1.0"
+        contentsOf(jar, "app/First.class") shouldBe Array[Byte](1, 2, 3)
+        contentsOf(jar, "app/Second.class") shouldBe Array[Byte](4, 5)
+      } finally jar.close()
+    }
+
+    "keep the first version of a class that is dumped more than once on the jar" in withDirectory { directory =>
+      val jarFile = directory.resolve("instrumented-classes.jar").toFile
+      val writer = new ClassDumpWriter(directory.toFile, jarFile, 10)
+
+      writer.enqueue("app/Retransformed.class", Array[Byte](1)) shouldBe true
+      writer.enqueue("app/Retransformed.class", Array[Byte](2)) shouldBe true
+      writer.close(10000)
+
+      writer.getDuplicated shouldBe 1
+      val jar = new JarFile(jarFile)
+      try contentsOf(jar, "app/Retransformed.class") shouldBe Array[Byte](1) finally jar.close()
+    }
+
+    "drop and count the classes that do not fit on the queue" in withDirectory { directory =>
+      withBlockedWriterThread { (executor, release) =>
+        val writer = new ClassDumpWriter(directory.toFile, null, 1, executor)
+
+        writer.enqueue("app/Kept.class", Array[Byte](1)) shouldBe true
+        writer.enqueue("app/Dropped.class", Array[Byte](2)) shouldBe false
+        writer.getDropped shouldBe 1
+
+        release.countDown()
+        writer.close(10000)
+        Files.exists(directory.resolve("app/Kept.class")) shouldBe true
+        Files.exists(directory.resolve("app/Dropped.class")) shouldBe false
+      }
+    }
+
+    "write the classes left on the queue when it is closed" in withDirectory { directory =>
+      withBlockedWriterThread { (executor, release) =>
+        val writer = new ClassDumpWriter(directory.toFile, null, 1000, executor)
+        (1 to 500).foreach(i => writer.enqueue(s"app/Class$i.class", Array[Byte](i.toByte)) shouldBe true)
+
+        release.countDown()
+        writer.close(10000)
+        (1 to 500).foreach(i => Files.readAllBytes(directory.resolve(s"app/Class$i.class")) shouldBe Array[Byte](i.toByte))
+        writer.enqueue("app/Late.class", Array[Byte](1)) shouldBe false
+      }
+    }
+  }
+
+  // The writer is queued behind a task that waits for the release, so nothing is written until then.
+  def withBlockedWriterThread(test: (ExecutorService, CountDownLatch) => Unit): Unit = {
+    val executor = Executors.newSingleThreadExecutor()
+    val release = new CountDownLatch(1)
+    executor.execute(new Runnable { override def run(): Unit = release.await() })
+    try test(executor, release) finally {
+      release.countDown()
+      executor.shutdownNow()
+    }
+  }
+
+  def contentsOf(jar: JarFile, entryName: String): Array[Byte] = {
+    val in = jar.getInputStream(jar.getJarEntry(entryName))
+    try Stream.continually(in.read()).takeWhile(_ != -1).map(_.toByte).toArray finally in.close()
+  }
+
+  def withDirectory(test: Path => Unit): Unit = {
+    val directory = Files.createTempDirectory("class-dump-spec")
+    try test(directory) finally Files.walk(directory).sorted(Comparator.reverseOrder[Path]()).forEach(file => Files.delete(file))
+  }
+}
@@ -50,6 +50,45 @@ class CallStackDepth extends Matchers with WordSpecLike with BeforeAndAfterAll {
       CallStackDepth.incrementFor(a) shouldBe 1
       CallStackDepth.incrementFor(b) shouldBe 1
     }
+
+    "increment the value of slots in successive calls and then reset" in {
+      val a = CallStackDepth.slotFor("advice.Successive")
+      val b = CallStackDepth.newSlot()
+
+      CallStackDepth.incrementForSlot(a) shouldBe 0
+      CallStackDepth.incrementForSlot(b) shouldBe 0
+
+      CallStackDepth.incrementForSlot(a) shouldBe 1
+      CallStackDepth.incrementForSlot(b) shouldBe 1
+
+      CallStackDepth.resetForSlot(a)
+
+      CallStackDepth.incrementForSlot(a) shouldBe 0
+      CallStackDepth.incrementForSlot(b) shouldBe 2
+
+      CallStackDepth.resetForSlot(a)
+      CallStackDepth.resetForSlot(b)
+    }
+
+    "assign the same slot to the same name" in {
+      CallStackDepth.slotFor("advice.Same") shouldBe CallStackDepth.slotFor(new String("advice.Same"))
+      CallStackDepth.slotFor("advice.Same") should not be CallStackDepth.slotFor("advice.Other")
+    }
+
+    "keep the depth of slots apart between threads" in {
+      val slot = CallStackDepth.slotFor("advice.PerThread")
+      CallStackDepth.incrementForSlot(slot) shouldBe 0
+
+      var depthOnOtherThread = -1
+      val thread = new Thread(new Runnable {
+        override def run(): Unit = depthOnOtherThread = CallStackDepth.incrementForSlot(slot)
+      })
+      thread.start()
+      thread.join()
+
+      depthOnOtherThread shouldBe 0
+      CallStackDepth.incrementForSlot(slot) shouldBe 1
+      CallStackDepth.resetForSlot(slot)
+    }
   }
 }
-
@@ -0,0 +1,91 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+
+package kanela.agent.bootstrap.metrics
+
+import java.util.{HashMap => JHashMap, Map => JMap}
+
+import kanela.agent.bootstrap.metrics.MetricsProvider.Counter
+import org.mockito.ArgumentMatchers.{any, anyString}
+import org.mockito.Mockito._
+import org.scalatest.{Matchers, WordSpecLike}
+
+class MetricsHandlerSpec extends Matchers with WordSpecLike {
+  "The MetricsHandler" should {
+    "return the same handle when registering the same instrument twice" in {
+      val counter = MetricsHandler.counter("identity.requests", tags("method" -> "GET"))
+
+      MetricsHandler.counter("identity.requests", tags("method" -> "GET")) shouldBe theSameInstanceAs(counter)
+      MetricsHandler.counter("identity.requests", tags("method" -> "POST")) should not be theSameInstanceAs(counter)
+      MetricsHandler.counter("identity.errors", tags("method" -> "GET")) should not be theSameInstanceAs(counter)
+      MetricsHandler.histogram("identity.requests", tags("method" -> "GET")) should not be theSameInstanceAs(counter)
+    }
+
+    "not be affected by changes to the tags once registered" in {
+      val callerTags = tags("method" -> "GET")
+      val counter = MetricsHandler.counter("copied.requests", callerTags)
+
+      callerTags.put("method", "POST")
+
+      MetricsHandler.counter("copied.requests", tags("method" -> "GET")) shouldBe theSameInstanceAs(counter)
+      MetricsHandler.counter("copied.requests", tags("method" -> "POST")) should not be theSameInstanceAs(counter)
+    }
+
+    "bind the handles registered before a provider is set, and rebind them when it changes" in {
+      val counter = MetricsHandler.counter("rebound.requests", tags("method" -> "GET"))
+      counter.increment()
+
+      val (firstProvider, firstCounter) = providerWithCounter()
+      MetricsHandler.setMetricsProvider(firstProvider)
+      counter.increment()
+      verify(firstProvider).counter("rebound.requests", tags("method" -> "GET"))
+      verify(firstCounter, times(1)).increment()
+
+      val (secondProvider, secondCounter) = providerWithCounter()
+      MetricsHandler.setMetricsProvider(secondProvider)
+      counter.increment(5)
+      verify(secondCounter).increment(5)
+      verifyNoMoreInteractions(firstCounter)
+    }
+
+    "hand an unmodifiable copy of the tags to the provider" in {
+      val (provider, _) = providerWithCounter()
+      MetricsHandler.setMetricsProvider(provider)
+
+      val callerTags = tags("method" -> "GET")
+      MetricsHandler.counter("unmodifiable.requests", callerTags)
+
+      val bound = org.mockito.ArgumentCaptor.forClass(classOf[JMap[String, String]])
+      verify(provider).counter(org.mockito.ArgumentMatchers.eq("unmodifiable.requests"), bound.capture())
+      bound.getValue should not be theSameInstanceAs(callerTags)
+      an[UnsupportedOperationException] should be thrownBy bound.getValue.put("method", "POST")
+    }
+  }
+
+  private def tags(entries: (String, String)*): JMap[String, String] = {
+    val map = new JHashMap[String, String]()
+    entries.foreach { case (key, value) => map.put(key, value) }
+    map
+  }
+
+  private def providerWithCounter(): (MetricsProvider, Counter) = {
+    val provider = mock(classOf[MetricsProvider])
+    val counter = mock(classOf[Counter])
+    when(provider.counter(anyString(), any())).thenReturn(counter)
+    (provider, counter)
+  }
+}
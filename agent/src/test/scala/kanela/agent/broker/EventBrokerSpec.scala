@@ -16,6 +16,8 @@
 
 package kanela.agent.broker
 
+import java.util.concurrent.{CountDownLatch, TimeUnit}
+
 import org.mockito.ArgumentMatchers.any
 import org.mockito.Mockito._
 import org.scalatest.{ BeforeAndAfterAll, Matchers, WordSpecLike }
@@ -54,6 +56,49 @@ class EventBrokerSpec extends Matchers with WordSpecLike with BeforeAndAfterAll
 
       verify(observer, times(1)).onString(StringMessage)
     }
+
+    "publish events to the subscribers of their type and supertypes" in {
+      val broker = new EventBroker()
+      val subscriber = new RecordingSubscriber
+      broker.add(subscriber)
+
+      broker.publish(new SpecificEvent) shouldBe 2
+      broker.publish(new GenericEvent) shouldBe 1
+      broker.publish("unrelated") shouldBe 0
+
+      subscriber.specific shouldBe 1
+      subscriber.generic shouldBe 2
+    }
+
+    "stop publishing to removed subscribers" in {
+      val broker = new EventBroker()
+      val subscriber = new RecordingSubscriber
+      broker.add(subscriber)
+      broker.remove(subscriber)
+
+      broker.publish(new SpecificEvent) shouldBe 0
+      subscriber.specific shouldBe 0
+    }
+
+    "keep publishing to other subscribers when one of them fails" in {
+      val broker = new EventBroker()
+      val subscriber = new RecordingSubscriber
+      broker.add(new FailingSubscriber)
+      broker.add(subscriber)
+
+      broker.publish(new GenericEvent) shouldBe 2
+      subscriber.generic shouldBe 1
+    }
+
+    "deliver events to async subscribers on the broker thread" in {
+      val broker = new EventBroker()
+      val subscriber = new AsyncSubscriber
+      broker.add(subscriber)
+
+      broker.publish(new GenericEvent) shouldBe 1
+      subscriber.received.await(5, TimeUnit.SECONDS) shouldBe true
+      subscriber.threadName should startWith("kamon-agent-event-broker")
+    }
   }
 }
 
@@ -61,3 +106,33 @@ class EventObserver {
   @Subscribe
   def onString(s: String): Unit = {}
 }
+
+class GenericEvent
+class SpecificEvent extends GenericEvent
+
+class RecordingSubscriber {
+  var specific = 0
+  var generic = 0
+
+  @Subscribe
+  def onSpecificEvent(event: SpecificEvent): Unit = specific += 1
+
+  @Subscribe
+  def onGenericEvent(event: GenericEvent): Unit = generic += 1
+}
+
+class FailingSubscriber {
+  @Subscribe
+  def onGenericEvent(event: GenericEvent): Unit = throw new RuntimeException("failing on purpose")
+}
+
+class AsyncSubscriber {
+  val received = new CountDownLatch(1)
+  @volatile var threadName: String = _
+
+  @Subscribe(async = true)
+  def onGenericEvent(event: GenericEvent): Unit = {
+    threadName = Thread.currentThread().getName
+    received.countDown()
+  }
+}
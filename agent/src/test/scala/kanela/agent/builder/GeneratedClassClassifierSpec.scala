@@ -0,0 +1,63 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+
+package kanela.agent.builder
+
+import io.vavr.collection.{List => JList}
+import kanela.agent.util.conf.KanelaConfiguration
+import org.mockito.Mockito._
+import org.scalatest.{Matchers, WordSpecLike}
+
+class GeneratedClassClassifierSpec extends Matchers with WordSpecLike {
+  private val defaultClassifier = GeneratedClassClassifier.from(KanelaConfiguration.instance().getGeneratedClasses)
+  private val classifier = {
+    val config = spy(KanelaConfiguration.instance().getGeneratedClasses)
+    when(config.getNameFragments).thenReturn(JList.of("$$Lambda$", ".$Proxy", "$$EnhancerBy", "$HibernateProxy$", "$ByteBuddy$", "$auxiliary$"))
+    GeneratedClassClassifier.from(config)
+  }
+
+  "The GeneratedClassClassifier" should {
+    "recognize generated classes by the shape of their internal names" in {
+      Seq(
+        "com/sun/proxy/$Proxy12",
+        "app/Service$$Lambda$42/0x0000000800c0b440",
+        "app/Service$$EnhancerBySpringCGLIB$$9f5a3c1",
+        "app/Entity$HibernateProxy$Xx8dKk3a",
+        "sun/reflect/GeneratedMethodAccessor7"
+      ).foreach(typeName => classifier.isGenerated(typeName) shouldBe true)
+    }
+
+    "leave regular classes alone" in {
+      Seq("app/Service", "app/Service$Inner", "scala/concurrent/Future$").foreach(typeName => classifier.isGenerated(typeName) shouldBe false)
+    }
+
+    "only skip ByteBuddy types and reflection accessors by default" in {
+      Seq(
+        "app/Service$ByteBuddy$a1b2c3",
+        "app/Service$auxiliary$x9y8z7",
+        "sun/reflect/GeneratedMethodAccessor7",
+        "jdk/internal/reflect/GeneratedConstructorAccessor3"
+      ).foreach(typeName => defaultClassifier.isGenerated(typeName) shouldBe true)
+
+      Seq(
+        "com/sun/proxy/$Proxy12",
+        "app/Service$$EnhancerBySpringCGLIB$$9f5a3c1",
+        "app/Service$$anonfun$run$1"
+      ).foreach(typeName => defaultClassifier.isGenerated(typeName) shouldBe false)
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+
+package kanela.agent.builder
+
+import java.lang.instrument.{ClassFileTransformer, Instrumentation}
+
+import io.vavr.collection.{List => JList}
+import kanela.agent.api.instrumentation.InstrumentationBuilder
+import kanela.agent.builder.MergedInstallSpec.MixinInstrumentation
+import kanela.agent.reinstrument.RetransformationJob
+import kanela.agent.util.conf.KanelaConfiguration
+import kanela.agent.util.conf.KanelaConfiguration.ModuleConfiguration
+import org.mockito.ArgumentMatchers.any
+import org.mockito.Mockito._
+import org.scalatest.{Matchers, WordSpecLike}
+
+import scala.collection.JavaConverters._
+
+class MergedInstallSpec extends Matchers with WordSpecLike {
+  private val configuration = KanelaConfiguration.instance()
+  private val batchAllocator = RetransformationJob.batchAllocator(configuration.getReinstrumentation)
+
+  "The merged install mode" should {
+    "merge only the modules that share their stop and retransformation strategy" in {
+      val instrumentation = retransformingInstrumentation()
+      val transformers = installMerged(instrumentation, module("stoppable-a", stoppable = true), module("mixins", stoppable = false), module("stoppable-b", stoppable = true))
+
+      transformers.map(_.isStoppable) shouldBe Seq(true, false)
+      // The stoppable modules retransform the loaded classes, while the mixins only apply to the classes loaded later.
+      verify(instrumentation).addTransformer(transformers.head.getClassFileTransformer, true)
+      verify(instrumentation).addTransformer(transformers(1).getClassFileTransformer)
+    }
+
+    "only reset the stoppable modules when stopped and install them again when restarted" in {
+      val instrumentation = retransformingInstrumentation()
+      val transformers = installMerged(instrumentation, module("stoppable", stoppable = true), module("mixins", stoppable = false))
+      val stoppable = transformers.filter(_.isStoppable)
+      val unstoppable = transformers.filterNot(_.isStoppable).head.getClassFileTransformer
+      val stopped = stoppable.head.getClassFileTransformer
+
+      stoppable.foreach(_.stop(batchAllocator) shouldBe true)
+      verify(instrumentation).removeTransformer(stopped)
+      verify(instrumentation, never()).removeTransformer(unstoppable)
+
+      stoppable.foreach(_.reinstall())
+      val restarted = stoppable.head.getClassFileTransformer
+      restarted should not be theSameInstanceAs(stopped)
+      verify(instrumentation).addTransformer(restarted, true)
+
+      stoppable.foreach(_.stop(batchAllocator) shouldBe true)
+      verify(instrumentation).removeTransformer(restarted)
+      verify(instrumentation, never()).removeTransformer(unstoppable)
+    }
+  }
+
+  private def installMerged(instrumentation: Instrumentation, modules: ModuleConfiguration*): Seq[KanelaFileTransformer] = {
+    val installers = JList.ofAll(modules.map { module =>
+      new MixinInstrumentation().collectTransformations(module).asScala
+        .foldLeft(AgentInstaller.from(configuration, module, instrumentation))(_ addTypeTransformation _)
+    }.asJava)
+
+    AgentInstaller.installMerged(installers, ClassNamePrefilter.from(installers), instrumentation).toJavaList.asScala
+  }
+
+  private def module(name: String, stoppable: Boolean): ModuleConfiguration = {
+    val module = mock(classOf[ModuleConfiguration])
+    when(module.getName).thenReturn(name)
+    when(module.getConfigPath).thenReturn(name)
+    when(module.getWithinPackage).thenReturn("kanela\\.agent\\.builder\\..*")
+    when(module.getExcludePackage).thenReturn("")
+    when(module.isStoppable).thenReturn(stoppable)
+    module
+  }
+
+  private def retransformingInstrumentation(): Instrumentation = {
+    val instrumentation = mock(classOf[Instrumentation])
+    when(instrumentation.isRetransformClassesSupported).thenReturn(true)
+    when(instrumentation.getAllLoadedClasses).thenReturn(Array.empty[Class[_]])
+    when(instrumentation.removeTransformer(any[ClassFileTransformer]())).thenReturn(true)
+    instrumentation
+  }
+}
+
+object MergedInstallSpec {
+  trait Marker
+
+  class Mixin extends Marker
+
+  class MixinInstrumentation extends InstrumentationBuilder {
+    onType("kanela.agent.builder.MergedInstallSpec$Target").mixin(classOf[Mixin])
+  }
+}
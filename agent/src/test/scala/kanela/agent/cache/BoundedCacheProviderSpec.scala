@@ -0,0 +1,83 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.cache
+
+import kanela.agent.cache.PoolStrategyCache.{BoundedCacheProvider, Counters, SharedTypes}
+import net.bytebuddy.description.`type`.TypeDescription
+import net.bytebuddy.pool.TypePool
+import org.scalatest.{Matchers, WordSpecLike}
+
+class BoundedCacheProviderSpec extends Matchers with WordSpecLike {
+  "The BoundedCacheProvider" should {
+    "count hits and misses" in {
+      val counters = new Counters
+      val cacheProvider = new BoundedCacheProvider(10, counters, null)
+
+      cacheProvider.find("app.kanela.Foo") shouldBe null
+      cacheProvider.register("app.kanela.Foo", new TypePool.Resolution.Illegal("app.kanela.Foo"))
+      cacheProvider.find("app.kanela.Foo") should not be null
+
+      counters.hits.sum() shouldBe 1
+      counters.misses.sum() shouldBe 1
+    }
+
+    "evict the least recently used types when it grows past its bound" in {
+      val counters = new Counters
+      val cacheProvider = new BoundedCacheProvider(10, counters, null)
+
+      (1 to 10).foreach { i =>
+        cacheProvider.register(s"app.kanela.Type$i", new TypePool.Resolution.Illegal(s"app.kanela.Type$i"))
+        Thread.sleep(1)
+      }
+      cacheProvider.find("app.kanela.Type1") should not be null
+      cacheProvider.register("app.kanela.Type11", new TypePool.Resolution.Illegal("app.kanela.Type11"))
+
+      cacheProvider.size() shouldBe 9
+      counters.evictions.sum() shouldBe 2
+      cacheProvider.find("app.kanela.Type1") should not be null
+      cacheProvider.find("app.kanela.Type11") should not be null
+      cacheProvider.find("app.kanela.Type2") shouldBe null
+      cacheProvider.find("app.kanela.Type3") shouldBe null
+    }
+
+    "share the types of the shared packages between class loaders" in {
+      val counters = new Counters
+      val sharedTypes = new SharedTypes(Array("java."), new BoundedCacheProvider(10, counters, null))
+      val first = new BoundedCacheProvider(10, counters, sharedTypes)
+      val second = new BoundedCacheProvider(10, counters, sharedTypes)
+
+      first.find("java.util.ArrayList").resolve().getSuperClass.asErasure().getName shouldBe "java.util.AbstractList"
+      second.find("java.util.ArrayList").resolve().getSuperClass.asErasure().getName shouldBe "java.util.AbstractList"
+      first.find("app.kanela.Foo") shouldBe null
+
+      sharedTypes.size() shouldBe 1
+      first.size() shouldBe 0
+      second.size() shouldBe 0
+    }
+
+    "resolve the types of the shared packages that the platform class loader can not see on each class loader" in {
+      val counters = new Counters
+      val sharedTypes = new SharedTypes(Array("java."), new BoundedCacheProvider(10, counters, null))
+      val cacheProvider = new BoundedCacheProvider(10, counters, sharedTypes)
+
+      cacheProvider.find("java.kanela.Foo") shouldBe null
+      cacheProvider.register("java.kanela.Foo", new TypePool.Resolution.Simple(TypeDescription.OBJECT))
+      cacheProvider.find("java.kanela.Foo").resolve() shouldBe TypeDescription.OBJECT
+      cacheProvider.size() shouldBe 1
+    }
+  }
+}
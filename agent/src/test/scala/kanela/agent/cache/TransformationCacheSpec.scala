@@ -0,0 +1,189 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+
+package kanela.agent.cache
+
+import java.net.URLClassLoader
+import java.nio.file.{Files, Path}
+import java.security.ProtectionDomain
+import java.util.Comparator
+import java.util.concurrent.atomic.AtomicInteger
+
+import io.vavr.collection.{List => JList}
+import kanela.agent.util.conf.KanelaConfiguration.{BootstrapInjectionConfig, ModuleConfiguration, TransformationCacheConfig}
+import net.bytebuddy.agent.builder.{AgentBuilder, ResettableClassFileTransformer}
+import net.bytebuddy.description.`type`.TypeDescription
+import net.bytebuddy.dynamic.DynamicType
+import org.mockito.ArgumentMatchers.any
+import org.mockito.Mockito._
+import org.mockito.invocation.InvocationOnMock
+import org.mockito.stubbing.Answer
+import org.scalatest.{Matchers, WordSpecLike}
+
+class TransformationCacheSpec extends Matchers with WordSpecLike {
+  private val TypeName = "app/kanela/Service"
+  private val Original = "original".getBytes
+  private val Transformed = "transformed".getBytes
+  private val AgentVersion = "1.0.0"
+
+  "The TransformationCache" should {
+    "serve the stored bytes on the next start, without transforming again" in withCacheDirectory { (directory, instrumentations) =>
+      val module = moduleConfig()
+      transform(open(directory, module, instrumentations), cacheable) shouldBe Transformed
+
+      val delegate = transformer(cacheable)
+      transform(open(directory, module, instrumentations), delegate) shouldBe Transformed
+      verify(delegate, never()).transform(any[ClassLoader](), any[String](), any[Class[_]](), any[ProtectionDomain](), any[Array[Byte]]())
+    }
+
+    "not serve bytes stored for other original bytes of the type" in withCacheDirectory { (directory, instrumentations) =>
+      val module = moduleConfig()
+      transform(open(directory, module, instrumentations), cacheable) shouldBe Transformed
+
+      val delegate = transformer(cacheable)
+      decorate(open(directory, module, instrumentations), delegate).transform(getClass.getClassLoader, TypeName, null, null, "changed".getBytes)
+      verify(delegate).transform(any[ClassLoader](), any[String](), any[Class[_]](), any[ProtectionDomain](), any[Array[Byte]]())
+    }
+
+    "start from scratch when the agent version changes" in withCacheDirectory { (directory, instrumentations) =>
+      val module = moduleConfig()
+      transform(open(directory, module, instrumentations), cacheable)
+
+      shouldTransformAgain(open(directory, module, instrumentations, agentVersion = "1.0.1"))
+      Files.list(directory.resolve("module")).count() shouldBe 1
+    }
+
+    "start from scratch when the module settings change" in withCacheDirectory { (directory, instrumentations) =>
+      transform(open(directory, moduleConfig(), instrumentations), cacheable)
+
+      shouldTransformAgain(open(directory, moduleConfig(within = "app\\.kanela\\.other\\..*"), instrumentations))
+      Files.list(directory.resolve("module")).count() shouldBe 1
+    }
+
+    "start from scratch when the jar providing the instrumentations changes" in withCacheDirectory { (directory, instrumentations) =>
+      val module = moduleConfig()
+      transform(open(directory, module, instrumentations), cacheable)
+
+      val changedInstrumentations = instrumentationsDirectory(directory.resolveSibling("changed-instrumentations"), "changed instrumentation")
+      shouldTransformAgain(open(directory, module, changedInstrumentations))
+    }
+
+    "never serve the types transformed by uncacheable transformations" in withCacheDirectory { (directory, instrumentations) =>
+      val module = moduleConfig()
+      val cache = open(directory, module, instrumentations)
+      transform(cache, uncacheable(cache)) shouldBe Transformed
+
+      shouldTransformAgain(open(directory, module, instrumentations))
+    }
+
+    "never serve the types whose transformation created auxiliary types" in withCacheDirectory { (directory, instrumentations) =>
+      val module = moduleConfig()
+      val dynamicType = mock(classOf[DynamicType])
+      when(dynamicType.getAuxiliaryTypes).thenReturn(java.util.Collections.singletonMap[TypeDescription, Array[Byte]](TypeDescription.OBJECT, Array[Byte]()))
+      transform(open(directory, module, instrumentations), cache => transformed(cache, dynamicType)) shouldBe Transformed
+
+      shouldTransformAgain(open(directory, module, instrumentations))
+    }
+
+    "inject the helpers before serving a cached type" in withCacheDirectory { (directory, instrumentations) =>
+      val module = moduleConfig()
+      val injections = new AtomicInteger()
+      transform(open(directory, module, instrumentations), cacheable, () => injections.incrementAndGet())
+      // Types that are transformed get the helpers injected by the module's transformers.
+      injections.get() shouldBe 0
+
+      val cache = open(directory, module, instrumentations)
+      val delegate = transformer(cacheable)(cache)
+      cache.decorator(new Runnable { override def run(): Unit = injections.incrementAndGet() }).decorate(delegate).transform(getClass.getClassLoader, TypeName, null, null, Original) shouldBe Transformed
+      injections.get() shouldBe 1
+      verify(delegate, never()).transform(any[ClassLoader](), any[String](), any[Class[_]](), any[ProtectionDomain](), any[Array[Byte]]())
+    }
+  }
+
+  private type Transformation = TransformationCache => Array[Byte]
+
+  private val cacheable: Transformation = cache => transformed(cache, mock(classOf[DynamicType]))
+
+  private def uncacheable(cache: TransformationCache): Transformation = _ => {
+    val builder = mock(classOf[DynamicType.Builder[_]])
+    cache.uncacheable(new AgentBuilder.Transformer {
+      override def transform(builder: DynamicType.Builder[_], typeDescription: TypeDescription, classLoader: ClassLoader, module: net.bytebuddy.utility.JavaModule): DynamicType.Builder[_] = builder
+    }).transform(builder, TypeDescription.OBJECT, getClass.getClassLoader, null)
+    transformed(cache, mock(classOf[DynamicType]))
+  }
+
+  // Reports the transformation to the cache the same way ByteBuddy does once the type is made.
+  private def transformed(cache: TransformationCache, dynamicType: DynamicType): Array[Byte] = {
+    cache.listener().onTransformation(TypeDescription.OBJECT, getClass.getClassLoader, null, false, dynamicType)
+    Transformed
+  }
+
+  private def transform(cache: TransformationCache, transformation: Transformation, beforeServing: () => Unit = () => ()): Array[Byte] =
+    cache.decorator(new Runnable { override def run(): Unit = beforeServing() }).decorate(transformer(transformation)(cache)).transform(getClass.getClassLoader, TypeName, null, null, Original)
+
+  private def decorate(cache: TransformationCache, delegate: ResettableClassFileTransformer): ResettableClassFileTransformer =
+    cache.decorator().decorate(delegate)
+
+  private def shouldTransformAgain(cache: TransformationCache): Unit = {
+    val delegate = transformer(cacheable)(cache)
+    decorate(cache, delegate).transform(getClass.getClassLoader, TypeName, null, null, Original) shouldBe Transformed
+    verify(delegate).transform(any[ClassLoader](), any[String](), any[Class[_]](), any[ProtectionDomain](), any[Array[Byte]]())
+  }
+
+  private def transformer(transformation: Transformation)(cache: TransformationCache): ResettableClassFileTransformer = {
+    val delegate = mock(classOf[ResettableClassFileTransformer])
+    when(delegate.transform(any[ClassLoader](), any[String](), any[Class[_]](), any[ProtectionDomain](), any[Array[Byte]]()))
+      .thenAnswer(new Answer[Array[Byte]] {
+        override def answer(invocation: InvocationOnMock): Array[Byte] = transformation(cache)
+      })
+    delegate
+  }
+
+  private def open(directory: Path, module: ModuleConfiguration, instrumentations: ClassLoader, agentVersion: String = AgentVersion): TransformationCache = {
+    val config = mock(classOf[TransformationCacheConfig])
+    when(config.getDir).thenReturn(directory.toString)
+    TransformationCache.forModule(config, module, instrumentations, agentVersion).get
+  }
+
+  private def moduleConfig(within: String = "app\\.kanela\\..*"): ModuleConfiguration = {
+    val bootstrapInjection = mock(classOf[BootstrapInjectionConfig])
+    when(bootstrapInjection.getHelperClassNames).thenReturn(JList.empty[String]())
+
+    val module = mock(classOf[ModuleConfiguration])
+    when(module.getConfigPath).thenReturn("module")
+    when(module.getName).thenReturn("module")
+    when(module.getInstrumentations).thenReturn(JList.of("app.kanela.Instrumentation"))
+    when(module.getWithinPackage).thenReturn(within)
+    when(module.getExcludePackage).thenReturn("")
+    when(module.getBootstrapInjectionConfig).thenReturn(bootstrapInjection)
+    when(module.getExceptionHandlerStrategy).thenReturn("LOG")
+    module
+  }
+
+  private def instrumentationsDirectory(directory: Path, contents: String): ClassLoader = {
+    val instrumentation = directory.resolve("app/kanela/Instrumentation.class")
+    Files.createDirectories(instrumentation.getParent)
+    Files.write(instrumentation, contents.getBytes)
+    new URLClassLoader(Array(directory.toUri.toURL), null)
+  }
+
+  private def withCacheDirectory(test: (Path, ClassLoader) => Unit): Unit = {
+    val directory = Files.createTempDirectory("transformation-cache-spec")
+    try test(directory.resolve("cache"), instrumentationsDirectory(directory.resolve("instrumentations"), "instrumentation"))
+    finally Files.walk(directory).sorted(Comparator.reverseOrder[Path]()).forEach(file => Files.delete(file))
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.circuitbreaker
+
+import io.vavr.collection.{List => JList}
+import kanela.agent.broker.EventBroker
+import kanela.agent.reinstrument.Reinstrumenter.ReinstrumentationProtocol.{RestartModules, StopModules}
+import kanela.agent.util.conf.KanelaConfiguration
+import org.mockito.ArgumentMatchers.any
+import org.mockito.Mockito._
+import org.scalatest.{Matchers, WordSpecLike}
+
+class OverloadCircuitBreakerSpec extends Matchers with WordSpecLike {
+  "The OverloadCircuitBreaker" should {
+    "trip once the average of a signal over a full window exceeds its threshold and reset below the reset ratio" in {
+      val config = spy(KanelaConfiguration.instance().getCircuitBreakerConfig.getSignals)
+      when(config.getResetRatio).thenReturn(0.8)
+
+      val samples = Iterator(20.0, 20.0, 20.0, 5.0, 5.0, 5.0)
+      val signal = new OverloadSignal {
+        override def getName: String = "test-signal"
+        override def sample(): Double = samples.next()
+      }
+
+      val broker = mock(classOf[EventBroker])
+      val circuitBreaker = new OverloadCircuitBreaker(config, JList.of(new OverloadCircuitBreaker.MonitoredSignal(signal, 10.0, new SlidingWindow(3))), broker)
+
+      circuitBreaker.evaluate()
+      circuitBreaker.evaluate()
+      circuitBreaker.isTripped shouldBe false
+
+      circuitBreaker.evaluate()
+      circuitBreaker.isTripped shouldBe true
+      verify(broker, times(1)).publish(any(classOf[StopModules]))
+
+      circuitBreaker.evaluate()
+      circuitBreaker.evaluate()
+      circuitBreaker.isTripped shouldBe true
+
+      circuitBreaker.evaluate()
+      circuitBreaker.isTripped shouldBe false
+      verify(broker, times(1)).publish(any(classOf[RestartModules]))
+    }
+  }
+}
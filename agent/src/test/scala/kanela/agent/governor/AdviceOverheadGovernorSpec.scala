@@ -0,0 +1,112 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.governor
+
+import java.lang.instrument.Instrumentation
+
+import kanela.agent.bootstrap.governor.AdviceCost
+import kanela.agent.util.conf.KanelaConfiguration
+import kanela.agent.util.jvm.Jvm
+import net.bytebuddy.asm.Advice.ExceptionHandler
+import net.bytebuddy.description.`type`.TypeDescription
+import net.bytebuddy.dynamic.DynamicType
+import net.bytebuddy.matcher.ElementMatchers
+import org.mockito.Mockito._
+import org.scalatest.{Matchers, WordSpecLike}
+
+class AdviceOverheadGovernorSpec extends Matchers with WordSpecLike {
+  private val CpuInterval = 100000000L
+
+  "The AdviceOverheadGovernor" should {
+    "remove the most expensive advisor when over budget and apply it again once the overhead drops" in {
+      val config = spy(KanelaConfiguration.instance().getAdviceGovernor)
+      when(config.getBudgetPercentage).thenReturn(5.0)
+      when(config.getRestoreRatio).thenReturn(0.75)
+
+      val jvm = mock(classOf[Jvm])
+      when(jvm.getProcessCPUTime).thenReturn(0L, CpuInterval, 2 * CpuInterval, 3 * CpuInterval)
+
+      val governor = new AdviceOverheadGovernor(config, KanelaConfiguration.instance().getReinstrumentation, mock(classOf[Instrumentation]), jvm)
+      val expensiveTransformer = governor.govern("advisor.Expensive", ElementMatchers.any(), null, ExceptionHandler.Default.SUPPRESSING)
+      governor.govern("advisor.Cheap", ElementMatchers.any(), null, ExceptionHandler.Default.SUPPRESSING)
+      val expensive = governor.advisors().get(0)
+      val cheap = governor.advisors().get(1)
+
+      spend(expensive.getId, 0.03)
+      spend(cheap.getId, 0.025)
+      governor.evaluate()
+
+      expensive.isEnabled shouldBe false
+      cheap.isEnabled shouldBe true
+
+      val builder = mock(classOf[DynamicType.Builder[_]])
+      expensiveTransformer.transform(builder, TypeDescription.ForLoadedType.of(classOf[String]), null, null) shouldBe theSameInstanceAs(builder)
+
+      spend(cheap.getId, 0.025)
+      governor.evaluate()
+      expensive.isEnabled shouldBe false
+
+      spend(cheap.getId, 0.005)
+      governor.evaluate()
+      expensive.isEnabled shouldBe true
+    }
+    "retransform the loaded classes an advisor was applied on in batches" in {
+      val config = spy(KanelaConfiguration.instance().getAdviceGovernor)
+      when(config.getBudgetPercentage).thenReturn(5.0)
+      val reinstrumentation = spy(KanelaConfiguration.instance().getReinstrumentation)
+      when(reinstrumentation.getBatchSize).thenReturn(1)
+      when(reinstrumentation.getPauseBetweenBatchesMillis).thenReturn(0L)
+
+      val jvm = mock(classOf[Jvm])
+      when(jvm.getProcessCPUTime).thenReturn(0L, CpuInterval)
+      val instrumentation = mock(classOf[Instrumentation])
+      when(instrumentation.getAllLoadedClasses).thenReturn(Array[Class[_]](classOf[String], classOf[Integer], classOf[java.lang.Long]))
+      when(instrumentation.isModifiableClass(org.mockito.ArgumentMatchers.any())).thenReturn(true)
+
+      val governor = new AdviceOverheadGovernor(config, reinstrumentation, instrumentation, jvm)
+      val transformer = governor.govern("advisor.Expensive", ElementMatchers.any(), null, ExceptionHandler.Default.SUPPRESSING)
+      AdviceOverheadGovernor.isGoverned(transformer) shouldBe true
+
+      val advisor = governor.advisors().get(0)
+      advisor.track(classOf[String].getName)
+      advisor.track(classOf[Integer].getName)
+
+      spend(advisor.getId, 0.5)
+      governor.evaluate()
+
+      verify(instrumentation).retransformClasses(classOf[String])
+      verify(instrumentation).retransformClasses(classOf[Integer])
+      verify(instrumentation, never()).retransformClasses(classOf[java.lang.Long])
+    }
+
+    "stop tracking the types of an advisor once there are too many of them" in {
+      val advisor = new AdviceOverheadGovernor.GovernedAdvisor("advisor.Everywhere", AdviceCost.register(), 2)
+
+      advisor.track("app.First")
+      advisor.track("app.First")
+      advisor.track("app.Second")
+      advisor.mayHaveAdvised("app.Third") shouldBe false
+
+      advisor.track("app.Third")
+      advisor.getTypes shouldBe empty
+      advisor.mayHaveAdvised("app.Fourth") shouldBe true
+    }
+  }
+
+  private def spend(advisorId: Int, fractionOfInterval: Double): Unit =
+    AdviceCost.record(advisorId, System.nanoTime() - (CpuInterval * fractionOfInterval).toLong)
+}
@@ -0,0 +1,34 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.instrumentation
+
+import java.util.concurrent.ConcurrentLinkedQueue
+
+import kanela.agent.api.instrumentation.InstrumentationBuilder
+
+/**
+  * Records the context class loader of the thread that loads it, taking a while so that the modules loaded after it
+  * are done first when the startup is parallel.
+  */
+class StartupRecordingInstrumentationBuilder extends InstrumentationBuilder {
+  Thread.sleep(200)
+  StartupRecordingInstrumentationBuilder.contextClassLoaders.add(Thread.currentThread().getContextClassLoader)
+}
+
+object StartupRecordingInstrumentationBuilder {
+  val contextClassLoaders = new ConcurrentLinkedQueue[ClassLoader]()
+}
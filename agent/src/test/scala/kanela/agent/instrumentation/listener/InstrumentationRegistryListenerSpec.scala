@@ -0,0 +1,107 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+
+package kanela.agent.instrumentation.listener
+
+import kanela.agent.api.instrumentation.TypeTransformation
+import kanela.agent.api.instrumentation.listener.InstrumentationRegistryListener
+import kanela.agent.util.conf.KanelaConfiguration.ModuleConfiguration
+import net.bytebuddy.agent.builder.AgentBuilder
+import net.bytebuddy.description.`type`.TypeDescription
+import org.mockito.Mockito._
+import org.scalatest.{BeforeAndAfter, Matchers, WordSpecLike}
+
+import scala.collection.JavaConverters._
+
+class InstrumentationRegistryListenerSpec extends Matchers with WordSpecLike with BeforeAndAfter {
+  private val registry = InstrumentationRegistryListener.instance()
+
+  before {
+    registry.clear()
+  }
+
+  "The InstrumentationRegistryListener" should {
+    "aggregate the errors on generated types by module, exception class and message signature" in {
+      val transformationId = registry.register(moduleConfiguration("test-module"), mock(classOf[TypeTransformation]))
+      val transformer = registry.recording(transformationId, mock(classOf[AgentBuilder.Transformer]))
+
+      Seq("app.Proxy$1", "app.Proxy$2", "app.Proxy$3").foreach { typeName =>
+        transformer.transform(null, typeDescription(typeName), null, null)
+        registry.onError(typeName, getClass.getClassLoader, null, false, new IllegalStateException(s"Failed to transform $typeName"))
+      }
+
+      val aggregates = InstrumentationRegistryListener.shareErrorAggregates().asScala
+      aggregates should have size 1
+      aggregates.head.get("path") shouldBe "test-module"
+      aggregates.head.get("exceptionClass") shouldBe classOf[IllegalStateException].getName
+      aggregates.head.get("messageSignature") shouldBe "Failed to transform app.Proxy$#"
+      aggregates.head.get("count") shouldBe "3"
+      aggregates.head.get("sampleType") shouldBe "app.Proxy$1"
+      InstrumentationRegistryListener.shareErrors().asScala.keySet shouldBe Set("app.Proxy$1")
+    }
+
+    "aggregate the errors on lambdas and proxies named after hex addresses and hashes" in {
+      val listener = registry.forModule(moduleConfiguration("test-module"))
+      val typeNames = Seq(
+        "app.Service$$Lambda$123/0x0000000800c4b840",
+        "app.Service$$Lambda$57/0x00000008000a1c40",
+        "app.Service$$EnhancerBySpringCGLIB$$5f3e2a1b",
+        "app.Service$$EnhancerBySpringCGLIB$$c0ffee12",
+        "app.Entity$HibernateProxy$Xx8dKk3a",
+        "app.Entity$HibernateProxy$bQ2wErTy")
+
+      typeNames.foreach { typeName =>
+        listener.onError(typeName, getClass.getClassLoader, null, false, new IllegalStateException(s"Failed to transform $typeName"))
+      }
+
+      InstrumentationRegistryListener.shareErrorAggregates().asScala.map(_.get("messageSignature")).toSet shouldBe Set(
+        "Failed to transform app.Service$$Lambda$#/#",
+        "Failed to transform app.Service$$EnhancerBySpringCGLIB$$#",
+        "Failed to transform app.Entity$HibernateProxy$#")
+      InstrumentationRegistryListener.shareErrorAggregates().asScala.map(_.get("count")).toSet shouldBe Set("2")
+    }
+
+    "attribute to the module the errors reported through its listener before any transformer is applied" in {
+      registry.forModule(moduleConfiguration("test-module"))
+        .onError("app.Type", getClass.getClassLoader, null, false, new IllegalStateException("Cannot resolve type app.Parent"))
+
+      InstrumentationRegistryListener.shareErrorAggregates().asScala.map(_.get("path")) shouldBe Seq("test-module")
+    }
+
+    "only count the errors that do not fit on the aggregates" in {
+      (1 to 300).foreach { i =>
+        registry.onError("app.Type", getClass.getClassLoader, null, false, new RuntimeException("x" * i))
+      }
+
+      InstrumentationRegistryListener.shareErrorAggregates().asScala.map(_.get("path")).toSet shouldBe Set("unknown")
+      InstrumentationRegistryListener.shareErrorAggregates() should have size 256
+      InstrumentationRegistryListener.shareDroppedErrors() shouldBe 44
+    }
+  }
+
+  private def moduleConfiguration(configPath: String): ModuleConfiguration = {
+    val moduleConfig = mock(classOf[ModuleConfiguration])
+    when(moduleConfig.getConfigPath).thenReturn(configPath)
+    moduleConfig
+  }
+
+  private def typeDescription(typeName: String): TypeDescription = {
+    val description = mock(classOf[TypeDescription])
+    when(description.getName).thenReturn(typeName)
+    description
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.reinstrument
+
+import java.lang.instrument.Instrumentation
+import java.util.{Arrays, Collections}
+
+import kanela.agent.util.conf.KanelaConfiguration
+import org.mockito.Mockito._
+import org.scalatest.{Matchers, WordSpecLike}
+
+class RetransformationJobSpec extends Matchers with WordSpecLike {
+  private val types: java.util.List[Class[_]] = Arrays.asList(classOf[String], classOf[Integer], classOf[Long])
+
+  "A RetransformationJob" should {
+    "track the batches that are retransformed while it runs" in {
+      val config = spy(KanelaConfiguration.instance().getReinstrumentation)
+      when(config.getPauseBetweenBatchesMillis).thenReturn(0L)
+      val job = new RetransformationJob("Testing", config)
+
+      val module: Runnable = () => {
+        RetransformationJob.Forwarding.INSTANCE.onBatch(0, types.subList(0, 2), types)
+        RetransformationJob.Forwarding.INSTANCE.onBatch(1, types.subList(2, 3), types)
+        RetransformationJob.Forwarding.INSTANCE.onError(1, types.subList(2, 3), new RuntimeException("Failed"), types)
+      }
+
+      job.run(Arrays.asList(module, module))
+
+      job.getProgress shouldBe new RetransformationJob.Progress(2, 6, 6, 2, 4)
+    }
+
+    "retransform the classes in batches of the configured size" in {
+      val config = spy(KanelaConfiguration.instance().getReinstrumentation)
+      when(config.getBatchSize).thenReturn(2)
+      when(config.getPauseBetweenBatchesMillis).thenReturn(0L)
+      val instrumentation = mock(classOf[Instrumentation])
+      val job = new RetransformationJob("Testing", config)
+
+      job.retransform(instrumentation, types)
+
+      verify(instrumentation).retransformClasses(classOf[String], classOf[Integer])
+      verify(instrumentation).retransformClasses(classOf[Long])
+      job.getProgress shouldBe new RetransformationJob.Progress(0, 3, 3, 0, 2)
+    }
+
+    "ignore the batches that are retransformed outside of a job" in {
+      val config = spy(KanelaConfiguration.instance().getReinstrumentation)
+      val job = new RetransformationJob("Testing", config)
+
+      RetransformationJob.Forwarding.INSTANCE.onBatch(0, types, types)
+      job.run(Collections.emptyList())
+
+      job.getProgress shouldBe new RetransformationJob.Progress(0, 0, 0, 0, 0)
+    }
+
+    "share its progress while it runs and once it completed" in {
+      val config = spy(KanelaConfiguration.instance().getReinstrumentation)
+      when(config.getPauseBetweenBatchesMillis).thenReturn(0L)
+      val job = new RetransformationJob("Stopping modules", config)
+      val whileRunning = new java.util.HashMap[String, String]()
+
+      val module: Runnable = () => {
+        RetransformationJob.Forwarding.INSTANCE.onBatch(0, types.subList(0, 2), types)
+        job.shareInto(whileRunning)
+      }
+      job.run(Arrays.asList(module))
+
+      whileRunning.get("name") shouldBe "Stopping modules"
+      whileRunning.get("running") shouldBe "true"
+      whileRunning.get("submittedClasses") shouldBe "2"
+      whileRunning.get("completedModules") shouldBe "0"
+
+      val completed = new java.util.HashMap[String, String]()
+      job.shareInto(completed)
+      completed.get("running") shouldBe "false"
+      completed.get("completedModules") shouldBe "1"
+      completed.get("discoveredClasses") shouldBe "3"
+    }
+  }
+}
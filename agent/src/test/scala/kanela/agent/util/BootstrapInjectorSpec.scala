@@ -0,0 +1,81 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+
+package kanela.agent.util
+
+import java.util.concurrent.{Callable, CountDownLatch, Executors, TimeUnit}
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.function.Consumer
+import java.util.{Collections, List => JavaList}
+
+import kanela.agent.util.BootstrapInjector.HelperInjection
+import net.bytebuddy.description.`type`.TypeDescription
+import net.bytebuddy.dynamic.DynamicType
+import org.mockito.Mockito._
+import org.scalatest.{Matchers, WordSpecLike}
+
+class BootstrapInjectorSpec extends Matchers with WordSpecLike {
+  private val Helpers = Collections.singletonList("app.kanela.Helper")
+
+  "The helper injection" should {
+    "not inject the helpers until the module is applied" in {
+      val injections = new AtomicInteger()
+      val helperInjection = new HelperInjection("module", Helpers, counting(injections))
+      injections.get() shouldBe 0
+
+      val builder = mock(classOf[DynamicType.Builder[_]])
+      helperInjection.transform(builder, TypeDescription.OBJECT, null, null) shouldBe theSameInstanceAs(builder)
+      injections.get() shouldBe 1
+    }
+
+    "inject the helpers of a module once, even when it is applied on several threads at once" in {
+      val injections = new AtomicInteger()
+      val helperInjection = new HelperInjection("module", Helpers, counting(injections))
+      val executor = Executors.newFixedThreadPool(8)
+      val start = new CountDownLatch(1)
+
+      try {
+        val applied = (1 to 8).map(_ => executor.submit(new Callable[Unit] {
+          override def call(): Unit = { start.await(); (1 to 100).foreach(_ => helperInjection.inject()) }
+        }))
+        start.countDown()
+        applied.foreach(_.get(10, TimeUnit.SECONDS))
+      } finally executor.shutdown()
+
+      injections.get() shouldBe 1
+    }
+
+    "inject the helpers of every module on its own" in {
+      val injected = Collections.synchronizedList(new java.util.ArrayList[String]())
+      val first = new HelperInjection("first", Collections.singletonList("app.kanela.FirstHelper"), new Consumer[JavaList[String]] {
+        override def accept(helpers: JavaList[String]): Unit = injected.addAll(helpers)
+      })
+      val second = new HelperInjection("second", Collections.singletonList("app.kanela.SecondHelper"), new Consumer[JavaList[String]] {
+        override def accept(helpers: JavaList[String]): Unit = injected.addAll(helpers)
+      })
+
+      first.inject()
+      first.inject()
+      second.inject()
+      injected shouldBe java.util.Arrays.asList("app.kanela.FirstHelper", "app.kanela.SecondHelper")
+    }
+  }
+
+  def counting(injections: AtomicInteger): Consumer[JavaList[String]] = new Consumer[JavaList[String]] {
+    override def accept(helpers: JavaList[String]): Unit = injections.incrementAndGet()
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+
+package kanela.agent.util
+
+import java.nio.file.attribute.{FileTime, PosixFilePermissions}
+import java.nio.file.{Files, Path, Paths}
+import java.util.Comparator
+import java.security.MessageDigest
+import java.util.Collections.{emptyMap, emptySet, singleton, singletonMap}
+import java.util.concurrent.TimeUnit
+
+import kanela.agent.Kanela
+import org.scalatest.{Matchers, WordSpecLike}
+
+class JarSpec extends Matchers with WordSpecLike {
+  // Any resource reachable from the agent works as an embedded jar for the extraction.
+  val Resource = "reference.conf"
+  val ResourceHash = sha256(Files.readAllBytes(Paths.get(classOf[Kanela].getResource("/" + Resource).toURI)))
+
+  "The embedded jar extraction" should {
+    "extract into a directory named after the hash on the index" in withDirectory { directory =>
+      val extracted = Jar.extract(Resource, singletonMap(Resource, ResourceHash), directory)
+
+      extracted shouldBe directory.resolve(ResourceHash).resolve(Resource)
+      sha256(Files.readAllBytes(extracted)) shouldBe ResourceHash
+    }
+
+    "reuse a previous extraction" in withDirectory { directory =>
+      val extracted = Jar.extract(Resource, singletonMap(Resource, ResourceHash), directory)
+      val extractedAt = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1))
+      Files.setLastModifiedTime(extracted, extractedAt)
+
+      Jar.extract(Resource, singletonMap(Resource, ResourceHash), directory) shouldBe extracted
+      Files.getLastModifiedTime(extracted) shouldBe extractedAt
+    }
+
+    "extract again when the previous extraction does not match its hash" in withDirectory { directory =>
+      val extracted = Jar.extract(Resource, singletonMap(Resource, ResourceHash), directory)
+      Files.write(extracted, "tampered".getBytes)
+
+      Jar.extract(Resource, singletonMap(Resource, ResourceHash), directory) shouldBe extracted
+      sha256(Files.readAllBytes(extracted)) shouldBe ResourceHash
+    }
+
+    "fall back to the hash of the contents when the index is missing" in withDirectory { directory =>
+      Jar.extract(Resource, emptyMap(), directory) shouldBe directory.resolve(ResourceHash).resolve(Resource)
+    }
+
+    "fall back to the hash of the contents when the index is outdated" in withDirectory { directory =>
+      val outdatedHash = "0" * 64
+      Jar.extract(Resource, singletonMap(Resource, outdatedHash), directory) shouldBe directory.resolve(ResourceHash).resolve(Resource)
+      Files.exists(directory.resolve(outdatedHash)) shouldBe false
+    }
+
+    "create the extraction directory for its owner only" in withDirectory { directory =>
+      val extractions = Jar.ownerOnlyDirectory(directory.resolve("kanela-agent").resolve("jars"))
+
+      PosixFilePermissions.toString(Files.getPosixFilePermissions(extractions)) shouldBe "rwx------"
+    }
+
+    "restrict an existing extraction directory to its owner" in withDirectory { directory =>
+      val extractions = Files.createDirectory(directory.resolve("jars"), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwxrwxrwx")))
+      Files.setPosixFilePermissions(extractions, PosixFilePermissions.fromString("rwxrwxrwx"))
+
+      Jar.ownerOnlyDirectory(extractions)
+      PosixFilePermissions.toString(Files.getPosixFilePermissions(extractions)) shouldBe "rwx------"
+    }
+
+    "trust a verified extraction while its size and modification time do not change" in withDirectory { directory =>
+      val extracted = Jar.extract(Resource, singletonMap(Resource, ResourceHash), directory)
+      val extractedAt = Files.getLastModifiedTime(extracted)
+      // Same size and modification time, so the copy is not hashed again.
+      Files.write(extracted, Array.fill(Files.size(extracted).toInt)('x'.toByte))
+      Files.setLastModifiedTime(extracted, extractedAt)
+
+      Jar.extract(Resource, singletonMap(Resource, ResourceHash), directory) shouldBe extracted
+      sha256(Files.readAllBytes(extracted)) should not be ResourceHash
+    }
+
+    "remove the extractions that were not used for a week" in withDirectory { directory =>
+      val stale = extractedByAnotherJvm(directory, "a" * 64)
+      val unrelated = Files.createDirectory(directory.resolve("unrelated"))
+      Files.setLastModifiedTime(unrelated, FileTime.fromMillis(0))
+
+      Jar.removeStaleExtractions(directory, emptySet())
+      Files.exists(stale) shouldBe false
+      Files.exists(unrelated) shouldBe true
+    }
+
+    "keep the extraction the index points to" in withDirectory { directory =>
+      val current = extractedByAnotherJvm(directory, ResourceHash)
+
+      Jar.removeStaleExtractions(directory, singleton(ResourceHash))
+      Files.exists(current) shouldBe true
+    }
+
+    "keep the extractions that are still in use" in withDirectory { directory =>
+      val inUse = Jar.extract(Resource, emptyMap(), directory).getParent
+      Files.setLastModifiedTime(inUse, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(8)))
+
+      Jar.removeStaleExtractions(directory, emptySet())
+      Files.exists(inUse) shouldBe true
+    }
+  }
+
+  // An extraction last used 8 days ago, that no JVM holds a lock on.
+  def extractedByAnotherJvm(directory: Path, hash: String): Path = {
+    val extraction = Files.createDirectory(directory.resolve(hash))
+    Files.write(extraction.resolve(Resource), "contents".getBytes)
+    Files.setLastModifiedTime(extraction, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(8)))
+    extraction
+  }
+
+  def withDirectory(test: Path => Unit): Unit = {
+    val directory = Files.createTempDirectory("jar-spec")
+    try test(directory) finally Files.walk(directory).sorted(Comparator.reverseOrder[Path]()).forEach(file => Files.delete(file))
+  }
+
+  def sha256(contents: Array[Byte]): String =
+    MessageDigest.getInstance("SHA-256").digest(contents).map("%02x".format(_)).mkString
+}
@@ -0,0 +1,101 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+
+package kanela.agent.util.classloader
+
+import java.io.FileOutputStream
+import java.net.{URL, URLClassLoader}
+import java.nio.file.{Files, Path}
+import java.util.jar.{JarEntry, JarOutputStream}
+
+import net.bytebuddy.ByteBuddy
+import net.bytebuddy.dynamic.loading.{ClassInjector, ClassLoadingStrategy}
+import org.scalatest.{Matchers, WordSpecLike}
+
+class ChildFirstURLClassLoaderSpec extends Matchers with WordSpecLike {
+  "The ChildFirstURLClassLoader" should {
+    "load the classes that are only available locally" in {
+      val local = directoryWith("local.only.Greeter")
+      val loader = new ChildFirstURLClassLoader(Array(local.toUri.toURL), null)
+
+      loader.loadClass("local.only.Greeter").getClassLoader shouldBe theSameInstanceAs(loader)
+    }
+
+    "load the classes of a package split with the parent from where they are available" in {
+      val parent = new URLClassLoader(Array(directoryWith("split.pkg.Remote").toUri.toURL), null)
+      val loader = new ChildFirstURLClassLoader(Array(directoryWith("split.pkg.Local").toUri.toURL), parent)
+
+      loader.loadClass("split.pkg.Local").getClassLoader shouldBe theSameInstanceAs(loader)
+      loader.loadClass("split.pkg.Remote").getClassLoader shouldBe theSameInstanceAs(parent)
+    }
+
+    "load the classes that are also on the system class loader from the system class loader" in {
+      val systemClass = ClassLoader.getSystemClassLoader.loadClass(classOf[SummarizedClass].getName)
+      val classFile = classOf[SummarizedClass].getName.replace('.', '/') + ".class"
+      val local = Files.createTempDirectory("child-first-spec")
+      Files.createDirectories(local.resolve(classFile).getParent)
+      Files.copy(getClass.getResourceAsStream("/" + classFile), local.resolve(classFile))
+
+      val loader = new ChildFirstURLClassLoader(Array(local.toUri.toURL), null)
+
+      loader.loadClass(classOf[SummarizedClass].getName) shouldBe theSameInstanceAs(systemClass)
+      loader.loadClass("java.lang.String") shouldBe theSameInstanceAs(classOf[String])
+    }
+
+    "load the classes that the system class loader defines without a class file" in {
+      assume(ClassInjector.UsingReflection.isAvailable)
+      val injected = new ByteBuddy().subclass(classOf[Object]).name("injected.pkg.Service").make()
+        .load(ClassLoader.getSystemClassLoader, ClassLoadingStrategy.Default.INJECTION).getLoaded
+      val loader = new ChildFirstURLClassLoader(Array(directoryWith("local.only.Other").toUri.toURL), null)
+
+      loader.loadClass("injected.pkg.Service") shouldBe theSameInstanceAs(injected)
+      an[ClassNotFoundException] should be thrownBy loader.loadClass("missing.pkg.Service")
+    }
+
+    "look up all classes locally first when an entry of the class path can not be indexed" in {
+      val parent = new URLClassLoader(Array(directoryWith("unindexed.pkg.Service").toUri.toURL), null)
+      // Only "file" URLs are indexed, while the class loader can still load from a "jar:" URL.
+      val unindexed = new URL("jar:" + jarWith("unindexed.pkg.Service").toUri.toURL + "!/")
+      val loader = new ChildFirstURLClassLoader(Array(directoryWith("local.only.Other").toUri.toURL, unindexed), parent)
+
+      loader.loadClass("unindexed.pkg.Service").getClassLoader shouldBe theSameInstanceAs(loader)
+      loader.loadClass("local.only.Other").getClassLoader shouldBe theSameInstanceAs(loader)
+    }
+  }
+
+  def classFileOf(className: String): Array[Byte] =
+    new ByteBuddy().subclass(classOf[Object]).name(className).make().getBytes
+
+  def directoryWith(className: String): Path = {
+    val directory = Files.createTempDirectory("child-first-spec")
+    val classFile = directory.resolve(className.replace('.', '/') + ".class")
+    Files.createDirectories(classFile.getParent)
+    Files.write(classFile, classFileOf(className))
+    directory
+  }
+
+  def jarWith(className: String): Path = {
+    val jar = Files.createTempFile("child-first-spec", ".jar")
+    val out = new JarOutputStream(new FileOutputStream(jar.toFile))
+    try {
+      out.putNextEntry(new JarEntry(className.replace('.', '/') + ".class"))
+      out.write(classFileOf(className))
+      out.closeEntry()
+    } finally out.close()
+    jar
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+
+package kanela.agent.util.classloader
+
+import java.net.{URL, URLClassLoader}
+import java.nio.file.{Files, Paths}
+
+import org.scalatest.{Matchers, WordSpecLike}
+
+import scala.collection.JavaConverters._
+
+class ClassSummarySpec extends Matchers with WordSpecLike {
+  val summary: ClassSummary = ClassSummary.read(getClass.getResourceAsStream("/kanela/agent/util/classloader/SummarizedClass.class"))
+
+  "The ClassSummary" should {
+    "keep the argument types of every overload of the declared methods" in {
+      summary.getMethods.get("describe").asScala.map(_.asScala.toSet).toSet shouldBe Set(Set(), Set("java.lang.String", "I"))
+      summary.getMethods.get("<init>").asScala.map(_.asScala.toSet).toSet shouldBe Set(Set(), Set("I"))
+      summary.getMethods.containsKey("toString") shouldBe false
+    }
+
+    "keep the declared fields" in {
+      summary.getFields.keySet.asScala shouldBe Set("Version", "Port", "Enabled", "Separator", "startedAt", "name", "retries", "pooled", "attempts")
+    }
+
+    "keep the values of the static constants" in {
+      summary.getFields.get("Version") shouldBe "1.2.3"
+      summary.getFields.get("Port") shouldBe 8080
+      summary.getFields.get("Enabled") shouldBe true
+      summary.getFields.get("Separator") shouldBe ';'
+    }
+
+    "keep the literals that all the constructors store on a field" in {
+      summary.getFields.get("name") shouldBe "default"
+      summary.getFields.get("retries") shouldBe 3
+      summary.getFields.get("pooled") shouldBe true
+    }
+
+    "not keep a value for the fields that are assigned something else than the same literal" in {
+      summary.getFields.get("attempts") shouldBe null.asInstanceOf[AnyRef]
+      summary.getFields.get("startedAt") shouldBe null.asInstanceOf[AnyRef]
+    }
+  }
+
+  "The ClassSummaryIndex" should {
+    "find the summaries of the classes visible from a ClassLoader" in {
+      val index = new ClassSummaryIndex(16)
+
+      index.summaryOf(classOf[SummarizedClass].getName, getClass.getClassLoader).get.getFields.get("Version") shouldBe "1.2.3"
+      index.summaryOf("kanela.agent.util.classloader.Missing", getClass.getClassLoader).isEmpty shouldBe true
+    }
+
+    "only keep the most recently used summaries by their class file" in {
+      val index = new ClassSummaryIndex(2)
+      val classFile = "kanela/agent/util/classloader/SummarizedClass.class"
+      val contents = Files.readAllBytes(Paths.get(getClass.getResource("/" + classFile).toURI))
+
+      (1 to 5).foreach { _ =>
+        val location = Files.createTempDirectory("class-summary-spec")
+        Files.createDirectories(location.resolve(classFile).getParent)
+        Files.write(location.resolve(classFile), contents)
+        val loader = new URLClassLoader(Array[URL](location.toUri.toURL), null)
+
+        index.summaryOf(classOf[SummarizedClass].getName, loader).isDefined shouldBe true
+      }
+
+      index.resourceSummaries() shouldBe 2
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.util.jvm
+
+import java.lang.management.MemoryUsage
+import java.util.{HashMap => JHashMap, Map => JMap}
+
+import io.vavr.collection.{List => JList}
+import org.scalatest.{Matchers, WordSpecLike}
+
+class CollectorProfileSpec extends Matchers with WordSpecLike {
+  "The CollectorProfile" should {
+    "be detected from the names of the collectors" in {
+      CollectorProfile.detect(JList.of("G1 Young Generation", "G1 Old Generation")).getName shouldBe "G1"
+      CollectorProfile.detect(JList.of("ZGC Cycles", "ZGC Pauses")).getName shouldBe "ZGC"
+      CollectorProfile.detect(JList.of("Shenandoah Cycles", "Shenandoah Pauses")).getName shouldBe "Shenandoah"
+      CollectorProfile.detect(JList.of("PS Scavenge", "PS MarkSweep")).getName shouldBe "Generational"
+    }
+
+    "only publish the major collections of generational collectors" in {
+      val profile = CollectorProfile.detect(JList.of("PS Scavenge", "PS MarkSweep"))
+      val after = usages("PS Eden Space" -> usage(0, 100), "PS Old Gen" -> usage(25, 100))
+
+      profile.normalize("PS Scavenge", "end of minor GC", 5, after, after).isEmpty shouldBe true
+
+      val collection = profile.normalize("PS MarkSweep", "end of major GC", 50, after, after).get
+      collection.getPauseMillis shouldBe 50
+      collection.getPercentageFreeMemory shouldBe 75.0
+    }
+
+    "publish the G1 mixed collections together with the previous concurrent cycles" in {
+      val profile = CollectorProfile.detect(JList.of("G1 Young Generation", "G1 Old Generation", "G1 Concurrent GC"))
+      val before = usages("G1 Eden Space" -> usage(50, 100), "G1 Old Gen" -> usage(80, 100))
+      val youngOnly = usages("G1 Eden Space" -> usage(0, 100), "G1 Old Gen" -> usage(80, 100))
+      val mixed = usages("G1 Eden Space" -> usage(0, 100), "G1 Old Gen" -> usage(40, 100))
+
+      profile.normalize("G1 Young Generation", "end of minor GC", 10, before, youngOnly).isEmpty shouldBe true
+      profile.normalize("G1 Concurrent GC", "end of concurrent GC", 200, youngOnly, youngOnly).isEmpty shouldBe true
+
+      val collection = profile.normalize("G1 Young Generation", "end of minor GC", 15, before, mixed).get
+      collection.getPauseMillis shouldBe 15
+      collection.getConcurrentMillis shouldBe 200
+      collection.getPercentageFreeMemory shouldBe 60.0
+    }
+
+    "publish the ZGC cycles with the pauses that happened since the previous cycle" in {
+      val profile = CollectorProfile.detect(JList.of("ZGC Cycles", "ZGC Pauses"))
+      val after = usages("ZHeap" -> usage(30, 100))
+
+      profile.normalize("ZGC Pauses", "end of GC pause", 1, after, after).isEmpty shouldBe true
+      profile.normalize("ZGC Pauses", "end of GC pause", 2, after, after).isEmpty shouldBe true
+
+      val collection = profile.normalize("ZGC Cycles", "end of GC cycle", 300, after, after).get
+      collection.getPauseMillis shouldBe 3
+      collection.getConcurrentMillis shouldBe 300
+      collection.getPercentageFreeMemory shouldBe 70.0
+      collection.getHeapUsedAfterGc shouldBe 30
+    }
+
+    "take the ZGC cycles as pause time when the collector does not report its pauses" in {
+      val profile = CollectorProfile.detect(JList.of("ZGC"))
+      val after = usages("ZHeap" -> usage(30, 100))
+      profile.reportsPauses shouldBe false
+
+      val collection = profile.normalize("ZGC", "end of major GC", 300, after, after).get
+      collection.getPauseMillis shouldBe 300
+      collection.getConcurrentMillis shouldBe 300
+      CollectorProfile.detect(JList.of("ZGC Cycles", "ZGC Pauses")).reportsPauses shouldBe true
+    }
+  }
+
+  private def usage(used: Long, max: Long): MemoryUsage = new MemoryUsage(0, used, max, max)
+
+  private def usages(pools: (String, MemoryUsage)*): JMap[String, MemoryUsage] = {
+    val map = new JHashMap[String, MemoryUsage]()
+    pools.foreach { case (name, usage) => map.put(name, usage) }
+    map
+  }
+}
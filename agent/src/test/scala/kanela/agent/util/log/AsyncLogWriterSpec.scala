@@ -0,0 +1,85 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+
+package kanela.agent.util.log
+
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.{ConcurrentLinkedQueue, CountDownLatch, TimeUnit}
+import java.util.function.Consumer
+
+import org.pmw.tinylog.Level
+import org.scalatest.concurrent.Eventually
+import org.scalatest.time.{Seconds, Span}
+import org.scalatest.{Matchers, WordSpecLike}
+
+import scala.collection.JavaConverters._
+
+class AsyncLogWriterSpec extends Matchers with WordSpecLike with Eventually {
+  override implicit val patienceConfig: PatienceConfig = PatienceConfig(timeout = Span(5, Seconds))
+
+  "The AsyncLogWriter" should {
+    "write the entries on its own thread with the name of the thread that logged them" in {
+      val sink = new RecordingSink
+      val writer = new AsyncLogWriter(8, sink)
+
+      writer.publish(Level.INFO, "first", null)
+      writer.publish(Level.DEBUG, "second", null)
+
+      eventually(sink.messages shouldBe List("first", "second"))
+      sink.entries.asScala.map(_.getThreadName).toSet shouldBe Set(Thread.currentThread().getName)
+      sink.writingThreads.asScala.toSet shouldBe Set("kamon-agent-logger")
+    }
+
+    "count the dropped entries while the buffer is full and still write the errors" in {
+      val sink = new RecordingSink(blockFirst = true)
+      val writer = new AsyncLogWriter(4, sink)
+
+      // The writer takes the first entry and stays blocked on it, so the buffer fills up.
+      writer.publish(Level.INFO, "blocking", null)
+      sink.blocked.await(5, TimeUnit.SECONDS) shouldBe true
+      (1 to 4).foreach(i => writer.publish(Level.INFO, s"buffered-$i", null))
+      (1 to 3).foreach(i => writer.publish(Level.INFO, s"dropped-$i", null))
+      writer.publish(Level.ERROR, "failure", null)
+
+      writer.getDropped shouldBe 3
+      sink.messages shouldBe List("blocking", "failure")
+
+      sink.release.countDown()
+      eventually(sink.messages should contain allOf("buffered-1", "buffered-4", "3 log entries were dropped because the log buffer was full."))
+      sink.messages.filter(_.startsWith("dropped")) shouldBe empty
+    }
+  }
+
+  class RecordingSink(blockFirst: Boolean = false) extends Consumer[AsyncLogWriter.Entry] {
+    val entries = new ConcurrentLinkedQueue[AsyncLogWriter.Entry]()
+    val writingThreads = new ConcurrentLinkedQueue[String]()
+    val blocked = new CountDownLatch(1)
+    val release = new CountDownLatch(1)
+    private val first = new AtomicBoolean(true)
+
+    override def accept(entry: AsyncLogWriter.Entry): Unit = {
+      entries.add(entry)
+      writingThreads.add(Thread.currentThread().getName)
+      if (blockFirst && first.compareAndSet(true, false)) {
+        blocked.countDown()
+        release.await(5, TimeUnit.SECONDS)
+      }
+    }
+
+    def messages: List[String] = entries.asScala.map(_.getMessage).toList
+  }
+}
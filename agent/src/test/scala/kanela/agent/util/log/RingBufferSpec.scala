@@ -0,0 +1,80 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+
+package kanela.agent.util.log
+
+import java.util.concurrent.{CountDownLatch, Executors, TimeUnit}
+
+import org.scalatest.{Matchers, WordSpecLike}
+
+import scala.collection.mutable
+
+class RingBufferSpec extends Matchers with WordSpecLike {
+  "The RingBuffer" should {
+    "round the capacity up to a power of two" in {
+      new RingBuffer[String](1).capacity() shouldBe 2
+      new RingBuffer[String](4).capacity() shouldBe 4
+      new RingBuffer[String](5).capacity() shouldBe 8
+    }
+
+    "reject elements while it is full" in {
+      val buffer = new RingBuffer[Integer](4)
+      (1 to 4).foreach(i => buffer.offer(i) shouldBe true)
+      buffer.offer(5) shouldBe false
+
+      buffer.poll() shouldBe 1
+      buffer.offer(5) shouldBe true
+      Iterator.continually(buffer.poll()).takeWhile(_ != null).toList shouldBe List(2, 3, 4, 5)
+    }
+
+    "neither lose nor duplicate the elements of concurrent producers" in {
+      val Producers = 4
+      val ElementsPerProducer = 50000
+      val buffer = new RingBuffer[(Int, Int)](64)
+      val start = new CountDownLatch(1)
+      val executor = Executors.newFixedThreadPool(Producers)
+
+      (0 until Producers).foreach { producer =>
+        executor.submit(new Runnable {
+          override def run(): Unit = {
+            start.await()
+            (0 until ElementsPerProducer).foreach { element =>
+              while (!buffer.offer((producer, element))) Thread.`yield`()
+            }
+          }
+        })
+      }
+
+      start.countDown()
+      val consumed = Array.fill(Producers)(mutable.ArrayBuffer.empty[Int])
+      var remaining = Producers * ElementsPerProducer
+      while (remaining > 0) {
+        val element = buffer.poll()
+        if (element == null) Thread.`yield`() else {
+          consumed(element._1) += element._2
+          remaining -= 1
+        }
+      }
+
+      executor.shutdown()
+      executor.awaitTermination(10, TimeUnit.SECONDS) shouldBe true
+      buffer.poll() shouldBe null
+      // Elements of each producer are consumed once and in the order they were offered.
+      consumed.foreach(elements => elements shouldBe (0 until ElementsPerProducer))
+    }
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package kanela.agent.util.matcher
+
+import org.scalatest.{Matchers, WordSpecLike}
+
+class TypeNameAutomatonSpec extends Matchers with WordSpecLike {
+  "The TypeNameAutomaton" should {
+    "match the same type names as the regular expressions it was compiled from" in {
+      val patterns = Seq("app.kanela..*", "app.kanela.cases.+", "java.net.*", "^org\\.apache\\.http\\..*$", "com.foo.Bar|com.baz..*Impl")
+      val typeNames = Seq("app.kanela.Foo", "app.kanela.", "app.kanelaXFoo", "app.kanela.cases.Foo", "app.kanela.cases.", "java.net",
+        "java.netty.Channel", "org.apache.http.Client", "orgXapache.http.Client", "com.foo.Bar", "com.foo.Bar2", "com.baz.ServiceImpl", "com.baz.Impl", "")
+
+      val builder = TypeNameAutomaton.builder()
+      patterns.zipWithIndex.foreach { case (pattern, label) => builder.addPattern(pattern, label) shouldBe true }
+      val automaton = builder.build(1000)
+
+      for (typeName <- typeNames; (pattern, label) <- patterns.zipWithIndex) {
+        withClue(s"$pattern on $typeName") {
+          automaton.labelsOf(automaton.run(typeName)).get(label) shouldBe typeName.matches(pattern)
+        }
+      }
+    }
+
+    "match type names in both binary and internal form" in {
+      val automaton = TypeNameAutomaton.builder()
+        .addTypeName("kanela.agent.Foo$Bar", 0)
+        .build(1000)
+
+      automaton.labelsOf(automaton.run("kanela.agent.Foo$Bar")).get(0) shouldBe true
+      automaton.labelsOf(automaton.run("kanela/agent/Foo$Bar")).get(0) shouldBe true
+      automaton.labelsOf(automaton.run("kanela.agent.Foo")).get(0) shouldBe false
+    }
+
+    "reject the patterns that it can not compile" in {
+      val builder = TypeNameAutomaton.builder()
+      builder.addPattern("kanela.(agent|api)..*", 0) shouldBe false
+      builder.addPattern("kanela.agent.Foo|kanela.[a-z]+", 0) shouldBe false
+      builder.addPattern("kanela\\d", 0) shouldBe false
+
+      val automaton = builder.addSupportedAlternatives("kanela.agent.Foo|kanela.a+", 1).build(1000)
+      automaton.labelsOf(automaton.run("kanela.agent.Foo")).get(0) shouldBe false
+      automaton.labelsOf(automaton.run("kanela.agent.Foo")).get(1) shouldBe true
+    }
+
+    "give up when the automaton needs too many states" in {
+      val builder = TypeNameAutomaton.builder()
+      (1 to 100).foreach(i => builder.addTypeName(s"kanela.agent.Type$i", 0))
+
+      builder.build(10) shouldBe null
+    }
+  }
+}
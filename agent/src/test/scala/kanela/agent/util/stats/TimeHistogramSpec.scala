@@ -0,0 +1,48 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+
+package kanela.agent.util.stats
+
+import org.scalatest.{Matchers, WordSpecLike}
+
+import scala.collection.JavaConverters._
+
+class TimeHistogramSpec extends Matchers with WordSpecLike {
+
+  "The TimeHistogram" should {
+    "approximate percentiles by the upper bound of their bucket" in {
+      val histogram = new TimeHistogram()
+      (1 to 90).foreach(_ => histogram.record(100))
+      (1 to 10).foreach(_ => histogram.record(10000))
+
+      histogram.count() shouldBe 100
+      histogram.totalNanos() shouldBe 109000
+      histogram.maxNanos() shouldBe 10000
+      histogram.percentileNanos(50) shouldBe 127
+      histogram.percentileNanos(99) shouldBe 16383
+    }
+
+    "share its summary with the provided prefix" in {
+      val histogram = new TimeHistogram()
+      val shared = new java.util.HashMap[String, String]()
+      histogram.record(3)
+      histogram.shareInto("matching", shared)
+
+      shared.asScala should contain allOf("matchingCount" -> "1", "matchingNanos" -> "3", "matchingMaxNanos" -> "3", "matchingHistogram" -> "3=1")
+    }
+  }
+}
@@ -0,0 +1,32 @@
+/*
+ * =========================================================================================
+ * Copyright © 2013-2021 the kamon project <http://kamon.io/>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ * =========================================================================================
+ */
+
+package app.kanela.training;
+
+/**
+ * Representative run of the agent, used at build time to record which agent classes are loaded during the premain and
+ * while transforming classes.
+ */
+public class TrainingApp {
+
+    public static void main(String[] args) {
+        long total = 0;
+        for (int i = 0; i < 1000; i++) {
+            total += new TrainingWorker().work(i);
+        }
+        System.out.println("Training run finished: " + total + " in " + TrainingAdvisor.elapsedNanos + " ns.");
+    }
+}